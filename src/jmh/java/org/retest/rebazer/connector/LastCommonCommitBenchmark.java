@@ -0,0 +1,57 @@
+package org.retest.rebazer.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.retest.rebazer.domain.GithubResponses.Commit;
+
+/**
+ * Lookup of the base of a pull request in its commits, as listed by GitHub: oldest first, each commit referencing its
+ * predecessor as parent and the first one the base on the destination branch.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class LastCommonCommitBenchmark {
+
+	@Param( { "10", "250", "1000", "5000" } )
+	int commits;
+
+	List<Commit> commitList;
+
+	@Setup
+	public void createCommits() {
+		commitList = new ArrayList<>( commits );
+		String parent = ParsePullRequestsBenchmark.sha( -1 );
+		for ( int i = 0; i < commits; i++ ) {
+			final String sha = ParsePullRequestsBenchmark.sha( i );
+			commitList.add( Commit.builder() //
+					.sha( sha ) //
+					.parents( Collections.singletonList( Commit.builder().sha( parent ).build() ) ) //
+					.build() );
+			parent = sha;
+		}
+	}
+
+	@Benchmark
+	public String lastCommonCommitId() {
+		return GithubConnector.lastCommonCommitId( commitList.stream() );
+	}
+
+}
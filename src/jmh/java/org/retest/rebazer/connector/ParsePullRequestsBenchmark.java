@@ -0,0 +1,101 @@
+package org.retest.rebazer.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.retest.rebazer.domain.PullRequest;
+
+/**
+ * Parsing of one listing of pull requests, as returned by GitHub and Bitbucket, including properties which aren't
+ * bound.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class ParsePullRequestsBenchmark {
+
+	@Param( { "10", "100", "1000", "5000" } )
+	int pullRequests;
+
+	byte[] githubJson;
+	byte[] bitbucketJson;
+
+	@Setup
+	public void createPayloads() {
+		githubJson = githubJson( pullRequests ).getBytes( StandardCharsets.UTF_8 );
+		bitbucketJson = bitbucketJson( pullRequests ).getBytes( StandardCharsets.UTF_8 );
+	}
+
+	@Benchmark
+	public List<PullRequest> github() throws IOException {
+		return GithubConnector.parsePullRequestsJson( new ByteArrayInputStream( githubJson ) );
+	}
+
+	@Benchmark
+	public List<PullRequest> bitbucket() throws IOException {
+		return BitbucketConnector.parsePullRequestsJson( new ByteArrayInputStream( bitbucketJson ) );
+	}
+
+	static String githubJson( final int count ) {
+		final StringBuilder json = new StringBuilder( "[" );
+		for ( int i = 0; i < count; i++ ) {
+			json.append( i == 0 ? "" : "," ) //
+					.append( "{\"url\":\"https://api.github.com/repos/retest/rebazer/pulls/" ).append( i ).append( "\"," ) //
+					.append( "\"number\":" ).append( i ).append( "," ) //
+					.append( "\"state\":\"open\",\"locked\":false," ) //
+					.append( "\"title\":\"Pull request " ).append( i ).append( "\"," ) //
+					.append( "\"body\":\"Description of pull request " ).append( i ).append( " @All\"," ) //
+					.append( "\"user\":{\"login\":\"author\",\"id\":1,\"type\":\"User\"}," ) //
+					.append( "\"labels\":[{\"id\":7,\"name\":\"enhancement\"}]," ) //
+					.append( "\"requested_reviewers\":[{\"login\":\"reviewer\",\"id\":2}]," ) //
+					.append( "\"head\":{\"label\":\"retest:feature/" ).append( i ).append( "\"," ) //
+					.append( "\"ref\":\"feature/" ).append( i ).append( "\",\"sha\":\"" ).append( sha( i ) ) //
+					.append( "\",\"repo\":{\"id\":3,\"full_name\":\"retest/rebazer\",\"private\":false}}," ) //
+					.append( "\"base\":{\"label\":\"retest:master\",\"ref\":\"master\",\"sha\":\"" ).append( sha( -1 ) ) //
+					.append( "\",\"repo\":{\"id\":3,\"full_name\":\"retest/rebazer\",\"private\":false}}," ) //
+					.append( "\"created_at\":\"2021-03-01T09:00:00Z\",\"updated_at\":\"2021-03-01T10:00:00Z\"}" );
+		}
+		return json.append( "]" ).toString();
+	}
+
+	static String bitbucketJson( final int count ) {
+		final StringBuilder json = new StringBuilder( "{\"pagelen\":" ).append( count ).append( ",\"values\":[" );
+		for ( int i = 0; i < count; i++ ) {
+			json.append( i == 0 ? "" : "," ) //
+					.append( "{\"id\":" ).append( i ).append( ",\"type\":\"pullrequest\"," ) //
+					.append( "\"title\":\"Pull request " ).append( i ).append( "\"," ) //
+					.append( "\"description\":\"Description of pull request " ).append( i ).append( "\"," ) //
+					.append( "\"state\":\"OPEN\",\"author\":{\"display_name\":\"Author\"}," ) //
+					.append( "\"source\":{\"branch\":{\"name\":\"feature/" ).append( i ).append( "\"}," ) //
+					.append( "\"commit\":{\"hash\":\"" ).append( sha( i ) ).append( "\"}}," ) //
+					.append( "\"destination\":{\"branch\":{\"name\":\"master\"}," ) //
+					.append( "\"commit\":{\"hash\":\"" ).append( sha( -1 ) ).append( "\"}}," ) //
+					.append( "\"participants\":[{\"approved\":true,\"role\":\"REVIEWER\"}]," ) //
+					.append( "\"created_on\":\"2021-03-01T09:00:00.000000+00:00\"," ) //
+					.append( "\"updated_on\":\"2021-03-01T10:00:00.000000+00:00\"}" );
+		}
+		return json.append( "],\"size\":" ).append( count ).append( "}" ).toString();
+	}
+
+	static String sha( final int i ) {
+		return String.format( "%040x", i & 0xffffffffL );
+	}
+
+}
@@ -0,0 +1,57 @@
+package org.retest.rebazer.domain;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying a pull request on every rebase or merge to record its new last update.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class PullRequestBenchmark {
+
+	PullRequest pullRequest;
+	Date lastUpdate;
+
+	@Setup
+	public void createPullRequest() {
+		pullRequest = PullRequest.builder() //
+				.id( 42 ) //
+				.title( "Pull request" ) //
+				.creator( 1 ) //
+				.description( "Description @All" ) //
+				.reviewers( Map.of( 2, "reviewer" ) ) //
+				.source( "feature/42" ) //
+				.destination( "master" ) //
+				.lastUpdate( new Date( 0 ) ) //
+				.build();
+		lastUpdate = new Date();
+	}
+
+	@Benchmark
+	public PullRequest updateLastChange() {
+		return pullRequest.updateLastChange( lastUpdate );
+	}
+
+	@Benchmark
+	public boolean isReviewByAllReviewersRequested() {
+		return pullRequest.isReviewByAllReviewersRequested();
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.retest.rebazer.service;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.retest.rebazer.RepositoryHostingTypes;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+/**
+ * Change detection of one polling cycle: every pull request of every repository is looked up, unchanged ones are
+ * skipped. Keys are {@link RepositoryConfig}s, whose hash code includes the {@link URL}s of the hosts.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class PullRequestLastUpdateStoreBenchmark {
+
+	@Param( { "1", "10", "50" } )
+	int repositories;
+
+	@Param( { "10", "100", "1000" } )
+	int pullRequests;
+
+	PullRequestLastUpdateStore store;
+	RepositoryConfig[] repoConfigs;
+	PullRequest[] pullRequestList;
+
+	@Setup
+	public void fillStore() throws MalformedURLException {
+		store = new PullRequestLastUpdateStore();
+		repoConfigs = new RepositoryConfig[repositories];
+		for ( int i = 0; i < repositories; i++ ) {
+			repoConfigs[i] = RepositoryConfig.builder() //
+					.type( RepositoryHostingTypes.GITHUB ) //
+					.gitHost( new URL( "https://github.com" ) ) //
+					.apiHost( new URL( "https://api.github.com" ) ) //
+					.team( "retest" ) //
+					.repo( "repo-" + i ) //
+					.mainBranch( "master" ) //
+					.build();
+		}
+		pullRequestList = new PullRequest[pullRequests];
+		for ( int i = 0; i < pullRequests; i++ ) {
+			pullRequestList[i] = PullRequest.builder() //
+					.id( i ) //
+					.source( "feature/" + i ) //
+					.destination( "master" ) //
+					.lastUpdate( PullRequestLastUpdateStore.parseStringToDate( "2021-03-01T10:00:00Z" ) ) //
+					.build();
+		}
+		for ( final RepositoryConfig repoConfig : repoConfigs ) {
+			for ( final PullRequest pullRequest : pullRequestList ) {
+				store.setHandled( repoConfig, pullRequest );
+			}
+		}
+	}
+
+	@Benchmark
+	public void isHandled( final Blackhole blackhole ) {
+		for ( final RepositoryConfig repoConfig : repoConfigs ) {
+			for ( final PullRequest pullRequest : pullRequestList ) {
+				blackhole.consume( store.isHandled( repoConfig, pullRequest ) );
+			}
+		}
+	}
+
+	@Benchmark
+	public void setHandled() {
+		for ( final RepositoryConfig repoConfig : repoConfigs ) {
+			for ( final PullRequest pullRequest : pullRequestList ) {
+				store.setHandled( repoConfig, pullRequest );
+			}
+		}
+	}
+
+}
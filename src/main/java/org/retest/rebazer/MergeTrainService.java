@@ -0,0 +1,357 @@
+package org.retest.rebazer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.connector.RepositoryConnector;
+import org.retest.rebazer.connector.RequestBudgetExhaustedException;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.PullRequestLastUpdateStore;
+import org.retest.rebazer.service.RebaseService;
+import org.retest.rebazer.service.RepositoryTags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Merge trains per destination branch: instead of merging one pull request per cycle and rebasing all others onto the
+ * moved destination, approved pull requests with a green build are stacked, each rebased onto its predecessor. The
+ * build of a pull request in the train then covers all pull requests ahead of it, so the train is merged up to its
+ * last pull request with a green build. If the build of the last one failed, the first failing one is bisected,
+ * ejected and the pull requests behind it are stacked onto its predecessor again. A pull request which was pushed to
+ * or lost its approval after it joined the train is dropped the same way, and if the destination moved, the whole
+ * train is stacked onto it again before anything is merged.
+ */
+@Slf4j
+@Service
+public class MergeTrainService {
+
+	static final String MSG_EJECTED = "Build failed in the merge train, this pull request needs some manual love ...";
+
+	private final boolean enabled;
+	private final int maxLength;
+	private final RebaseService rebaseService;
+	private final PullRequestLastUpdateStore pullRequestLastUpdateStore;
+	private final MeterRegistry meterRegistry;
+
+	/**
+	 * A pull request in a train, as of its last rebase by the train.
+	 */
+	@Value
+	private static class Car {
+		private final PullRequest pullRequest;
+		/**
+		 * Commit of the source, <code>null</code> if unknown
+		 */
+		private final String head;
+
+		String upstream() {
+			return head != null ? head : pullRequest.getSource();
+		}
+	}
+
+	/**
+	 * Pull requests per repository and destination branch, the first one is merged next
+	 */
+	private final Map<RepositoryConfig, Map<String, List<Car>>> trains = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, List<PullRequest>> boarding = new ConcurrentHashMap<>();
+
+	@Autowired
+	public MergeTrainService( final RebazerConfig rebazerConfig, final RebaseService rebaseService,
+			final PullRequestLastUpdateStore pullRequestLastUpdateStore, final MeterRegistry meterRegistry ) {
+		enabled = rebazerConfig.isMergeTrain();
+		maxLength = rebazerConfig.getMergeTrainLength();
+		this.rebaseService = rebaseService;
+		this.pullRequestLastUpdateStore = pullRequestLastUpdateStore;
+		this.meterRegistry = meterRegistry;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return if the pull request is stacked in a train, it is only handled by
+	 *         {@link #handleTrains(RepositoryConnector, RepositoryConfig, Collection)} then
+	 */
+	public boolean isInTrain( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		return train( repoConfig, pullRequest.getDestination() ).stream()
+				.anyMatch( car -> car.getPullRequest().getId().equals( pullRequest.getId() ) );
+	}
+
+	/**
+	 * Stack the approved pull request with a green build onto the train of its destination at the end of the cycle.
+	 */
+	public void board( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		boarding.computeIfAbsent( repoConfig, key -> new ArrayList<>() ).add( pullRequest );
+	}
+
+	/**
+	 * Merge, eject and stack the pull requests of the trains of the repository, after all pull requests of the cycle
+	 * were handled.
+	 *
+	 * @param openPullRequests
+	 *            all open pull requests of the repository
+	 */
+	public void handleTrains( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final Collection<PullRequest> openPullRequests ) {
+		final List<PullRequest> ready = boarding.getOrDefault( repoConfig, Collections.emptyList() );
+		boarding.remove( repoConfig );
+		final Map<String, List<Car>> repoTrains =
+				trains.computeIfAbsent( repoConfig, key -> new ConcurrentHashMap<>() );
+		final Set<String> destinations = new LinkedHashSet<>( repoTrains.keySet() );
+		ready.forEach( pullRequest -> destinations.add( pullRequest.getDestination() ) );
+
+		for ( final String destination : destinations ) {
+			final List<Car> cars = repoTrains.computeIfAbsent( destination, key -> new ArrayList<>() );
+			try {
+				advance( repoConnector, repoConfig, destination, cars, openPullRequests );
+				ready.stream() //
+						.filter( pullRequest -> pullRequest.getDestination().equals( destination ) ) //
+						.forEach( pullRequest -> stack( repoConnector, repoConfig, destination, cars, pullRequest ) );
+			} catch ( final RequestBudgetExhaustedException e ) {
+				throw e;
+			} catch ( final RuntimeException e ) {
+				log.error( "Error in the merge train into {} of {}, dissolving it!", destination, repoConfig, e );
+				dissolve( repoConfig, cars );
+			}
+			if ( cars.isEmpty() ) {
+				repoTrains.remove( destination );
+			}
+		}
+	}
+
+	private void advance( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final String destination, final List<Car> cars, final Collection<PullRequest> openPullRequests ) {
+		if ( cars.isEmpty() ) {
+			return;
+		}
+		final Map<Integer, PullRequest> open = openPullRequests.stream() //
+				.collect( Collectors.toMap( PullRequest::getId, Function.identity(), ( first, second ) -> first ) );
+		if ( !cars.stream().allMatch( car -> open.containsKey( car.getPullRequest().getId() ) ) ) {
+			log.info( "A pull request of the merge train into {} of {} was closed, dissolving it.", destination,
+					repoConfig );
+			dissolve( repoConfig, cars );
+			return;
+		}
+		final int changed = firstChanged( repoConnector, repoConfig, cars, open );
+		if ( changed >= 0 ) {
+			final Car changedCar = cars.get( changed );
+			log.info( "{} changed after it joined the merge train into {}, dropping it.", changedCar.getPullRequest(),
+					destination );
+			pullRequestLastUpdateStore.resetPullRequest( repoConfig, changedCar.getPullRequest() );
+			final List<Car> followers = new ArrayList<>( cars.subList( changed + 1, cars.size() ) );
+			cars.subList( changed, cars.size() ).clear();
+			restack( repoConnector, repoConfig, destination, cars, followers, changedCar.upstream(), -1 );
+		}
+		if ( !cars.isEmpty() && rebaseNeeded( repoConnector, repoConfig, cars.get( 0 ).getPullRequest() ) ) {
+			log.info( "Destination {} of {} moved, stacking the merge train onto it again.", destination, repoConfig );
+			final List<Car> followers = new ArrayList<>( cars );
+			cars.clear();
+			restack( repoConnector, repoConfig, destination, cars, followers, destination, -1 );
+			return;
+		}
+		if ( cars.isEmpty() ) {
+			return;
+		}
+
+		final int last = cars.size() - 1;
+		final int failed;
+		final int mergeable;
+		if ( repoConnector.greenBuildExists( cars.get( last ).getPullRequest() ) ) {
+			failed = -1;
+			mergeable = last;
+		} else {
+			failed = repoConnector.failedBuildExists( cars.get( last ).getPullRequest() )
+					? firstFailed( repoConnector, cars )
+					: -1;
+			// the pull requests ahead of a failed or running build are merged, if a green build covers them
+			mergeable = lastGreen( repoConnector, cars, (failed < 0 ? last : failed) - 1 );
+		}
+
+		for ( int i = 0; i <= mergeable; i++ ) {
+			final PullRequest car = cars.get( i ).getPullRequest();
+			log.info( "Merging pull request {} of the merge train into {}.", car, destination );
+			repoConnector.merge( car );
+			count( repoConfig, "merged" );
+		}
+		if ( mergeable >= 0 ) {
+			pullRequestLastUpdateStore.resetDestination( repoConfig, destination );
+			// the destination branch moved
+			rebaseService.invalidate( repoConfig, destination );
+		}
+		if ( failed >= 0 ) {
+			eject( repoConnector, repoConfig, destination, cars, failed, mergeable );
+		}
+		cars.subList( 0, mergeable + 1 ).clear();
+	}
+
+	/**
+	 * A pull request changed, if its head differs from the one it was stacked with or it isn't approved anymore. The
+	 * head is only fetched if the last update of the pull request differs, which also changes e.g. on comments.
+	 *
+	 * @return index of the first changed pull request, -1 if there is none
+	 */
+	private int firstChanged( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final List<Car> cars, final Map<Integer, PullRequest> open ) {
+		for ( int i = 0; i < cars.size(); i++ ) {
+			final Car car = cars.get( i );
+			final PullRequest current = open.get( car.getPullRequest().getId() );
+			if ( !Objects.equals( current.getLastUpdate(), car.getPullRequest().getLastUpdate() ) ) {
+				final String head = rebaseService.getHead( repoConfig, current.getSource() ).orElse( null );
+				if ( !Objects.equals( head, car.getHead() ) ) {
+					return i;
+				}
+				cars.set( i, new Car( current, head ) );
+			}
+			if ( !repoConnector.isApproved( current ) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Like the other pull requests, checked with the local repository first and with the API as fallback.
+	 */
+	private boolean rebaseNeeded( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final PullRequest pullRequest ) {
+		return rebaseService.rebaseNeeded( repoConfig, pullRequest )
+				.orElseGet( () -> repoConnector.rebaseNeeded( pullRequest ) );
+	}
+
+	/**
+	 * Bisect the first pull request with a failed build, as all pull requests behind it fail as well.
+	 */
+	private static int firstFailed( final RepositoryConnector repoConnector, final List<Car> cars ) {
+		int low = 0;
+		int high = cars.size() - 1;
+		while ( low < high ) {
+			final int middle = (low + high) / 2;
+			if ( repoConnector.failedBuildExists( cars.get( middle ).getPullRequest() ) ) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the last pull request up to <code>from</code> with a green build, -1 if there is none
+	 */
+	private static int lastGreen( final RepositoryConnector repoConnector, final List<Car> cars,
+			final int from ) {
+		for ( int i = from; i >= 0; i-- ) {
+			if ( repoConnector.greenBuildExists( cars.get( i ).getPullRequest() ) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove the failed pull request and stack the ones behind it onto its predecessor, which drops its commits.
+	 */
+	private void eject( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final String destination, final List<Car> cars, final int failed, final int merged ) {
+		final Car failedCar = cars.get( failed );
+		log.info( "Ejecting {} from the merge train into {}, its build failed.", failedCar.getPullRequest(),
+				destination );
+		repoConnector.addComment( failedCar.getPullRequest(), MSG_EJECTED );
+		count( repoConfig, "ejected" );
+		pullRequestLastUpdateStore.resetPullRequest( repoConfig, failedCar.getPullRequest() );
+
+		final List<Car> followers = new ArrayList<>( cars.subList( failed + 1, cars.size() ) );
+		cars.subList( failed, cars.size() ).clear();
+		restack( repoConnector, repoConfig, destination, cars, followers, failedCar.upstream(), merged );
+	}
+
+	/**
+	 * Stack the followers onto the last not merged pull request of the train or the destination, dropping the commits
+	 * of <code>upstream</code>.
+	 */
+	private void restack( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final String destination, final List<Car> cars, final List<Car> followers, final String upstream,
+			final int merged ) {
+		String dropped = upstream;
+		for ( final Car follower : followers ) {
+			final PullRequest pullRequest = follower.getPullRequest();
+			final String onto = cars.size() > merged + 1 ? cars.get( cars.size() - 1 ).getPullRequest().getSource()
+					: destination;
+			if ( rebaseService.rebaseOnto( repoConfig, pullRequest, dropped, onto ) ) {
+				cars.add( boarded( repoConnector, repoConfig, pullRequest ) );
+			} else {
+				repoConnector.addComment( pullRequest, RebazerService.MSG_REBASE_FAILED );
+				count( repoConfig, "conflict" );
+				pullRequestLastUpdateStore.resetPullRequest( repoConfig, pullRequest );
+			}
+			// the following pull requests contain the former commits of this one
+			dropped = follower.upstream();
+		}
+	}
+
+	private void stack( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final String destination, final List<Car> cars, final PullRequest pullRequest ) {
+		if ( cars.size() >= maxLength ) {
+			log.info( "Merge train into {} is full, {} has to wait.", destination, pullRequest );
+			return;
+		}
+		final String onto = cars.isEmpty() ? destination : cars.get( cars.size() - 1 ).getPullRequest().getSource();
+		if ( rebaseService.rebaseOnto( repoConfig, pullRequest, destination, onto ) ) {
+			log.info( "{} joined the merge train into {} at position {}.", pullRequest, destination, cars.size() + 1 );
+			cars.add( boarded( repoConnector, repoConfig, pullRequest ) );
+			count( repoConfig, "boarded" );
+		} else {
+			repoConnector.addComment( pullRequest, RebazerService.MSG_REBASE_FAILED );
+			count( repoConfig, "conflict" );
+			repoConnector.invalidate( pullRequest );
+			pullRequestLastUpdateStore.setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ),
+					PullRequestState.REBASE_CANDIDATE );
+		}
+	}
+
+	/**
+	 * Record the head and last update of the just rebased pull request, to notice later changes to it.
+	 */
+	private Car boarded( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final PullRequest pullRequest ) {
+		repoConnector.invalidate( pullRequest );
+		return new Car( repoConnector.getLatestUpdate( pullRequest ),
+				rebaseService.getHead( repoConfig, pullRequest.getSource() ).orElse( null ) );
+	}
+
+	/**
+	 * Forget the train, its pull requests are handled again like any other one.
+	 */
+	private void dissolve( final RepositoryConfig repoConfig, final List<Car> cars ) {
+		cars.forEach( car -> pullRequestLastUpdateStore.resetPullRequest( repoConfig, car.getPullRequest() ) );
+		cars.clear();
+	}
+
+	private List<Car> train( final RepositoryConfig repoConfig, final String destination ) {
+		return trains.getOrDefault( repoConfig, Collections.emptyMap() ).getOrDefault( destination,
+				Collections.emptyList() );
+	}
+
+	private void count( final RepositoryConfig repoConfig, final String outcome ) {
+		meterRegistry.counter( RebazerService.METRIC_PULL_REQUESTS,
+				RepositoryTags.of( repoConfig ).and( "outcome", outcome ) ).increment();
+	}
+
+}
@@ -2,18 +2,44 @@ package org.retest.rebazer;
 
 import static org.retest.rebazer.config.RebazerConfig.POLL_INTERVAL_DEFAULT;
 import static org.retest.rebazer.config.RebazerConfig.POLL_INTERVAL_KEY;
+import static org.retest.rebazer.config.RebazerConfig.WEBHOOK_COALESCE_DELAY_DEFAULT;
+import static org.retest.rebazer.config.RebazerConfig.WEBHOOK_COALESCE_DELAY_KEY;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 
 import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.connector.AsyncRepositoryConnector;
 import org.retest.rebazer.connector.RepositoryConnector;
+import org.retest.rebazer.connector.RequestBudgetExhaustedException;
+import org.retest.rebazer.connector.RequestContext;
+import org.retest.rebazer.connector.ResponseCache;
+import org.retest.rebazer.connector.TimedRepositoryConnector;
 import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
+import org.retest.rebazer.domain.PullRequestTargets;
 import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.PullRequestEventQueue;
 import org.retest.rebazer.service.PullRequestLastUpdateStore;
+import org.retest.rebazer.service.PullRequestScheduler;
 import org.retest.rebazer.service.RebaseService;
+import org.retest.rebazer.service.RepositoryTags;
+import org.retest.rebazer.service.RepositoryWorkerPool;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -22,69 +48,310 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor( onConstructor = @__( @Autowired ) )
 public class RebazerService {
 
-	private static final String MSG_REBASE_FAILED = "Rebase failed, this pull request needs some manual love ...";
+	static final String MSG_REBASE_FAILED = "Rebase failed, this pull request needs some manual love ...";
+	private static final String METRIC_REQUESTS_PER_PULL_REQUEST = "rebazer.connector.requests.per.pull.request";
+	private static final String METRIC_CYCLE_DURATION = "rebazer.cycle.duration";
+	static final String METRIC_PULL_REQUESTS = "rebazer.pull.requests";
 
 	private final RebaseService rebaseService;
+	private final MergeTrainService mergeTrainService;
 	private final RebazerConfig rebazerConfig;
 	private final PullRequestLastUpdateStore pullRequestLastUpdateStore;
+	private final PullRequestScheduler scheduler;
+	private final RepositoryWorkerPool repositoryWorkerPool;
+	private final PullRequestEventQueue eventQueue;
+	private final ResponseCache responseCache;
+	private final MeterRegistry meterRegistry;
+	private final ExecutorService connectorExecutor;
+	private final ExecutorService prefetchExecutor;
 
 	private final RestTemplateBuilder templateBuilder;
 
+	/**
+	 * Rebases per repository including the handling of their result, awaited before the merge trains are handled
+	 */
+	private final Map<RepositoryConfig, Set<CompletableFuture<Void>>> pendingRebases = new ConcurrentHashMap<>();
+
 	@Scheduled( fixedDelayString = "${" + POLL_INTERVAL_KEY + ":" + POLL_INTERVAL_DEFAULT + "}000" )
 	public void pollToHandleAllPullRequests() {
-		rebazerConfig.getRepos().forEach( repoConfig -> {
+		// repositories with pull requests closest to merge first, also in the queue of the worker pool
+		final List<RepositoryConfig> repoConfigs = scheduler.orderRepositories( rebazerConfig.getRepos() );
+		repoConfigs.forEach( repoConfig -> repositoryWorkerPool.execute( repoConfig, () -> {
 			try {
 				handleRepo( repoConfig );
+			} catch ( final RequestBudgetExhaustedException e ) {
+				log.warn( "Skipping {}: {}", repoConfig, e.getMessage() );
 			} catch ( final Exception e ) {
 				log.error( "Error while handle {}!", repoConfig, e );
 			}
-		} );
+		} ) );
+	}
+
+	@Scheduled( fixedDelayString = "${" + WEBHOOK_COALESCE_DELAY_KEY + ":" + WEBHOOK_COALESCE_DELAY_DEFAULT + "}000" )
+	public void handleQueuedEvents() {
+		scheduler.orderRepositories( eventQueue.getPendingRepos() ).stream() //
+				.filter( repoConfig -> !repositoryWorkerPool.isBusy( repoConfig ) ) //
+				.forEach( repoConfig -> repositoryWorkerPool.execute( repoConfig, () -> {
+					// take inside the task, so events arriving while waiting for a worker are coalesced as well
+					final PullRequestTargets targets = eventQueue.take( repoConfig );
+					try {
+						if ( targets != null ) {
+							handlePullRequests( repoConfig, targets );
+						}
+					} catch ( final RequestBudgetExhaustedException e ) {
+						log.warn( "Skipping {} in {}: {}", targets, repoConfig, e.getMessage() );
+					} catch ( final Exception e ) {
+						log.error( "Error while handle {} in {}!", targets, repoConfig, e );
+					}
+				} ) );
 	}
 
 	void handleRepo( final RepositoryConfig repoConfig ) {
 		log.info( "Processing {}.", repoConfig );
-		final RepositoryConnector repoConnector = repoConfig.getConnector( templateBuilder );
-		for ( final PullRequest pullRequest : repoConnector.getAllPullRequests() ) {
-			handlePullRequest( repoConnector, repoConfig, pullRequest );
+		final Timer.Sample cycle = Timer.start( meterRegistry );
+		final RequestContext requestContext = new RequestContext( responseCache, prefetchExecutor );
+		final RepositoryConnector repoConnector = connector( repoConfig, requestContext );
+		// all of them are needed to order them, for the merge trains and for the fetch
+		final List<PullRequest> pullRequests = getAllPullRequests( repoConnector, repoConfig );
+		rebaseService.fetch( repoConfig, pullRequests );
+		for ( final PullRequest pullRequest : scheduler.order( repoConfig, pullRequests ) ) {
+			handlePullRequestCountingRequests( requestContext, repoConnector, repoConfig, pullRequest );
 		}
+		awaitRebases( repoConfig );
+		mergeTrainService.handleTrains( repoConnector, repoConfig, pullRequests );
+		cycle.stop( cycleTimer( repoConfig, "poll" ) );
 		log.debug( "Processing done for {}.", repoConfig );
 	}
 
+	/**
+	 * @return all open pull requests, the known states of the other ones are forgotten
+	 */
+	private List<PullRequest> getAllPullRequests( final RepositoryConnector repoConnector,
+			final RepositoryConfig repoConfig ) {
+		final List<PullRequest> pullRequests = new ArrayList<>();
+		repoConnector.getAllPullRequests().forEach( pullRequests::add );
+		pullRequestLastUpdateStore.retainOpen( repoConfig, pullRequests );
+		return pullRequests;
+	}
+
+	void handlePullRequests( final RepositoryConfig repoConfig, final PullRequestTargets targets ) {
+		log.info( "Processing {} in {}.", targets, repoConfig );
+		final Timer.Sample cycle = Timer.start( meterRegistry );
+		final RequestContext requestContext = new RequestContext( responseCache, prefetchExecutor );
+		final RepositoryConnector repoConnector = connector( repoConfig, requestContext );
+		final List<PullRequest> pullRequests = getAllPullRequests( repoConnector, repoConfig );
+		final List<PullRequest> affected = scheduler.order( repoConfig, pullRequests ).stream() //
+				.filter( targets::affects ) //
+				.collect( Collectors.toList() );
+		rebaseService.fetch( repoConfig, affected );
+		for ( final PullRequest pullRequest : affected ) {
+			// an event is proof of a change, even if it isn't reflected by the last update of the pull request
+			pullRequestLastUpdateStore.resetPullRequest( repoConfig, pullRequest );
+			handlePullRequestCountingRequests( requestContext, repoConnector, repoConfig, pullRequest );
+		}
+		awaitRebases( repoConfig );
+		mergeTrainService.handleTrains( repoConnector, repoConfig, pullRequests );
+		cycle.stop( cycleTimer( repoConfig, "event" ) );
+		log.debug( "Processing done for {} in {}.", targets, repoConfig );
+	}
+
+	private RepositoryConnector connector( final RepositoryConfig repoConfig, final RequestContext requestContext ) {
+		return new TimedRepositoryConnector( repoConfig.getConnector( templateBuilder, requestContext ),
+				RepositoryTags.of( repoConfig ), meterRegistry );
+	}
+
+	private Timer cycleTimer( final RepositoryConfig repoConfig, final String trigger ) {
+		return meterRegistry.timer( METRIC_CYCLE_DURATION, RepositoryTags.of( repoConfig ).and( "trigger", trigger ) );
+	}
+
+	private void count( final RepositoryConfig repoConfig, final String outcome ) {
+		meterRegistry.counter( METRIC_PULL_REQUESTS, RepositoryTags.of( repoConfig ).and( "outcome", outcome ) )
+				.increment();
+	}
+
+	private void handlePullRequestCountingRequests( final RequestContext requestContext,
+			final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final PullRequest pullRequest ) {
+		final long requestsBefore = requestContext.getRequestCount();
+		handlePullRequest( repoConnector, repoConfig, pullRequest );
+		meterRegistry.summary( METRIC_REQUESTS_PER_PULL_REQUEST, RepositoryTags.of( repoConfig ) )
+				.record( (double) requestContext.getRequestCount() - requestsBefore );
+	}
+
 	void handlePullRequest( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
 			final PullRequest pullRequest ) {
 		log.debug( "Processing {}.", pullRequest );
+		final Checks checks = new Checks( repoConnector, repoConfig, pullRequest );
 
 		if ( sourceBranchIsBlacklisted( pullRequest ) ) {
 			log.info( "Ignoring {} because source branch is blacklisted.", pullRequest );
+			count( repoConfig, "blacklisted" );
+		} else if ( mergeTrainService.isInTrain( repoConfig, pullRequest ) ) {
+			log.info( "{} is in the merge train into {}.", pullRequest, pullRequest.getDestination() );
+			count( repoConfig, "in_merge_train" );
 		} else if ( rebazerConfig.isChangeDetection()
 				&& pullRequestLastUpdateStore.isHandled( repoConfig, pullRequest ) ) {
 			log.info( "{} is unchanged since last run (last change: {}).", pullRequest,
 					pullRequestLastUpdateStore.getLastDate( repoConfig, pullRequest ) );
+			count( repoConfig, "unchanged" );
+
+		} else if ( rebazerConfig.isChangeDetection()
+				&& pullRequestLastUpdateStore.isRebaseCheckPending( repoConfig, pullRequest ) ) {
+			// unchanged, but its destination moved: the build is still green and the approval still missing
+			if ( checks.rebaseNeeded() ) {
+				rebase( repoConnector, repoConfig, pullRequest );
+			} else {
+				waitForApproval( repoConfig, pullRequest );
+			}
 
-		} else if ( !repoConnector.greenBuildExists( pullRequest ) ) {
+		} else if ( !checks.greenBuildExists() ) {
 			log.info( "Waiting for green build of {}.", pullRequest );
-			pullRequestLastUpdateStore.setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ) );
+			count( repoConfig, "waiting_for_build" );
+			pullRequestLastUpdateStore.setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ),
+					PullRequestState.WAITING_FOR_BUILD );
 
-		} else if ( repoConnector.rebaseNeeded( pullRequest ) ) {
-			if ( !rebaseService.rebase( repoConfig, pullRequest ) ) {
-				repoConnector.addComment( pullRequest, MSG_REBASE_FAILED );
-			}
-			// we need to update the "lastUpdate" of a PullRequest to counteract if addComment is called
-			pullRequestLastUpdateStore.setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ) );
+		} else if ( mergeTrainService.isEnabled() && checks.isApproved() ) {
+			// stacked onto the train of the destination, even if it needs a rebase
+			log.info( "{} is ready for the merge train into {}.", pullRequest, pullRequest.getDestination() );
+			pullRequestLastUpdateStore.setLastKnownState( repoConfig, pullRequest, PullRequestState.MERGE_READY );
+			mergeTrainService.board( repoConfig, pullRequest );
+
+		} else if ( checks.rebaseNeeded() ) {
+			rebase( repoConnector, repoConfig, pullRequest );
 
-		} else if ( !repoConnector.isApproved( pullRequest ) ) {
-			log.info( "Waiting for approval of {}.", pullRequest );
-			pullRequestLastUpdateStore.setHandled( repoConfig, pullRequest );
+		} else if ( !checks.isApproved() ) {
+			waitForApproval( repoConfig, pullRequest );
 
 		} else {
 			log.info( "Merging pull request {}.", pullRequest );
+			// handled first the next cycle, if the merge fails
+			pullRequestLastUpdateStore.setLastKnownState( repoConfig, pullRequest, PullRequestState.MERGE_READY );
 			repoConnector.merge( pullRequest );
-			pullRequestLastUpdateStore.resetAllInThisRepo( repoConfig );
+			count( repoConfig, "merged" );
+			// only the pull requests into the moved destination branch have to be checked again
+			pullRequestLastUpdateStore.resetDestination( repoConfig, pullRequest.getDestination() );
+			// the destination branch moved, the following pull requests of this cycle have to see it
+			rebaseService.invalidate( repoConfig, pullRequest.getDestination() );
 		}
 	}
 
+	private void rebase( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final PullRequest pullRequest ) {
+		// with several worktrees of the repository this continues with the next pull request while rebasing
+		final CompletableFuture<Boolean> rebase = rebaseService.rebaseAsync( repoConfig, pullRequest );
+		final CompletableFuture<Void> handled = rebase.thenAccept( rebased -> {
+			count( repoConfig, rebased ? "rebased" : "conflict" );
+			if ( !rebased ) {
+				repoConnector.addComment( pullRequest, MSG_REBASE_FAILED );
+			}
+			repoConnector.invalidate( pullRequest );
+			// we need to update the "lastUpdate" of a PullRequest to counteract if addComment is called
+			pullRequestLastUpdateStore.setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ),
+					rebased ? PullRequestState.WAITING_FOR_BUILD : PullRequestState.REBASE_CANDIDATE );
+		} ).exceptionally( e -> {
+			log.error( "Error while rebasing {}!", pullRequest, e );
+			return null;
+		} );
+		final Set<CompletableFuture<Void>> pending =
+				pendingRebases.computeIfAbsent( repoConfig, key -> ConcurrentHashMap.newKeySet() );
+		pending.add( handled );
+		handled.whenComplete( ( result, e ) -> pending.remove( handled ) );
+	}
+
+	/**
+	 * Wait until the rebases of the repository are done and their results are handled.
+	 */
+	private void awaitRebases( final RepositoryConfig repoConfig ) {
+		final Set<CompletableFuture<Void>> pending = pendingRebases.get( repoConfig );
+		if ( pending != null ) {
+			// failures are logged by the rebases themselves
+			CompletableFuture.allOf( pending.toArray( new CompletableFuture<?>[0] ) ).join();
+		}
+	}
+
+	private void waitForApproval( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		log.info( "Waiting for approval of {}.", pullRequest );
+		count( repoConfig, "waiting_for_approval" );
+		pullRequestLastUpdateStore.setHandled( repoConfig, pullRequest, PullRequestState.WAITING_FOR_APPROVAL );
+	}
+
+	private boolean rebaseNeeded( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+			final PullRequest pullRequest ) {
+		return rebaseService.rebaseNeeded( repoConfig, pullRequest )
+				.orElseGet( () -> repoConnector.rebaseNeeded( pullRequest ) );
+	}
+
 	private boolean sourceBranchIsBlacklisted( final PullRequest pullRequest ) {
 		return pullRequest.getSource().matches( rebazerConfig.getBranchBlacklist() );
 	}
 
+	/**
+	 * Signals the decision about a pull request is based on, each requested once when needed. With
+	 * <code>parallelChecks</code> the build, approval and rebase state are requested concurrently as soon as the build
+	 * is needed, the decision is made once all of them arrived.
+	 */
+	private class Checks {
+
+		private final RepositoryConnector repoConnector;
+		private final RepositoryConfig repoConfig;
+		private final PullRequest pullRequest;
+
+		private CompletableFuture<Boolean> greenBuild;
+		private CompletableFuture<Boolean> approved;
+		private CompletableFuture<Boolean> rebase;
+
+		Checks( final RepositoryConnector repoConnector, final RepositoryConfig repoConfig,
+				final PullRequest pullRequest ) {
+			this.repoConnector = repoConnector;
+			this.repoConfig = repoConfig;
+			this.pullRequest = pullRequest;
+		}
+
+		boolean greenBuildExists() {
+			if ( greenBuild == null && rebazerConfig.isParallelChecks() ) {
+				fanOut();
+			}
+			greenBuild = known( greenBuild, () -> repoConnector.greenBuildExists( pullRequest ) );
+			return await( greenBuild );
+		}
+
+		boolean isApproved() {
+			approved = known( approved, () -> repoConnector.isApproved( pullRequest ) );
+			return await( approved );
+		}
+
+		boolean rebaseNeeded() {
+			rebase = known( rebase, () -> RebazerService.this.rebaseNeeded( repoConnector, repoConfig, pullRequest ) );
+			return await( rebase );
+		}
+
+		private void fanOut() {
+			final AsyncRepositoryConnector async = new AsyncRepositoryConnector( repoConnector, connectorExecutor );
+			greenBuild = async.greenBuildExists( pullRequest );
+			approved = async.isApproved( pullRequest );
+			rebase = rebaseService.rebaseNeeded( repoConfig, pullRequest ) //
+					.map( CompletableFuture::completedFuture ) //
+					.orElseGet( () -> async.rebaseNeeded( pullRequest ) );
+			// failures are thrown by the check using the failed signal, if it is needed at all
+			CompletableFuture.allOf( greenBuild, approved, rebase ).handle( ( result, e ) -> null ).join();
+		}
+
+		private CompletableFuture<Boolean> known( final CompletableFuture<Boolean> signal,
+				final BooleanSupplier request ) {
+			return signal != null ? signal : CompletableFuture.completedFuture( request.getAsBoolean() );
+		}
+
+		private boolean await( final CompletableFuture<Boolean> signal ) {
+			try {
+				return signal.join();
+			} catch ( final CompletionException e ) {
+				if ( e.getCause() instanceof RuntimeException ) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+
+	}
+
 }
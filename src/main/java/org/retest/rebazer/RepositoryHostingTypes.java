@@ -5,7 +5,10 @@ import java.net.URL;
 
 import org.retest.rebazer.connector.BitbucketConnector;
 import org.retest.rebazer.connector.GithubConnector;
+import org.retest.rebazer.connector.GithubGraphqlConnector;
 import org.retest.rebazer.connector.RepositoryConnector;
+import org.retest.rebazer.connector.RequestContext;
+import org.retest.rebazer.connector.ResponseCache;
 import org.retest.rebazer.domain.RepositoryConfig;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 
@@ -32,11 +35,19 @@ public enum RepositoryHostingTypes {
 
 	public RepositoryConnector getConnector( final RepositoryConfig repoConfig,
 			final RestTemplateBuilder templateBuilder ) {
+		return getConnector( repoConfig, templateBuilder, new RequestContext( ResponseCache.disabled() ) );
+	}
+
+	public RepositoryConnector getConnector( final RepositoryConfig repoConfig,
+			final RestTemplateBuilder templateBuilder, final RequestContext requestContext ) {
 		switch ( this ) {
 			case BITBUCKET:
-				return new BitbucketConnector( repoConfig, templateBuilder );
+				return new BitbucketConnector( repoConfig, templateBuilder, requestContext );
 			case GITHUB:
-				return new GithubConnector( repoConfig, templateBuilder );
+				if ( repoConfig.isGraphql() ) {
+					return new GithubGraphqlConnector( repoConfig, templateBuilder, requestContext );
+				}
+				return new GithubConnector( repoConfig, templateBuilder, requestContext );
 			default:
 				throw new RuntimeException( "No Repository defined for provider: " + this );
 		}
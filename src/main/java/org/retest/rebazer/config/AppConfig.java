@@ -1,16 +1,79 @@
 package org.retest.rebazer.config;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.retest.rebazer.connector.RequestBudgets;
+import org.retest.rebazer.connector.ResponseCache;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @Configuration
 public class AppConfig {
 
+	/**
+	 * Polling, queued webhook events, syncing the last updates, reclaiming worktrees and git maintenance
+	 */
+	private static final int SCHEDULED_TASKS = 5;
+
+	/**
+	 * One thread per scheduled task, as the poll cycle runs on the scheduler thread without a worker pool and must
+	 * not delay the queued webhook events.
+	 */
 	@Bean
 	public static TaskScheduler taskScheduler() {
-		return new ThreadPoolTaskScheduler();
+		final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setPoolSize( SCHEDULED_TASKS );
+		scheduler.setThreadNamePrefix( "rebazer-scheduler-" );
+		return scheduler;
+	}
+
+	@Bean
+	public static ResponseCache responseCache( final RebazerConfig rebazerConfig ) {
+		return new ResponseCache( rebazerConfig.getResponseCacheMaxEntries(),
+				rebazerConfig.getResponseCacheMaxBytes() );
+	}
+
+	@Bean
+	public static RequestBudgets requestBudgets( final RebazerConfig rebazerConfig ) {
+		return new RequestBudgets( rebazerConfig.getRateLimitRequestsPerSecond(),
+				rebazerConfig.getRateLimitWriteReserve(), rebazerConfig.getRateLimitMaxInFlight() );
+	}
+
+	/**
+	 * Threads for the {@link org.retest.rebazer.connector.AsyncRepositoryConnector}, more than the requests in flight
+	 * per host would only wait for a permit.
+	 */
+	@Bean( destroyMethod = "shutdownNow" )
+	public static ExecutorService connectorExecutor( final RebazerConfig rebazerConfig ) {
+		final int poolSize = rebazerConfig.getRateLimitMaxInFlight();
+		final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "rebazer-connector-" );
+		threadFactory.setDaemon( true );
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( poolSize, poolSize, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), threadFactory );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * Threads requesting the following page of full listings in the background. If all are busy, the page is requested
+	 * by the caller right away instead of being queued.
+	 */
+	@Bean( destroyMethod = "shutdownNow" )
+	public static ExecutorService prefetchExecutor( final RebazerConfig rebazerConfig ) {
+		final int poolSize = rebazerConfig.getRateLimitMaxInFlight();
+		final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "rebazer-prefetch-" );
+		threadFactory.setDaemon( true );
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( poolSize, poolSize, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<>(), threadFactory, ( runnable, rejecting ) -> runnable.run() );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
 	}
 
 }
@@ -31,11 +31,104 @@ public class RebazerConfig {
 	public static final int POLL_INTERVAL_DEFAULT = 60;
 	private long pollInterval = POLL_INTERVAL_DEFAULT;
 
+	/**
+	 * Values used for {@link org.retest.rebazer.service.RepositoryWorkerPool}
+	 */
+	private boolean concurrentRepoProcessing = false;
+	private int repoWorkerPoolSize = 4;
+	private int repoWorkerQueueLength = 200;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.webhook.WebhookController} and
+	 * {@link org.retest.rebazer.RebazerService#handleQueuedEvents()}
+	 */
+	public static final String WEBHOOK_COALESCE_DELAY_KEY = "rebazer.webhookCoalesceDelay";
+	public static final int WEBHOOK_COALESCE_DELAY_DEFAULT = 5;
+	private long webhookCoalesceDelay = WEBHOOK_COALESCE_DELAY_DEFAULT;
+	private String webhookSecret;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.connector.ResponseCache}, set <code>responseCacheMaxEntries</code> to
+	 * 0 to disable conditional requests
+	 */
+	private int responseCacheMaxEntries = 10_000;
+	private long responseCacheMaxBytes = 64L * 1024 * 1024;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.connector.RequestBudgets}, <code>rateLimitWriteReserve</code> is the
+	 * share of the rate limit of a host only used for merges and comments
+	 */
+	private double rateLimitRequestsPerSecond = 10;
+	private double rateLimitWriteReserve = 0.1;
+	private int rateLimitMaxInFlight = 8;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.connector.AsyncRepositoryConnector}, with <code>parallelChecks</code>
+	 * the build, approval and rebase state of a pull request are requested concurrently
+	 */
+	private boolean parallelChecks = false;
+
 	private String workspace = "rebazer-workspace";
+
+	/**
+	 * Values used for {@link org.retest.rebazer.service.GitMaintenance}, without <code>backgroundGitMaintenance</code>
+	 * git gc runs inline after each <code>garbageCollectionCountdown</code> rebases
+	 */
+	public static final String GIT_MAINTENANCE_INTERVAL_KEY = "rebazer.gitMaintenanceInterval";
+	public static final int GIT_MAINTENANCE_INTERVAL_DEFAULT = 300;
+	private boolean backgroundGitMaintenance = true;
+	private long gitMaintenanceInterval = GIT_MAINTENANCE_INTERVAL_DEFAULT;
+	private long gcLooseObjectsThreshold = 6700;
+	private long gcPackFilesThreshold = 50;
 	private int garbageCollectionCountdown = 20;
 
 	private boolean changeDetection = false;
 
+	/**
+	 * Values used for {@link org.retest.rebazer.service.RebaseService}, <code>fetchOncePerCycle</code> fetches only
+	 * the branches of open pull requests once per repository and cycle instead of all branches before each rebase,
+	 * <code>localRebaseCheck</code> decides locally if a rebase is needed instead of API requests per pull request
+	 * (and implies <code>fetchOncePerCycle</code>), <code>inMemoryRebase</code> rebases without a checkout, with
+	 * <code>bareWorkspace</code> there is no working tree at all (and implies <code>inMemoryRebase</code>)
+	 */
+	private boolean fetchOncePerCycle = false;
+	private boolean localRebaseCheck = false;
+	private boolean inMemoryRebase = false;
+	private boolean bareWorkspace = false;
+
+	/**
+	 * Values used for the initial clone by {@link org.retest.rebazer.service.RebaseService}, with
+	 * <code>singleBranchClone</code> only the main branch is cloned (and implies <code>fetchOncePerCycle</code>)
+	 */
+	private int cloneThreads = 4;
+	private boolean singleBranchClone = false;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.service.RebaseService#rebaseAsync}, <code>worktreePoolSize</code> is
+	 * the default number of concurrent rebases per repository and can be overridden per repository by
+	 * <code>worktrees</code>
+	 */
+	public static final String WORKTREE_IDLE_TIMEOUT_KEY = "rebazer.worktreeIdleTimeout";
+	public static final int WORKTREE_IDLE_TIMEOUT_DEFAULT = 600;
+	private int worktreePoolSize = 1;
+	private long worktreeIdleTimeout = WORKTREE_IDLE_TIMEOUT_DEFAULT;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.service.PullRequestLastUpdateStore}, with
+	 * <code>persistChangeDetection</code> handled pull requests are journaled to the workspace
+	 */
+	public static final String LAST_UPDATE_SYNC_INTERVAL_KEY = "rebazer.lastUpdateSyncInterval";
+	public static final int LAST_UPDATE_SYNC_INTERVAL_DEFAULT = 1;
+	private boolean persistChangeDetection = false;
+	private long lastUpdateSyncInterval = LAST_UPDATE_SYNC_INTERVAL_DEFAULT;
+
+	/**
+	 * Values used for {@link org.retest.rebazer.MergeTrainService}, <code>mergeTrainLength</code> is the max. number
+	 * of pull requests stacked per destination branch
+	 */
+	private boolean mergeTrain = false;
+	private int mergeTrainLength = 5;
+
 	private String branchBlacklist = "^(main|master|develop|release|hotfix).*";
 
 	@Getter( AccessLevel.NONE )
@@ -47,6 +140,7 @@ public class RebazerConfig {
 		RepositoryHostingTypes type;
 		private URL gitHost;
 		private URL apiHost;
+		boolean graphql;
 		List<Team> teams;
 
 		public URL getGitHost() {
@@ -89,6 +183,7 @@ public class RebazerConfig {
 	static class Repo {
 		String name;
 		String mainBranch = "main";
+		Integer worktrees;
 		/**
 		 * @deprecated use `mainBranch` instead.
 		 */
@@ -110,9 +205,11 @@ public class RebazerConfig {
 				for ( final Repo repo : team.repos ) {
 					configs.add( RepositoryConfig.builder() //
 							.type( host.type ).gitHost( host.getGitHost() ).apiHost( host.getApiHost() ) //
+							.graphql( host.graphql ) //
 							.team( team.name ).repo( repo.name ) //
 							.user( team.getUser() ).pass( team.pass ) //
 							.mainBranch( repo.masterBranch == null ? repo.mainBranch : repo.masterBranch ) //NOSONAR
+							.worktrees( repo.worktrees == null ? worktreePoolSize : repo.worktrees ) //
 							.build() );
 				}
 			}
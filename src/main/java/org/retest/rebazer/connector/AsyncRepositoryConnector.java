@@ -0,0 +1,49 @@
+package org.retest.rebazer.connector;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.retest.rebazer.domain.PullRequest;
+
+/**
+ * Asynchronous variant of the reading calls of a {@link RepositoryConnector}: each call runs on the given executor and
+ * returns a {@link CompletableFuture}, so the independent signals of a pull request are requested concurrently and
+ * its latency is the slowest instead of the sum of the round trips. The concurrent requests per host are still capped
+ * by the {@link RequestBudgets}.
+ */
+public class AsyncRepositoryConnector {
+
+	private final RepositoryConnector delegate;
+	private final Executor executor;
+
+	public AsyncRepositoryConnector( final RepositoryConnector delegate, final Executor executor ) {
+		this.delegate = delegate;
+		this.executor = executor;
+	}
+
+	public CompletableFuture<PullRequest> getLatestUpdate( final PullRequest pullRequest ) {
+		return async( () -> delegate.getLatestUpdate( pullRequest ) );
+	}
+
+	public CompletableFuture<Boolean> isApproved( final PullRequest pullRequest ) {
+		return async( () -> delegate.isApproved( pullRequest ) );
+	}
+
+	public CompletableFuture<Boolean> rebaseNeeded( final PullRequest pullRequest ) {
+		return async( () -> delegate.rebaseNeeded( pullRequest ) );
+	}
+
+	public CompletableFuture<Boolean> greenBuildExists( final PullRequest pullRequest ) {
+		return async( () -> delegate.greenBuildExists( pullRequest ) );
+	}
+
+	public CompletableFuture<Boolean> failedBuildExists( final PullRequest pullRequest ) {
+		return async( () -> delegate.failedBuildExists( pullRequest ) );
+	}
+
+	private <T> CompletableFuture<T> async( final Supplier<T> call ) {
+		return CompletableFuture.supplyAsync( call, executor );
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.retest.rebazer.connector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Finds the base of a pull request while its commits are streamed page by page: the newest parent which isn't a commit
+ * of the pull request itself. Usually that's the parent of the first commit, but if the destination was merged into the
+ * source, it's the merged commit. Only the ids are kept, so the pages can be dropped once read, and every parent is
+ * looked up in a hash set, so the costs are linear in the number of commits.
+ */
+class BaseCommitFinder {
+
+	private final boolean newestFirst;
+	private final Set<String> commitIds = new HashSet<>();
+	private final List<String> parentIds = new ArrayList<>();
+
+	/**
+	 * @param newestFirst
+	 *            whether the commits are listed like by <code>git log</code> (Bitbucket) or in chronological order
+	 *            (GitHub)
+	 */
+	BaseCommitFinder( final boolean newestFirst ) {
+		this.newestFirst = newestFirst;
+	}
+
+	void add( final String commitId, final Stream<String> parents ) {
+		commitIds.add( commitId );
+		parents.forEach( parentIds::add );
+	}
+
+	int getCommitCount() {
+		return commitIds.size();
+	}
+
+	/**
+	 * @return empty if no commits were added
+	 */
+	Optional<String> getBase() {
+		final int size = parentIds.size();
+		for ( int i = 0; i < size; i++ ) {
+			final String parentId = parentIds.get( newestFirst ? i : size - 1 - i );
+			if ( !commitIds.contains( parentId ) ) {
+				return Optional.of( parentId );
+			}
+		}
+		return Optional.empty();
+	}
+
+}
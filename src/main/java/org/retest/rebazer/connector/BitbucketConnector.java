@@ -1,55 +1,83 @@
 package org.retest.rebazer.connector;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.stream.Collectors;
+
+import org.retest.rebazer.domain.BitbucketResponses.Branch;
+import org.retest.rebazer.domain.BitbucketResponses.Commit;
+import org.retest.rebazer.domain.BitbucketResponses.Page;
+import org.retest.rebazer.domain.BitbucketResponses.Participant;
+import org.retest.rebazer.domain.BitbucketResponses.PullRequestResponse;
+import org.retest.rebazer.domain.BitbucketResponses.Status;
 import org.retest.rebazer.domain.PullRequest;
 import org.retest.rebazer.domain.RepositoryConfig;
 import org.retest.rebazer.service.PullRequestLastUpdateStore;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.client.RestTemplate;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class BitbucketConnector implements RepositoryConnector {
 
+	private static final String PAGE_LENGTH = "?pagelen=50";
+	private static final String COMMITS_PAGE_LENGTH = "?pagelen=100";
+
+	private static final ResponseParser<PageIterator.Page<PullRequestResponse>> PULL_REQUESTS_PARSER =
+			pageParser( new TypeReference<Page<PullRequestResponse>>() {} );
+	private static final ResponseParser<PullRequestResponse> PULL_REQUEST_PARSER =
+			JsonParsers.parserFor( PullRequestResponse.class );
+	private static final ResponseParser<PageIterator.Page<Commit>> COMMITS_PARSER =
+			pageParser( new TypeReference<Page<Commit>>() {} );
+	private static final ResponseParser<PageIterator.Page<Status>> STATUSES_PARSER =
+			pageParser( new TypeReference<Page<Status>>() {} );
+	private static final ResponseParser<Branch> BRANCH_PARSER = JsonParsers.parserFor( Branch.class );
+
 	private final RestTemplate template;
+	private final RequestContext requestContext;
+	private final String baseUrl;
 	private final ObjectMapper objectMapper;
 
 	public BitbucketConnector( final RepositoryConfig repoConfig, final RestTemplateBuilder templateBuilder ) {
+		this( repoConfig, templateBuilder, new RequestContext( ResponseCache.disabled() ) );
+	}
+
+	public BitbucketConnector( final RepositoryConfig repoConfig, final RestTemplateBuilder templateBuilder,
+			final RequestContext requestContext ) {
 		final String basePath = "/2.0/repositories/" + repoConfig.getTeam() + "/" + repoConfig.getRepo();
+		baseUrl = repoConfig.getApiHost() + basePath;
 
 		template = templateBuilder.basicAuthentication( repoConfig.getUser(), repoConfig.getPass() )
-				.rootUri( repoConfig.getApiHost() + basePath ).build();
+				.rootUri( baseUrl ).build();
+		this.requestContext = requestContext;
 
-		objectMapper = new ObjectMapper().configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+		objectMapper = new ObjectMapper();
 	}
 
 	@Override
 	public PullRequest getLatestUpdate( final PullRequest pullRequest ) {
-		final DocumentContext jsonPath = jsonPathForPath( requestPath( pullRequest ) );
-		final Date repositoryTime = PullRequestLastUpdateStore.parseStringToDate( jsonPath.read( "$.updated_on" ) );
+		final PullRequestResponse response = getPullRequest( pullRequest );
+		final Date repositoryTime = PullRequestLastUpdateStore.parseStringToDate( response.getUpdatedOn() );
 		return pullRequest.updateLastChange( repositoryTime );
 	}
 
 	@Override
 	public boolean isApproved( final PullRequest pullRequest ) {
-		final DocumentContext jsonPath = jsonPathForPath( requestPath( pullRequest ) );
-		final List<Boolean> reviewers = jsonPath.<List<Boolean>> read( "$.participants[*].approved" );
+		final List<Participant> reviewers = getPullRequest( pullRequest ).getParticipants();
 
 		return pullRequest.isReviewByAllReviewersRequested() && !reviewers.isEmpty()
-				? reviewers.stream().allMatch( approved -> approved )
-				: reviewers.stream().anyMatch( approved -> approved );
+				? reviewers.stream().allMatch( Participant::isApproved )
+				: reviewers.stream().anyMatch( Participant::isApproved );
 	}
 
 	@Override
@@ -58,13 +86,21 @@ public class BitbucketConnector implements RepositoryConnector {
 	}
 
 	String getHeadOfBranch( final PullRequest pullRequest ) {
-		return jsonPathForPath( "/refs/branches/" + pullRequest.getDestination() ).read( "$.target.hash" );
+		return get( "/refs/branches/" + pullRequest.getDestination(), BRANCH_PARSER, null ).getTarget().getHash();
 	}
 
+	/**
+	 * Streams all pages of the commits, which are listed newest first. Pages aren't memoized, a pull request may have
+	 * hundreds of commits.
+	 */
 	String getLastParentCommitId( final PullRequest pullRequest ) {
-		final DocumentContext document = jsonPathForPath( requestPath( pullRequest ) + "/commits?pagelen=100" );
-		final List<String> parentIds = document.read( "$.values[*].parents[0].hash" );
-		return parentIds.get( parentIds.size() - 1 );
+		final BaseCommitFinder finder = new BaseCommitFinder( true );
+		PageIterator.prefetching( requestPath( pullRequest ) + "/commits" + COMMITS_PAGE_LENGTH, url -> requestContext
+				.getPage( template, url, absoluteUrl( url ), new HttpHeaders(), COMMITS_PARSER ),
+				requestContext.getPrefetchExecutor() ) //
+				.forEach( commit -> finder.add( commit.getHash(),
+						commit.getParents().stream().map( Commit::getHash ) ) );
+		return finder.getBase().orElseThrow( IllegalStateException::new );
 	}
 
 	@Override
@@ -75,51 +111,74 @@ public class BitbucketConnector implements RepositoryConnector {
 		request.put( "merge_strategy", "merge_commit" );
 
 		template.postForObject( requestPath( pullRequest ) + "/merge", request, Object.class );
+
+		requestContext.invalidate( pullRequest );
+		requestContext.invalidateRepository();
 	}
 
 	@Override
 	public boolean greenBuildExists( final PullRequest pullRequest ) {
-		final DocumentContext jsonPath = jsonPathForPath( requestPath( pullRequest ) + "/statuses" );
-		return jsonPath.<List<String>> read( "$.values[*].state" ).stream().anyMatch( "SUCCESSFUL"::equals );
+		// pages of a pull request are small and memoized like single resources
+		return PageIterator.stream( requestPath( pullRequest ) + "/statuses" + PAGE_LENGTH,
+				url -> get( url, STATUSES_PARSER, pullRequest ) ) //
+				.map( Status::getState ) //
+				.anyMatch( "SUCCESSFUL"::equals );
 	}
 
 	@Override
-	public List<PullRequest> getAllPullRequests() {
-		final DocumentContext jsonPath = jsonPathForPath( "/pullrequests" );
-		return parsePullRequestsJson( jsonPath );
-	}
-
-	public static List<PullRequest> parsePullRequestsJson( final DocumentContext jsonPath ) {
-		final int numPullRequests = jsonPath.read( "$.size" );
-		final List<PullRequest> results = new ArrayList<>( numPullRequests );
-		for ( int i = 0; i < numPullRequests; i++ ) {
-			final String pathPrefix = "$.values[" + i + "].";
-			final int id = jsonPath.read( pathPrefix + "id" );
-			final String title = jsonPath.read( pathPrefix + "title" );
-			final String description = jsonPath.read( pathPrefix + "description" );
-			final String source = jsonPath.read( pathPrefix + "source.branch.name" );
-			final String destination = jsonPath.read( pathPrefix + "destination.branch.name" );
-			final Date lastUpdate =
-					PullRequestLastUpdateStore.parseStringToDate( jsonPath.read( pathPrefix + "updated_on" ) );
-			results.add( PullRequest.builder() //
-					.id( id ) //
-					.title( title ) //
-					.description( description ) //
-					.source( source ) //
-					.destination( destination ) //
-					.lastUpdate( lastUpdate ) //
-					.build() ); //
-		}
-		return results;
+	public boolean failedBuildExists( final PullRequest pullRequest ) {
+		return PageIterator.stream( requestPath( pullRequest ) + "/statuses" + PAGE_LENGTH,
+				url -> get( url, STATUSES_PARSER, pullRequest ) ) //
+				.map( Status::getState ) //
+				.anyMatch( state -> "FAILED".equals( state ) || "STOPPED".equals( state ) );
+	}
+
+	@Override
+	public Iterable<PullRequest> getAllPullRequests() {
+		return () -> PageIterator.prefetching( "/pullrequests" + PAGE_LENGTH, url -> requestContext.getPage( template,
+				url, absoluteUrl( url ), new HttpHeaders(), PULL_REQUESTS_PARSER ),
+				requestContext.getPrefetchExecutor() ) //
+				.map( BitbucketConnector::toPullRequest ) //
+				.iterator();
+	}
+
+	public static List<PullRequest> parsePullRequestsJson( final InputStream json ) throws IOException {
+		return PULL_REQUESTS_PARSER.parse( json, new HttpHeaders() ).getItems().stream() //
+				.map( BitbucketConnector::toPullRequest ) //
+				.collect( Collectors.toList() );
+	}
+
+	private static PullRequest toPullRequest( final PullRequestResponse response ) {
+		return PullRequest.builder() //
+				.id( response.getId() ) //
+				.title( response.getTitle() ) //
+				.description( response.getDescription() ) //
+				.source( response.getSource().getBranch().getName() ) //
+				.destination( response.getDestination().getBranch().getName() ) //
+				.lastUpdate( PullRequestLastUpdateStore.parseStringToDate( response.getUpdatedOn() ) ) //
+				.build(); //
 	}
 
 	private static String requestPath( final PullRequest pullRequest ) {
 		return "/pullrequests/" + pullRequest.getId();
 	}
 
-	private DocumentContext jsonPathForPath( final String urlPath ) {
-		final String json = template.getForObject( urlPath, String.class );
-		return JsonPath.parse( json );
+	private PullRequestResponse getPullRequest( final PullRequest pullRequest ) {
+		return get( requestPath( pullRequest ), PULL_REQUEST_PARSER, pullRequest );
+	}
+
+	private <T> T get( final String urlPath, final ResponseParser<T> parser, final PullRequest pullRequest ) {
+		return requestContext.getForObject( template, urlPath, absoluteUrl( urlPath ), new HttpHeaders(), parser,
+				pullRequest );
+	}
+
+	private String absoluteUrl( final String urlPath ) {
+		return urlPath.startsWith( "/" ) ? baseUrl + urlPath : urlPath;
+	}
+
+	private static <T> ResponseParser<PageIterator.Page<T>> pageParser( final TypeReference<Page<T>> type ) {
+		return JsonParsers.parserFor( type )
+				.andThen( page -> new PageIterator.Page<>( page.getValues(), page.getNext() ) );
 	}
 
 	@Override
@@ -130,5 +189,11 @@ public class BitbucketConnector implements RepositoryConnector {
 		contentNode.set( "content", messageNode );
 
 		template.postForObject( requestPath( pullRequest ) + "/comments", contentNode, String.class );
+		requestContext.invalidate( pullRequest );
+	}
+
+	@Override
+	public void invalidate( final PullRequest pullRequest ) {
+		requestContext.invalidate( pullRequest );
 	}
 }
@@ -1,27 +1,42 @@
 package org.retest.rebazer.connector;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.retest.rebazer.connector.PageIterator.Page;
+import org.retest.rebazer.domain.GithubResponses.CheckRun;
+import org.retest.rebazer.domain.GithubResponses.CheckRuns;
+import org.retest.rebazer.domain.GithubResponses.Commit;
+import org.retest.rebazer.domain.GithubResponses.Comparison;
+import org.retest.rebazer.domain.GithubResponses.PullRequestResponse;
+import org.retest.rebazer.domain.GithubResponses.Ref;
+import org.retest.rebazer.domain.GithubResponses.Repository;
+import org.retest.rebazer.domain.GithubResponses.Review;
+import org.retest.rebazer.domain.GithubResponses.User;
 import org.retest.rebazer.domain.PullRequest;
 import org.retest.rebazer.domain.RepositoryConfig;
 import org.retest.rebazer.service.PullRequestLastUpdateStore;
 import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestTemplate;
 
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
+import com.fasterxml.jackson.core.type.TypeReference;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,20 +45,50 @@ public class GithubConnector implements RepositoryConnector {
 
 	private static final String GITHUB_PREVIEW_JSON_MEDIATYPE = "application/vnd.github.antiope-preview+json";
 
+	private static final Pattern NEXT_LINK = Pattern.compile( "<([^>]+)>;\\s*rel=\"next\"" );
+	private static final String PER_PAGE = "?per_page=100";
+	private static final Set<String> FAILED_CONCLUSIONS =
+			new HashSet<>( Arrays.asList( "failure", "cancelled", "timed_out", "action_required" ) );
+	/**
+	 * GitHub lists at most this many commits of a pull request, even with pagination
+	 */
+	private static final int MAX_LISTED_COMMITS = 250;
+
+	private static final ResponseParser<Page<PullRequestResponse>> PULL_REQUESTS_PARSER =
+			pageParser( JsonParsers.parserFor( new TypeReference<List<PullRequestResponse>>() {} ) );
+	private static final ResponseParser<PullRequestResponse> PULL_REQUEST_PARSER =
+			JsonParsers.parserFor( PullRequestResponse.class );
+	private static final ResponseParser<Page<Review>> REVIEWS_PARSER =
+			pageParser( JsonParsers.parserFor( new TypeReference<List<Review>>() {} ) );
+	private static final ResponseParser<Page<Commit>> COMMITS_PARSER =
+			pageParser( JsonParsers.parserFor( new TypeReference<List<Commit>>() {} ) );
+	private static final ResponseParser<Comparison> COMPARISON_PARSER = JsonParsers.parserFor( Comparison.class );
+	private static final ResponseParser<Page<CheckRun>> CHECK_RUNS_PARSER =
+			pageParser( JsonParsers.parserFor( CheckRuns.class ).andThen( CheckRuns::getCheckRuns ) );
+	private static final ResponseParser<Ref> REF_PARSER = JsonParsers.parserFor( Ref.class );
+
 	private final RestTemplate template;
+	private final RequestContext requestContext;
+	private final String baseUrl;
 
 	public GithubConnector( final RepositoryConfig repoConfig, final RestTemplateBuilder builder ) {
+		this( repoConfig, builder, new RequestContext( ResponseCache.disabled() ) );
+	}
+
+	public GithubConnector( final RepositoryConfig repoConfig, final RestTemplateBuilder builder,
+			final RequestContext requestContext ) {
 		final String basePath = "/repos/" + repoConfig.getTeam() + "/" + repoConfig.getRepo();
+		baseUrl = repoConfig.getApiHost() + basePath;
 
-		template = builder.basicAuthentication( repoConfig.getUser(), repoConfig.getPass() )
-				.rootUri( repoConfig.getApiHost() + basePath ).build();
+		template = builder.basicAuthentication( repoConfig.getUser(), repoConfig.getPass() ).rootUri( baseUrl )
+				.build();
+		this.requestContext = requestContext;
 	}
 
 	@Override
 	public PullRequest getLatestUpdate( final PullRequest pullRequest ) {
-		final DocumentContext jsonPath = jsonPathForPath( requestPath( pullRequest ) );
-		final String repositoryTimeAsString = jsonPath.read( "$.updated_at" );
-		final Date repositoryTime = PullRequestLastUpdateStore.parseStringToDate( repositoryTimeAsString );
+		final PullRequestResponse response = getPullRequest( pullRequest );
+		final Date repositoryTime = PullRequestLastUpdateStore.parseStringToDate( response.getUpdatedAt() );
 		final Date checksTime = PullRequestLastUpdateStore.parseStringToDate( newestChecksTime( pullRequest ) );
 		return pullRequest.updateLastChange( repositoryTime.after( checksTime ) ? repositoryTime : checksTime );
 	}
@@ -51,6 +96,10 @@ public class GithubConnector implements RepositoryConnector {
 	@Override
 	public boolean isApproved( final PullRequest pullRequest ) {
 		safeReviewStates( pullRequest );
+		return isApprovedByReviewers( pullRequest );
+	}
+
+	static boolean isApprovedByReviewers( final PullRequest pullRequest ) {
 		final Collection<String> reviewers = pullRequest.getReviewers().values();
 
 		return pullRequest.isReviewByAllReviewersRequested() && !reviewers.isEmpty()
@@ -59,38 +108,61 @@ public class GithubConnector implements RepositoryConnector {
 	}
 
 	private void safeReviewStates( final PullRequest pullRequest ) {
-		final DocumentContext jsonPath = jsonPathForPath( requestPath( pullRequest ) + "/reviews" );
-		final List<String> reviews = jsonPath.<List<String>> read( "$..state" );
+		final Iterable<Review> reviews =
+				getAll( requestPath( pullRequest ) + "/reviews" + PER_PAGE, REVIEWS_PARSER, pullRequest )::iterator;
 		final Integer creator = pullRequest.getCreator();
-		for ( int i = 0; i < reviews.size(); i++ ) {
-			final String reviewsState = jsonPath.read( "$.[" + i + "].state" );
-			final int reviewer = jsonPath.read( "$.[" + i + "].user.id" );
-			if ( reviewer != creator ) {
-				if ( !reviewsState.equals( "COMMENTED" ) ) {
-					pullRequest.getReviewers().put( reviewer, reviewsState );
-				} else {
-					pullRequest.getReviewers().compute( reviewer, ( k, v ) -> v == null ? reviewsState : v );
-				}
+		for ( final Review review : reviews ) {
+			final Integer reviewer = review.getUser().getId();
+			if ( !reviewer.equals( creator ) ) {
+				putReviewState( pullRequest, reviewer, review.getState() );
 			}
 		}
 	}
 
+	/**
+	 * A comment doesn't override an earlier approval or change request of the same reviewer.
+	 */
+	static void putReviewState( final PullRequest pullRequest, final Integer reviewer, final String reviewState ) {
+		if ( !reviewState.equals( "COMMENTED" ) ) {
+			pullRequest.getReviewers().put( reviewer, reviewState );
+		} else {
+			pullRequest.getReviewers().compute( reviewer, ( k, v ) -> v == null ? reviewState : v );
+		}
+	}
+
 	@Override
 	public boolean rebaseNeeded( final PullRequest pullRequest ) {
 		return !getLastCommonCommitId( pullRequest ).equals( getHeadOfBranch( pullRequest ) );
 	}
 
 	String getHeadOfBranch( final PullRequest pullRequest ) {
-		return jsonPathForPath( "/git/refs/heads/" + pullRequest.getDestination() ).read( "$.object.sha" );
+		return get( "/git/refs/heads/" + pullRequest.getDestination(), REF_PARSER, null ).getObject().getSha();
 	}
 
+	/**
+	 * Streams the commits of the pull request, for pull requests exceeding the listing limit of GitHub the merge base
+	 * is taken from the comparison with the destination instead.
+	 */
 	String getLastCommonCommitId( final PullRequest pullRequest ) {
-		final DocumentContext jsonPath = jsonPathForPath( requestPath( pullRequest ) + "/commits" );
-
-		final List<String> commitIds = jsonPath.read( "$..sha" );
-		final List<String> parentIds = jsonPath.read( "$..parents..sha" );
+		final PullRequestResponse response = getPullRequest( pullRequest );
+		if ( response.getCommits() != null && response.getCommits() >= MAX_LISTED_COMMITS ) {
+			final String comparePath = "/compare/" + pullRequest.getDestination() + "..." + response.getHead().getSha();
+			return get( comparePath, COMPARISON_PARSER, pullRequest ).getMergeBaseCommit().getSha();
+		}
+		// pages aren't memoized, a pull request may have hundreds of commits
+		return lastCommonCommitId( PageIterator.prefetching( requestPath( pullRequest ) + "/commits" + PER_PAGE,
+				url -> requestContext.getPage( template, url, absoluteUrl( url ), new HttpHeaders(), COMMITS_PARSER ),
+				requestContext.getPrefetchExecutor() ) );
+	}
 
-		return parentIds.stream().filter( commitIds::contains ).findFirst().orElseThrow( IllegalStateException::new );
+	/**
+	 * @param commits
+	 *            in chronological order, as listed by GitHub
+	 */
+	static String lastCommonCommitId( final Stream<Commit> commits ) {
+		final BaseCommitFinder finder = new BaseCommitFinder( false );
+		commits.forEach( commit -> finder.add( commit.getSha(), commit.getParents().stream().map( Commit::getSha ) ) );
+		return finder.getBase().orElseThrow( IllegalStateException::new );
 	}
 
 	@Override
@@ -102,82 +174,138 @@ public class GithubConnector implements RepositoryConnector {
 		template.put( requestPath( pullRequest ) + "/merge", request, Object.class );
 
 		template.delete( "/git/refs/heads/" + pullRequest.getSource() );
+
+		requestContext.invalidate( pullRequest );
+		requestContext.invalidateRepository();
 	}
 
 	@Override
 	public boolean greenBuildExists( final PullRequest pullRequest ) {
-		return getGitHubChecks( pullRequest, "conclusion" ).stream().allMatch( "success"::equals );
+		return getGitHubChecks( pullRequest ).map( CheckRun::getConclusion ).allMatch( "success"::equals );
+	}
+
+	@Override
+	public boolean failedBuildExists( final PullRequest pullRequest ) {
+		return getGitHubChecks( pullRequest ).map( CheckRun::getConclusion ).anyMatch( FAILED_CONCLUSIONS::contains );
 	}
 
 	String newestChecksTime( final PullRequest pullRequest ) {
-		return getGitHubChecks( pullRequest, "completed_at" ).stream()//
+		return getGitHubChecks( pullRequest )//
+				.map( CheckRun::getCompletedAt ) //
 				.filter( time -> time != null && !time.isEmpty() )//
 				.max( Comparator.naturalOrder() )//
 				.orElse( pullRequest.getLastUpdate().toInstant().toString() );
 	}
 
 	@Override
-	public List<PullRequest> getAllPullRequests() {
-		final DocumentContext jsonPath = jsonPathForPath( "/pulls" );
-		return parsePullRequestsJson( jsonPath );
-	}
-
-	public static List<PullRequest> parsePullRequestsJson( final DocumentContext jsonPath ) {
-		final int size = jsonPath.read( "$.length()" );
-		final List<PullRequest> results = new ArrayList<>( size );
-		for ( int i = 0; i < size; i++ ) {
-			final String fullName = jsonPath.read( "$.[" + i + "].head.repo.full_name" );
-
-			if ( fullName.startsWith( "retest" ) ) {
-				final int id = jsonPath.read( "$.[" + i + "].number" );
-				final String title = jsonPath.read( "$.[" + i + "].title" );
-				final int creator = jsonPath.read( "$.[" + i + "].user.id" );
-				final String description = jsonPath.read( "$.[" + i + "].body" );
-				final List<Integer> reviewerId = jsonPath.read( "$.[" + i + "].requested_reviewers[*].id" );
-				final Map<Integer, String> reviewers = new HashMap<>();
-				reviewerId.stream().forEach( userId -> reviewers.put( userId, null ) );
-				final String source = jsonPath.read( "$.[" + i + "].head.ref" );
-				final String destination = jsonPath.read( "$.[" + i + "].base.ref" );
-				final Date lastUpdate =
-						PullRequestLastUpdateStore.parseStringToDate( jsonPath.read( "$.[" + i + "].updated_at" ) );
-				results.add( PullRequest.builder() //
-						.id( id ) //
-						.title( title ) //
-						.creator( creator ) //
-						.description( description ) //
-						.reviewers( reviewers ) //
-						.source( source ) //
-						.destination( destination ) //
-						.lastUpdate( lastUpdate ) //
-						.build() ); //
-			} else {
-				log.info( "Ignoring external PR {}", fullName );
-			}
+	public Iterable<PullRequest> getAllPullRequests() {
+		return () -> toPullRequests( PageIterator.prefetching( "/pulls" + PER_PAGE, url -> requestContext.getPage(
+				template, url, absoluteUrl( url ), new HttpHeaders(), PULL_REQUESTS_PARSER ),
+				requestContext.getPrefetchExecutor() ) ).iterator();
+	}
+
+	public static List<PullRequest> parsePullRequestsJson( final InputStream json ) throws IOException {
+		return toPullRequests( PULL_REQUESTS_PARSER.parse( json, new HttpHeaders() ).getItems().stream() )
+				.collect( Collectors.toList() );
+	}
+
+	private static Stream<PullRequest> toPullRequests( final Stream<PullRequestResponse> responses ) {
+		return responses //
+				.filter( GithubConnector::isInternal ) //
+				.map( GithubConnector::toPullRequest );
+	}
+
+	private static boolean isInternal( final PullRequestResponse response ) {
+		final Repository repo = response.getHead().getRepo();
+		return isInternal( repo == null ? null : repo.getFullName() );
+	}
+
+	static boolean isInternal( final String fullName ) {
+		if ( fullName == null || !fullName.startsWith( "retest" ) ) {
+			log.info( "Ignoring external PR {}", fullName );
+			return false;
 		}
-		return results;
+		return true;
+	}
+
+	private static PullRequest toPullRequest( final PullRequestResponse response ) {
+		final Map<Integer, String> reviewers = new HashMap<>();
+		response.getRequestedReviewers().stream() //
+				.map( User::getId ) //
+				.filter( Objects::nonNull ) //
+				.forEach( userId -> reviewers.put( userId, null ) );
+		return PullRequest.builder() //
+				.id( response.getNumber() ) //
+				.title( response.getTitle() ) //
+				.creator( response.getUser().getId() ) //
+				.description( response.getBody() ) //
+				.reviewers( reviewers ) //
+				.source( response.getHead().getRef() ) //
+				.destination( response.getBase().getRef() ) //
+				.lastUpdate( PullRequestLastUpdateStore.parseStringToDate( response.getUpdatedAt() ) ) //
+				.build(); //
 	}
 
 	private static String requestPath( final PullRequest pullRequest ) {
 		return "/pulls/" + pullRequest.getId();
 	}
 
-	private List<String> getGitHubChecks( final PullRequest pullRequest, final String instruction ) {
-		final String pr = template.getForObject( "/pulls/" + pullRequest.getId(), String.class );
-		final String head = JsonPath.parse( pr ).read( "$.head.sha" );
-		final String checksUrl = "/commits/" + head + "/check-runs";
+	private PullRequestResponse getPullRequest( final PullRequest pullRequest ) {
+		return get( requestPath( pullRequest ), PULL_REQUEST_PARSER, pullRequest );
+	}
+
+	private Stream<CheckRun> getGitHubChecks( final PullRequest pullRequest ) {
+		final String head = getPullRequest( pullRequest ).getHead().getSha();
+		final String checksUrl = "/commits/" + head + "/check-runs" + PER_PAGE;
 
 		final HttpHeaders headers = new HttpHeaders();
 		headers.setAccept( Collections.singletonList( MediaType.parseMediaType( GITHUB_PREVIEW_JSON_MEDIATYPE ) ) );
-		final HttpEntity<String> entity = new HttpEntity<>( "parameters", headers );
 
-		final ResponseEntity<String> json = template.exchange( checksUrl, HttpMethod.GET, entity, String.class );
+		return getAll( checksUrl, headers, CHECK_RUNS_PARSER, pullRequest );
+	}
+
+	private <T> Stream<T> getAll( final String urlPath, final ResponseParser<Page<T>> parser,
+			final PullRequest pullRequest ) {
+		return getAll( urlPath, new HttpHeaders(), parser, pullRequest );
+	}
+
+	/**
+	 * Pages of listings belonging to a pull request are small and usually iterated more than once per cycle, so they
+	 * are memoized like single resources.
+	 */
+	private <T> Stream<T> getAll( final String urlPath, final HttpHeaders headers,
+			final ResponseParser<Page<T>> parser, final PullRequest pullRequest ) {
+		return PageIterator.stream( urlPath, url -> get( url, headers, parser, pullRequest ) );
+	}
+
+	private <T> T get( final String urlPath, final ResponseParser<T> parser, final PullRequest pullRequest ) {
+		return get( urlPath, new HttpHeaders(), parser, pullRequest );
+	}
 
-		return JsonPath.parse( json.getBody() ).<List<String>> read( "$.check_runs[*]." + instruction );
+	private <T> T get( final String urlPath, final HttpHeaders headers, final ResponseParser<T> parser,
+			final PullRequest pullRequest ) {
+		return requestContext.getForObject( template, urlPath, absoluteUrl( urlPath ), headers, parser,
+				pullRequest );
 	}
 
-	private DocumentContext jsonPathForPath( final String urlPath ) {
-		final String json = template.getForObject( urlPath, String.class );
-		return JsonPath.parse( json );
+	private String absoluteUrl( final String urlPath ) {
+		return urlPath.startsWith( "/" ) ? baseUrl + urlPath : urlPath;
+	}
+
+	private static <T> ResponseParser<Page<T>> pageParser( final ResponseParser<List<T>> parser ) {
+		return ( body, headers ) -> new Page<>( parser.parse( body, headers ), nextLink( headers ) );
+	}
+
+	/**
+	 * @return URL of the following page from the <code>Link</code> header, or null if this is the last page
+	 */
+	static String nextLink( final HttpHeaders headers ) {
+		final String link = headers.getFirst( HttpHeaders.LINK );
+		if ( link == null ) {
+			return null;
+		}
+		final Matcher matcher = NEXT_LINK.matcher( link );
+		return matcher.find() ? matcher.group( 1 ) : null;
 	}
 
 	@Override
@@ -185,6 +313,12 @@ public class GithubConnector implements RepositoryConnector {
 		final Map<String, String> request = new HashMap<>();
 		request.put( "body", message );
 		template.postForObject( "/issues/" + pullRequest.getId() + "/comments", request, String.class );
+		requestContext.invalidate( pullRequest );
+	}
+
+	@Override
+	public void invalidate( final PullRequest pullRequest ) {
+		requestContext.invalidate( pullRequest );
 	}
 
 }
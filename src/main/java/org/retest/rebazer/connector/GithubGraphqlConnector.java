@@ -0,0 +1,256 @@
+package org.retest.rebazer.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.retest.rebazer.connector.PageIterator.Page;
+import org.retest.rebazer.domain.GithubGraphqlResponses.CheckSuite;
+import org.retest.rebazer.domain.GithubGraphqlResponses.Commit;
+import org.retest.rebazer.domain.GithubGraphqlResponses.Error;
+import org.retest.rebazer.domain.GithubGraphqlResponses.PullRequestConnection;
+import org.retest.rebazer.domain.GithubGraphqlResponses.PullRequestNode;
+import org.retest.rebazer.domain.GithubGraphqlResponses.Repository;
+import org.retest.rebazer.domain.GithubGraphqlResponses.Response;
+import org.retest.rebazer.domain.GithubGraphqlResponses.Review;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.PullRequestLastUpdateStore;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import lombok.SneakyThrows;
+
+/**
+ * Reads the state of all open pull requests of a repository with one paginated query against the GitHub GraphQL API,
+ * instead of several REST requests per pull request. The answers of a cycle are taken from that snapshot, a pull
+ * request is queried again only after it was invalidated. Merges and comments are delegated to the
+ * {@link GithubConnector}.
+ */
+public class GithubGraphqlConnector implements RepositoryConnector {
+
+	private static final String QUERY = loadQuery();
+	private static final ObjectMapper OBJECT_MAPPER =
+			new ObjectMapper().configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+	private static final ObjectReader RESPONSE_READER = OBJECT_MAPPER.readerFor( Response.class );
+
+	private final RestTemplate template;
+	private final RequestContext requestContext;
+	private final GithubConnector restConnector;
+	private final URI graphqlUri;
+	private final String owner;
+	private final String name;
+
+	private final Map<Integer, PullRequestNode> snapshot = new ConcurrentHashMap<>();
+
+	public GithubGraphqlConnector( final RepositoryConfig repoConfig, final RestTemplateBuilder builder,
+			final RequestContext requestContext ) {
+		graphqlUri = URI.create( graphqlUrl( repoConfig.getApiHost() ) );
+		owner = repoConfig.getTeam();
+		name = repoConfig.getRepo();
+
+		template = builder.defaultHeader( HttpHeaders.AUTHORIZATION, "bearer " + repoConfig.getPass() ).build();
+		this.requestContext = requestContext;
+		restConnector = new GithubConnector( repoConfig, builder, requestContext );
+	}
+
+	/**
+	 * GitHub Enterprise serves the REST API below <code>/api/v3</code> and GraphQL on <code>/api/graphql</code>.
+	 */
+	static String graphqlUrl( final URL apiHost ) {
+		final String url = apiHost.toString().replaceAll( "/+$", "" );
+		return url.endsWith( "/v3" ) ? url.substring( 0, url.length() - "/v3".length() ) + "/graphql"
+				: url + "/graphql";
+	}
+
+	@Override
+	public Iterable<PullRequest> getAllPullRequests() {
+		return () -> PageIterator.prefetching( null, this::queryPage, requestContext.getPrefetchExecutor() ) //
+				.filter( node -> GithubConnector.isInternal(
+						node.getHeadRepository() == null ? null : node.getHeadRepository().getNameWithOwner() ) ) //
+				.map( GithubGraphqlConnector::toPullRequest ) //
+				.iterator();
+	}
+
+	@Override
+	public PullRequest getLatestUpdate( final PullRequest pullRequest ) {
+		final PullRequestNode node = getNode( pullRequest );
+		final Date repositoryTime = PullRequestLastUpdateStore.parseStringToDate( node.getUpdatedAt() );
+		final Date checksTime = checkSuites( node ) //
+				.filter( suite -> suite.getConclusion() != null && suite.getUpdatedAt() != null ) //
+				.map( suite -> PullRequestLastUpdateStore.parseStringToDate( suite.getUpdatedAt() ) ) //
+				.max( Comparator.naturalOrder() ) //
+				.orElse( pullRequest.getLastUpdate() );
+		return pullRequest.updateLastChange( repositoryTime.after( checksTime ) ? repositoryTime : checksTime );
+	}
+
+	@Override
+	public boolean isApproved( final PullRequest pullRequest ) {
+		final Integer creator = pullRequest.getCreator();
+		for ( final Review review : getNode( pullRequest ).getLatestReviews().getNodes() ) {
+			final Integer reviewer = review.getAuthor() == null ? null : review.getAuthor().getDatabaseId();
+			if ( reviewer != null && !reviewer.equals( creator ) ) {
+				GithubConnector.putReviewState( pullRequest, reviewer, review.getState() );
+			}
+		}
+		return GithubConnector.isApprovedByReviewers( pullRequest );
+	}
+
+	/**
+	 * The parent of the first commit is the base of the pull request, unless the destination was merged into the source
+	 * afterwards. So only if it isn't the tip of the destination, the commits of the pull request are streamed via the
+	 * REST API to find the base like {@link GithubConnector#getLastCommonCommitId(PullRequest)}.
+	 */
+	@Override
+	public boolean rebaseNeeded( final PullRequest pullRequest ) {
+		final PullRequestNode node = getNode( pullRequest );
+		if ( node.getBaseRef() == null ) {
+			throw new IllegalStateException( "Destination branch of " + pullRequest + " doesn't exist." );
+		}
+		final String destinationHead = node.getBaseRef().getTarget().getOid();
+		final boolean firstCommitOnHead = node.getFirstCommit().getNodes().stream() //
+				.flatMap( pullRequestCommit -> pullRequestCommit.getCommit().getParents().getNodes().stream() ) //
+				.map( Commit::getOid ) //
+				.anyMatch( destinationHead::equals );
+		return !firstCommitOnHead && !destinationHead.equals( restConnector.getLastCommonCommitId( pullRequest ) );
+	}
+
+	@Override
+	public boolean greenBuildExists( final PullRequest pullRequest ) {
+		// apps without check runs leave a queued suite behind, which would block forever
+		return checkSuites( getNode( pullRequest ) ) //
+				.filter( suite -> suite.getCheckRuns() != null && suite.getCheckRuns().getTotalCount() > 0 ) //
+				.allMatch( suite -> "SUCCESS".equals( suite.getConclusion() ) );
+	}
+
+	@Override
+	public boolean failedBuildExists( final PullRequest pullRequest ) {
+		return checkSuites( getNode( pullRequest ) ) //
+				.filter( suite -> suite.getCheckRuns() != null && suite.getCheckRuns().getTotalCount() > 0 ) //
+				.map( CheckSuite::getConclusion ) //
+				.anyMatch( conclusion -> conclusion != null && !"SUCCESS".equals( conclusion )
+						&& !"NEUTRAL".equals( conclusion ) && !"SKIPPED".equals( conclusion ) );
+	}
+
+	@Override
+	public void merge( final PullRequest pullRequest ) {
+		restConnector.merge( pullRequest );
+		snapshot.remove( pullRequest.getId() );
+		// the destination branch moved, so all pull requests into it have to be queried again
+		snapshot.values().removeIf( node -> Objects.equals( node.getBaseRefName(), pullRequest.getDestination() ) );
+	}
+
+	@Override
+	public void addComment( final PullRequest pullRequest, final String message ) {
+		restConnector.addComment( pullRequest, message );
+		snapshot.remove( pullRequest.getId() );
+	}
+
+	@Override
+	public void invalidate( final PullRequest pullRequest ) {
+		restConnector.invalidate( pullRequest );
+		snapshot.remove( pullRequest.getId() );
+	}
+
+	private PullRequestNode getNode( final PullRequest pullRequest ) {
+		final PullRequestNode cached = snapshot.get( pullRequest.getId() );
+		if ( cached != null ) {
+			return cached;
+		}
+		final PullRequestNode node = query( null, pullRequest.getId() ).getPullRequest();
+		if ( node == null ) {
+			throw new IllegalStateException( pullRequest + " doesn't exist." );
+		}
+		snapshot.put( node.getNumber(), node );
+		return node;
+	}
+
+	private Page<PullRequestNode> queryPage( final String cursor ) {
+		final PullRequestConnection connection = query( cursor, null ).getPullRequests();
+		connection.getNodes().forEach( node -> snapshot.put( node.getNumber(), node ) );
+		return new Page<>( connection.getNodes(),
+				connection.getPageInfo().isHasNextPage() ? connection.getPageInfo().getEndCursor() : null );
+	}
+
+	private Repository query( final String cursor, final Integer number ) {
+		final Map<String, Object> variables = new HashMap<>();
+		variables.put( "owner", owner );
+		variables.put( "name", name );
+		variables.put( "cursor", cursor );
+		variables.put( "number", number == null ? 0 : number );
+		variables.put( "single", number != null );
+		final Map<String, Object> request = new HashMap<>();
+		request.put( "query", QUERY );
+		request.put( "variables", variables );
+		final byte[] requestBody = toJson( request );
+
+		requestContext.countRequest();
+		final Response response = template.execute( graphqlUri, HttpMethod.POST, httpRequest -> {
+			httpRequest.getHeaders().setContentType( MediaType.APPLICATION_JSON );
+			httpRequest.getBody().write( requestBody );
+		}, httpResponse -> RESPONSE_READER.<Response> readValue( httpResponse.getBody() ) );
+
+		if ( response == null || !response.getErrors().isEmpty() || response.getData() == null ) {
+			throw new IllegalStateException( "GraphQL query for " + owner + "/" + name + " failed: "
+					+ (response == null ? "no response"
+							: response.getErrors().stream().map( Error::getMessage )
+									.collect( Collectors.joining( ", " ) )) );
+		}
+		return response.getData().getRepository();
+	}
+
+	private static Stream<CheckSuite> checkSuites( final PullRequestNode node ) {
+		return node.getLastCommit().getNodes().stream() //
+				.flatMap( pullRequestCommit -> pullRequestCommit.getCommit().getCheckSuites().getNodes().stream() );
+	}
+
+	private static PullRequest toPullRequest( final PullRequestNode node ) {
+		final Map<Integer, String> reviewers = new HashMap<>();
+		node.getReviewRequests().getNodes().stream() //
+				.filter( request -> request.getRequestedReviewer() != null ) //
+				.map( request -> request.getRequestedReviewer().getDatabaseId() ) //
+				.filter( Objects::nonNull ) //
+				.forEach( userId -> reviewers.put( userId, null ) );
+		return PullRequest.builder() //
+				.id( node.getNumber() ) //
+				.title( node.getTitle() ) //
+				.creator( node.getAuthor() == null ? null : node.getAuthor().getDatabaseId() ) //
+				.description( node.getBody() ) //
+				.reviewers( reviewers ) //
+				.source( node.getHeadRefName() ) //
+				.destination( node.getBaseRefName() ) //
+				.lastUpdate( PullRequestLastUpdateStore.parseStringToDate( node.getUpdatedAt() ) ) //
+				.build(); //
+	}
+
+	@SneakyThrows( IOException.class )
+	private static byte[] toJson( final Object value ) {
+		return OBJECT_MAPPER.writeValueAsBytes( value );
+	}
+
+	@SneakyThrows( IOException.class )
+	private static String loadQuery() {
+		try ( final InputStream query = GithubGraphqlConnector.class.getResourceAsStream( "pull-requests.graphql" ) ) {
+			return IOUtils.toString( query, StandardCharsets.UTF_8 );
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package org.retest.rebazer.connector;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+
+/**
+ * Binds API responses in a single pass to the typed models in {@link org.retest.rebazer.domain}. Both APIs use snake
+ * case property names, properties without a counterpart in the model are skipped.
+ */
+final class JsonParsers {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper() //
+			.configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false ) //
+			.setPropertyNamingStrategy( PropertyNamingStrategy.SNAKE_CASE );
+
+	private JsonParsers() {}
+
+	static <T> ResponseParser<T> parserFor( final Class<T> type ) {
+		final ObjectReader reader = OBJECT_MAPPER.readerFor( type );
+		return ( body, headers ) -> reader.readValue( body );
+	}
+
+	static <T> ResponseParser<T> parserFor( final TypeReference<T> type ) {
+		final ObjectReader reader = OBJECT_MAPPER.readerFor( type );
+		return ( body, headers ) -> reader.readValue( body );
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.retest.rebazer.connector;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import lombok.Value;
+
+/**
+ * Lazily iterates the elements of a paginated listing. The first page is requested on first access. With an executor,
+ * the following page is already requested in the background while the elements of a page are consumed. So at most two
+ * pages are held in memory, regardless of the size of the listing.
+ */
+class PageIterator<T> implements Iterator<T> {
+
+	private final Function<String, Page<T>> fetch;
+	private final Executor executor;
+
+	private final String firstUrl;
+	private boolean started;
+	private Iterator<T> current = Collections.emptyIterator();
+	private String next;
+	private CompletableFuture<Page<T>> prefetched;
+
+	/**
+	 * @param firstUrl
+	 *            URL (or cursor) of the first page, may be null
+	 * @param fetch
+	 *            requests the page for the given URL
+	 * @param executor
+	 *            prefetches the following page, null to request each page when it is reached
+	 */
+	PageIterator( final String firstUrl, final Function<String, Page<T>> fetch, final Executor executor ) {
+		this.firstUrl = firstUrl;
+		this.fetch = fetch;
+		this.executor = executor;
+	}
+
+	/**
+	 * Requests each page when it is reached, for listings which are usually not consumed to the end, e.g. by
+	 * {@link Stream#anyMatch}.
+	 */
+	static <T> Stream<T> stream( final String firstUrl, final Function<String, Page<T>> fetch ) {
+		return prefetching( firstUrl, fetch, null );
+	}
+
+	/**
+	 * Prefetches the following page, for listings which are always consumed to the end. Otherwise the prefetched page
+	 * would be requested for nothing.
+	 *
+	 * @param executor
+	 *            see {@link RequestContext#getPrefetchExecutor()}, null to request each page when it is reached
+	 */
+	static <T> Stream<T> prefetching( final String firstUrl, final Function<String, Page<T>> fetch,
+			final Executor executor ) {
+		final PageIterator<T> iterator = new PageIterator<>( firstUrl, fetch, executor );
+		return StreamSupport.stream( Spliterators.spliteratorUnknownSize( iterator, Spliterator.ORDERED ), false );
+	}
+
+	@Override
+	public boolean hasNext() {
+		while ( !current.hasNext() ) {
+			final Page<T> page;
+			if ( !started ) {
+				page = fetch.apply( firstUrl );
+				started = true;
+			} else if ( prefetched != null ) {
+				page = join( prefetched );
+			} else if ( next != null ) {
+				page = fetch.apply( next );
+			} else {
+				return false;
+			}
+			current = page.getItems().iterator();
+			next = page.getNext();
+			prefetched = next == null || executor == null ? null
+					: CompletableFuture.supplyAsync( () -> fetch.apply( page.getNext() ), executor );
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if ( !hasNext() ) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+
+	private static <T> T join( final CompletableFuture<T> future ) {
+		try {
+			return future.join();
+		} catch ( final CompletionException e ) {
+			if ( e.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Elements of one page and the URL of the following page, if there is one.
+	 */
+	@Value
+	static class Page<T> {
+		private final List<T> items;
+		private final String next;
+	}
+
+}
@@ -1,12 +1,13 @@
 package org.retest.rebazer.connector;
 
-import java.util.List;
-
 import org.retest.rebazer.domain.PullRequest;
 
 public interface RepositoryConnector {
 
-	List<PullRequest> getAllPullRequests();
+	/**
+	 * @return open pull requests, the pages of the listing are requested lazily while iterating
+	 */
+	Iterable<PullRequest> getAllPullRequests();
 
 	PullRequest getLatestUpdate( PullRequest pullRequest );
 
@@ -16,8 +17,20 @@ public interface RepositoryConnector {
 
 	boolean greenBuildExists( PullRequest pullRequest );
 
+	/**
+	 * @return if a build of the pull request finished unsuccessfully, unlike {@link #greenBuildExists(PullRequest)}
+	 *         false while the builds are still running
+	 */
+	boolean failedBuildExists( PullRequest pullRequest );
+
 	void merge( PullRequest pullRequest );
 
 	void addComment( final PullRequest pullRequest, String message );
 
+	/**
+	 * Forget all responses memoized in this cycle for the given pull request, e.g. after its source branch was
+	 * rebased.
+	 */
+	default void invalidate( final PullRequest pullRequest ) {}
+
 }
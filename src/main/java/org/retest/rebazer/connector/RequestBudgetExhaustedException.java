@@ -0,0 +1,24 @@
+package org.retest.rebazer.connector;
+
+import java.time.Instant;
+
+import org.springframework.web.client.RestClientException;
+
+import lombok.Getter;
+
+/**
+ * Thrown instead of sending a request which would exceed the rate limit of the host.
+ */
+public class RequestBudgetExhaustedException extends RestClientException {
+
+	private static final long serialVersionUID = 1L;
+
+	@Getter
+	private final Instant reset;
+
+	public RequestBudgetExhaustedException( final String host, final Instant reset ) {
+		super( "Request budget for " + host + " is exhausted until " + reset );
+		this.reset = reset;
+	}
+
+}
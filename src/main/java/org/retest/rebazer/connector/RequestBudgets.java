@@ -0,0 +1,319 @@
+package org.retest.rebazer.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Request budget per API host, applied to every {@link RestTemplate} built by the injected
+ * {@link org.springframework.boot.web.client.RestTemplateBuilder}. Requests are paced by a token bucket, the remaining
+ * quota is tracked from the <code>X-RateLimit-*</code> headers (GitHub) and <code>429 Too Many Requests</code>
+ * responses (Bitbucket). A share of the quota is reserved for writes like merges and comments. Reads are paced to
+ * spread the rest of the remaining quota until the reset, capped by the configured rate. They only fail fast with a
+ * {@link RequestBudgetExhaustedException} if the quota beyond the reserve is used up or their wait would run past the
+ * reset. The number of requests in flight per host is capped as well, a request holds its permit until its response
+ * is closed.
+ */
+@Slf4j
+public class RequestBudgets implements RestTemplateCustomizer, ClientHttpRequestInterceptor, MeterBinder {
+
+	private static final String METRIC_REMAINING = "rebazer.connector.rate.limit.remaining";
+	private static final long DEFAULT_RETRY_AFTER_SECONDS = 60;
+
+	private final double requestsPerSecond;
+	private final double writeReserve;
+	private final int maxInFlight;
+	private final Clock clock;
+
+	private final Map<String, HostBudget> budgets = new ConcurrentHashMap<>();
+	private volatile MeterRegistry registry;
+
+	/**
+	 * @param writeReserve
+	 *            share of the rate limit (0 to 1) only used for writes
+	 * @param maxInFlight
+	 *            max. number of concurrent requests per host
+	 */
+	public RequestBudgets( final double requestsPerSecond, final double writeReserve, final int maxInFlight ) {
+		this( requestsPerSecond, writeReserve, maxInFlight, Clock.systemUTC() );
+	}
+
+	RequestBudgets( final double requestsPerSecond, final double writeReserve, final int maxInFlight,
+			final Clock clock ) {
+		this.requestsPerSecond = requestsPerSecond;
+		this.writeReserve = writeReserve;
+		this.maxInFlight = maxInFlight;
+		this.clock = clock;
+	}
+
+	@Override
+	public void customize( final RestTemplate restTemplate ) {
+		restTemplate.getInterceptors().add( this );
+	}
+
+	@Override
+	public ClientHttpResponse intercept( final HttpRequest request, final byte[] body,
+			final ClientHttpRequestExecution execution ) throws IOException {
+		final HostBudget budget = budgetFor( request.getURI().getHost() );
+		final boolean write = isWrite( request );
+		budget.take( write );
+		try {
+			budget.inFlight.acquire();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for requests in flight" );
+		}
+		try {
+			if ( !write ) {
+				budget.paceRead();
+			}
+			budget.bucket.acquire();
+			final ClientHttpResponse response = execution.execute( request, body );
+			budget.update( response.getRawStatusCode(), response.getHeaders() );
+			return new InFlightResponse( response, budget.inFlight );
+		} catch ( final InterruptedException e ) {
+			budget.inFlight.release();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for request budget" );
+		} catch ( final IOException | RuntimeException e ) {
+			budget.inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return number of requests to the host waiting for a response or being read
+	 */
+	int getInFlight( final String host ) {
+		final HostBudget budget = budgets.get( host );
+		return budget == null ? 0 : maxInFlight - budget.inFlight.availablePermits();
+	}
+
+	/**
+	 * @return requests per second reads to the host are currently paced to
+	 */
+	double getReadRate( final String host ) {
+		final HostBudget budget = budgets.get( host );
+		return budget == null ? requestsPerSecond : budget.readPace.getRate();
+	}
+
+	/**
+	 * GraphQL queries are sent as POST, but only read.
+	 */
+	private static boolean isWrite( final HttpRequest request ) {
+		return request.getMethod() != HttpMethod.GET && request.getMethod() != HttpMethod.HEAD
+				&& !request.getURI().getPath().endsWith( "/graphql" );
+	}
+
+	/**
+	 * @return remaining requests until reset as reported by the host, -1 if unknown
+	 */
+	public int getRemaining( final String host ) {
+		final HostBudget budget = budgets.get( host );
+		return budget == null ? -1 : budget.getRemaining();
+	}
+
+	private HostBudget budgetFor( final String host ) {
+		return budgets.computeIfAbsent( host, key -> {
+			final HostBudget budget = new HostBudget( key );
+			if ( registry != null ) {
+				budget.register( registry );
+			}
+			return budget;
+		} );
+	}
+
+	@Override
+	public void bindTo( final MeterRegistry registry ) {
+		this.registry = registry;
+		budgets.values().forEach( budget -> budget.register( registry ) );
+	}
+
+	private class HostBudget {
+
+		private final String host;
+		private final TokenBucket bucket = new TokenBucket( requestsPerSecond, Math.max( 1, requestsPerSecond ) );
+		private final TokenBucket readPace = new TokenBucket( requestsPerSecond, Math.max( 1, requestsPerSecond ) );
+		private final Semaphore inFlight = new Semaphore( maxInFlight );
+
+		private int limit = -1;
+		private int remaining = -1;
+		private Instant reset = Instant.MIN;
+
+		HostBudget( final String host ) {
+			this.host = host;
+		}
+
+		synchronized void take( final boolean write ) {
+			if ( remaining < 0 ) {
+				return;
+			}
+			if ( !clock.instant().isBefore( reset ) ) {
+				// quota was reset, the next response tells the new remaining
+				remaining = -1;
+				setReadRate( requestsPerSecond );
+				return;
+			}
+			if ( remaining <= (write ? 0 : reserved()) ) {
+				throw new RequestBudgetExhaustedException( host, reset );
+			}
+			remaining--;
+		}
+
+		/**
+		 * Wait for the read pace, unless the wait would run past the reset of the quota.
+		 */
+		void paceRead() throws InterruptedException {
+			final long waitNanos = readPace.reserve();
+			if ( waitNanos <= 0 ) {
+				return;
+			}
+			synchronized ( this ) {
+				if ( remaining >= 0 && clock.instant().plusNanos( waitNanos ).isAfter( reset ) ) {
+					readPace.cancel();
+					remaining++;
+					throw new RequestBudgetExhaustedException( host, reset );
+				}
+			}
+			TimeUnit.NANOSECONDS.sleep( waitNanos );
+		}
+
+		private int reserved() {
+			return limit < 0 ? 0 : (int) Math.ceil( limit * writeReserve );
+		}
+
+		/**
+		 * Spread the remaining quota beyond the write reserve until the reset.
+		 */
+		private void updateReadRate() {
+			final int available = remaining - reserved();
+			final long millisUntilReset = Duration.between( clock.instant(), reset ).toMillis();
+			if ( available <= 0 || millisUntilReset <= 0 ) {
+				// reads fail fast respectively the quota is about to be reset
+				return;
+			}
+			setReadRate( Math.min( requestsPerSecond, available * 1000.0 / millisUntilReset ) );
+		}
+
+		private void setReadRate( final double readsPerSecond ) {
+			readPace.setRate( readsPerSecond, Math.max( 1, readsPerSecond ) );
+		}
+
+		synchronized void update( final int status, final HttpHeaders headers ) {
+			final String remainingHeader = headers.getFirst( "X-RateLimit-Remaining" );
+			final String resetHeader = headers.getFirst( "X-RateLimit-Reset" );
+			final String limitHeader = headers.getFirst( "X-RateLimit-Limit" );
+			try {
+				if ( remainingHeader != null && resetHeader != null ) {
+					remaining = Integer.parseInt( remainingHeader );
+					reset = Instant.ofEpochSecond( Long.parseLong( resetHeader ) );
+					limit = limitHeader == null ? limit : Integer.parseInt( limitHeader );
+					updateReadRate();
+				}
+			} catch ( final NumberFormatException e ) {
+				log.debug( "Ignoring invalid rate limit headers from {}.", host, e );
+			}
+			if ( status == HttpStatus.TOO_MANY_REQUESTS.value() ) {
+				remaining = 0;
+				reset = clock.instant().plusSeconds( retryAfterSeconds( headers ) );
+				log.warn( "Rate limit of {} exceeded, pausing requests until {}.", host, reset );
+			}
+		}
+
+		private long retryAfterSeconds( final HttpHeaders headers ) {
+			try {
+				final String retryAfter = headers.getFirst( HttpHeaders.RETRY_AFTER );
+				return retryAfter == null ? DEFAULT_RETRY_AFTER_SECONDS : Long.parseLong( retryAfter );
+			} catch ( final NumberFormatException e ) {
+				return DEFAULT_RETRY_AFTER_SECONDS;
+			}
+		}
+
+		synchronized int getRemaining() {
+			return remaining;
+		}
+
+		void register( final MeterRegistry registry ) {
+			Gauge.builder( METRIC_REMAINING, this, HostBudget::getRemaining ).tag( "host", host )
+					.description( "Remaining requests until the rate limit of the host is reset, -1 if unknown" )
+					.register( registry );
+		}
+
+	}
+
+	/**
+	 * Releases the permit of its request once, when it is closed after reading the body.
+	 */
+	private static class InFlightResponse implements ClientHttpResponse {
+
+		private final ClientHttpResponse delegate;
+		private final Semaphore inFlight;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		InFlightResponse( final ClientHttpResponse delegate, final Semaphore inFlight ) {
+			this.delegate = delegate;
+			this.inFlight = inFlight;
+		}
+
+		@Override
+		public HttpStatus getStatusCode() throws IOException {
+			return delegate.getStatusCode();
+		}
+
+		@Override
+		public int getRawStatusCode() throws IOException {
+			return delegate.getRawStatusCode();
+		}
+
+		@Override
+		public String getStatusText() throws IOException {
+			return delegate.getStatusText();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return delegate.getHeaders();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return delegate.getBody();
+		}
+
+		@Override
+		public void close() {
+			try {
+				delegate.close();
+			} finally {
+				if ( released.compareAndSet( false, true ) ) {
+					inFlight.release();
+				}
+			}
+		}
+
+	}
+
+}
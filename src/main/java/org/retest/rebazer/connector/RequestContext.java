@@ -0,0 +1,126 @@
+package org.retest.rebazer.connector;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.retest.rebazer.domain.PullRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestTemplate;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Memoizes API responses for the duration of one cycle over a repository, so repeated lookups of e.g. a pull request
+ * or the head of a destination branch are requested only once. Responses belong either to a single pull request or to
+ * the whole repository and can be invalidated accordingly when the underlying state is changed. Requests which aren't
+ * memoized are passed on to the shared {@link ResponseCache}. Concurrent lookups of the same response, e.g. by the
+ * {@link AsyncRepositoryConnector}, wait for the first one instead of requesting it again.
+ */
+public class RequestContext {
+
+	private final ResponseCache responseCache;
+	private final Executor prefetchExecutor;
+	private final Map<String, Memo> memos = new ConcurrentHashMap<>();
+	private final AtomicLong requestCount = new AtomicLong();
+
+	public RequestContext( final ResponseCache responseCache ) {
+		this( responseCache, null );
+	}
+
+	public RequestContext( final ResponseCache responseCache, final Executor prefetchExecutor ) {
+		this.responseCache = responseCache;
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	/**
+	 * @param pullRequest
+	 *            pull request the response belongs to, or null for responses describing the repository
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <T> T getForObject( final RestTemplate template, final String urlPath, final String cacheKey,
+			final HttpHeaders headers, final ResponseParser<T> parser, final PullRequest pullRequest ) {
+		final Memo memo = memos.get( cacheKey );
+		if ( memo != null ) {
+			return (T) memo.await();
+		}
+		final Memo created = new Memo( pullRequest == null ? null : pullRequest.getId(), new CompletableFuture<>() );
+		final Memo concurrent = memos.putIfAbsent( cacheKey, created );
+		if ( concurrent != null ) {
+			return (T) concurrent.await();
+		}
+		requestCount.incrementAndGet();
+		try {
+			final T value = responseCache.getForObject( template, urlPath, cacheKey, headers, parser );
+			created.value.complete( value );
+			return value;
+		} catch ( final RuntimeException e ) {
+			memos.remove( cacheKey, created );
+			created.value.completeExceptionally( e );
+			throw e;
+		}
+	}
+
+	/**
+	 * Like {@link #getForObject(RestTemplate, String, String, HttpHeaders, ResponseParser, PullRequest)}, but without
+	 * memoizing the response. Used for the pages of listings which are iterated once per cycle, so they don't pile up
+	 * in memory.
+	 */
+	public <T> T getPage( final RestTemplate template, final String urlPath, final String cacheKey,
+			final HttpHeaders headers, final ResponseParser<T> parser ) {
+		requestCount.incrementAndGet();
+		return responseCache.getForObject( template, urlPath, cacheKey, headers, parser );
+	}
+
+	/**
+	 * Count a request which isn't sent via this context, e.g. a GraphQL query.
+	 */
+	public void countRequest() {
+		requestCount.incrementAndGet();
+	}
+
+	public void invalidate( final PullRequest pullRequest ) {
+		memos.values().removeIf( memo -> Objects.equals( memo.pullRequestId, pullRequest.getId() ) );
+	}
+
+	public void invalidateRepository() {
+		memos.values().removeIf( memo -> memo.pullRequestId == null );
+	}
+
+	/**
+	 * @return executor requesting the following page of a full listing in the background, null if the pages are
+	 *         requested one after another
+	 */
+	Executor getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	/**
+	 * @return number of requests actually sent to the API
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	@AllArgsConstructor
+	private static class Memo {
+		final Integer pullRequestId;
+		final CompletableFuture<Object> value;
+
+		Object await() {
+			try {
+				return value.join();
+			} catch ( final CompletionException e ) {
+				if ( e.getCause() instanceof RuntimeException ) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.retest.rebazer.connector;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AllArgsConstructor;
+
+/**
+ * Cache for parsed API responses with their validators (<code>ETag</code>/<code>Last-Modified</code>). Requests for
+ * cached URLs are sent as conditional requests, on <code>304 Not Modified</code> the cached parse result is returned.
+ * The cache is bounded by entries and (body) bytes, the least recently used entries are evicted first.
+ */
+public class ResponseCache implements MeterBinder {
+
+	private static final String METRIC_PREFIX = "rebazer.connector.response.cache";
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+	private long currentBytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public ResponseCache( final int maxEntries, final long maxBytes ) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	public static ResponseCache disabled() {
+		return new ResponseCache( 0, 0 );
+	}
+
+	/**
+	 * GET the given path, conditionally if a validator for the cache key is known.
+	 *
+	 * @param urlPath
+	 *            path relative to the root URI of the template, or an absolute URL
+	 *
+	 * @param cacheKey
+	 *            unique key for the requested resource, usually the absolute URL
+	 * @param parser
+	 *            converts the response body while it is streamed, only called if the response isn't
+	 *            <code>304 Not Modified</code>
+	 */
+	public <T> T getForObject( final RestTemplate template, final String urlPath, final String cacheKey,
+			final HttpHeaders headers, final ResponseParser<T> parser ) {
+		final Entry cached = get( cacheKey );
+		final HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setAccept( Collections.singletonList( MediaType.APPLICATION_JSON ) );
+		requestHeaders.putAll( headers );
+		if ( cached != null ) {
+			if ( cached.etag != null ) {
+				requestHeaders.setIfNoneMatch( cached.etag );
+			}
+			if ( cached.lastModified != null ) {
+				requestHeaders.set( HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified );
+			}
+		}
+
+		final RequestCallback requestCallback = request -> request.getHeaders().putAll( requestHeaders );
+		final ResponseExtractor<T> responseExtractor = response -> {
+			if ( cached != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED ) {
+				hits.increment();
+				return cached.<T> value();
+			}
+			misses.increment();
+
+			final CountingInputStream body = new CountingInputStream( response.getBody() );
+			final T value = parser.parse( body, response.getHeaders() );
+			final String etag = response.getHeaders().getETag();
+			final String lastModified = response.getHeaders().getFirst( HttpHeaders.LAST_MODIFIED );
+			if ( etag != null || lastModified != null ) {
+				put( cacheKey, new Entry( etag, lastModified, value, body.getByteCount() ) );
+			}
+			return value;
+		};
+
+		// absolute URLs (e.g. links to following pages) are already encoded and must not be expanded again
+		return urlPath.startsWith( "/" )
+				? template.execute( urlPath, HttpMethod.GET, requestCallback, responseExtractor )
+				: template.execute( URI.create( urlPath ), HttpMethod.GET, requestCallback, responseExtractor );
+	}
+
+	synchronized Entry get( final String cacheKey ) {
+		return entries.get( cacheKey );
+	}
+
+	synchronized void put( final String cacheKey, final Entry entry ) {
+		if ( maxEntries <= 0 || entry.bytes > maxBytes ) {
+			return;
+		}
+		final Entry previous = entries.put( cacheKey, entry );
+		if ( previous != null ) {
+			currentBytes -= previous.bytes;
+		}
+		currentBytes += entry.bytes;
+
+		final Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+		while ( entries.size() > maxEntries || currentBytes > maxBytes ) {
+			final Entry evicted = leastRecentlyUsed.next().getValue();
+			leastRecentlyUsed.remove();
+			currentBytes -= evicted.bytes;
+			evictions.increment();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long bytes() {
+		return currentBytes;
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	public double hitRate() {
+		final long hitCount = hitCount();
+		final long requestCount = hitCount + missCount();
+		return requestCount == 0 ? 0.0 : (double) hitCount / requestCount;
+	}
+
+	@Override
+	public void bindTo( final MeterRegistry registry ) {
+		FunctionCounter.builder( METRIC_PREFIX + ".requests", hits, LongAdder::sum ).tag( "result", "hit" )
+				.description( "Requests answered with 304 Not Modified from the cache" ).register( registry );
+		FunctionCounter.builder( METRIC_PREFIX + ".requests", misses, LongAdder::sum ).tag( "result", "miss" )
+				.description( "Requests answered with a full response" ).register( registry );
+		FunctionCounter.builder( METRIC_PREFIX + ".evictions", evictions, LongAdder::sum ).register( registry );
+		Gauge.builder( METRIC_PREFIX + ".hit.ratio", this, ResponseCache::hitRate ).register( registry );
+		Gauge.builder( METRIC_PREFIX + ".entries", this, ResponseCache::size ).register( registry );
+		Gauge.builder( METRIC_PREFIX + ".bytes", this, ResponseCache::bytes ).register( registry );
+	}
+
+	@AllArgsConstructor
+	static class Entry {
+		final String etag;
+		final String lastModified;
+		final Object value;
+		final long bytes;
+
+		@SuppressWarnings( "unchecked" )
+		<T> T value() {
+			return (T) value;
+		}
+	}
+
+}
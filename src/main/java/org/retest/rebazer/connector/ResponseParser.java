@@ -0,0 +1,22 @@
+package org.retest.rebazer.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Converts a response body while it is read from the connection, so the body is never buffered as a whole. The
+ * headers are passed along for metadata which isn't part of the body, like pagination links.
+ */
+@FunctionalInterface
+public interface ResponseParser<T> {
+
+	T parse( InputStream body, HttpHeaders headers ) throws IOException;
+
+	default <R> ResponseParser<R> andThen( final Function<? super T, ? extends R> after ) {
+		return ( body, headers ) -> after.apply( parse( body, headers ) );
+	}
+
+}
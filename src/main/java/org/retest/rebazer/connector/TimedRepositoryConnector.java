@@ -0,0 +1,158 @@
+package org.retest.rebazer.connector;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.retest.rebazer.domain.PullRequest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the duration of each call of the wrapped connector, tagged by method and exception. For
+ * {@link #getAllPullRequests()} the time spent iterating is recorded once the listing is exhausted or fails, as the
+ * pages are requested lazily.
+ */
+public class TimedRepositoryConnector implements RepositoryConnector {
+
+	private static final String METRIC_CALL_DURATION = "rebazer.connector.call.duration";
+
+	private final RepositoryConnector delegate;
+	private final Tags tags;
+	private final MeterRegistry meterRegistry;
+
+	public TimedRepositoryConnector( final RepositoryConnector delegate, final Iterable<Tag> tags,
+			final MeterRegistry meterRegistry ) {
+		this.delegate = delegate;
+		this.tags = Tags.of( tags );
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public Iterable<PullRequest> getAllPullRequests() {
+		return () -> new TimedIterator<>( () -> delegate.getAllPullRequests().iterator() );
+	}
+
+	@Override
+	public PullRequest getLatestUpdate( final PullRequest pullRequest ) {
+		return timed( "getLatestUpdate", () -> delegate.getLatestUpdate( pullRequest ) );
+	}
+
+	@Override
+	public boolean isApproved( final PullRequest pullRequest ) {
+		return timed( "isApproved", () -> delegate.isApproved( pullRequest ) );
+	}
+
+	@Override
+	public boolean rebaseNeeded( final PullRequest pullRequest ) {
+		return timed( "rebaseNeeded", () -> delegate.rebaseNeeded( pullRequest ) );
+	}
+
+	@Override
+	public boolean greenBuildExists( final PullRequest pullRequest ) {
+		return timed( "greenBuildExists", () -> delegate.greenBuildExists( pullRequest ) );
+	}
+
+	@Override
+	public boolean failedBuildExists( final PullRequest pullRequest ) {
+		return timed( "failedBuildExists", () -> delegate.failedBuildExists( pullRequest ) );
+	}
+
+	@Override
+	public void merge( final PullRequest pullRequest ) {
+		timed( "merge", () -> {
+			delegate.merge( pullRequest );
+			return null;
+		} );
+	}
+
+	@Override
+	public void addComment( final PullRequest pullRequest, final String message ) {
+		timed( "addComment", () -> {
+			delegate.addComment( pullRequest, message );
+			return null;
+		} );
+	}
+
+	@Override
+	public void invalidate( final PullRequest pullRequest ) {
+		delegate.invalidate( pullRequest );
+	}
+
+	private <T> T timed( final String method, final Supplier<T> call ) {
+		final long start = System.nanoTime();
+		try {
+			final T result = call.get();
+			record( method, "none", System.nanoTime() - start );
+			return result;
+		} catch ( final RuntimeException e ) {
+			record( method, e.getClass().getSimpleName(), System.nanoTime() - start );
+			throw e;
+		}
+	}
+
+	private void record( final String method, final String exception, final long nanos ) {
+		Timer.builder( METRIC_CALL_DURATION ) //
+				.tags( tags ) //
+				.tag( "method", method ) //
+				.tag( "exception", exception ) //
+				.register( meterRegistry ) //
+				.record( nanos, TimeUnit.NANOSECONDS );
+	}
+
+	private class TimedIterator<T> implements Iterator<T> {
+
+		private final Supplier<Iterator<T>> listing;
+		private Iterator<T> iterator;
+		private long nanos;
+		private boolean recorded;
+
+		TimedIterator( final Supplier<Iterator<T>> listing ) {
+			this.listing = listing;
+		}
+
+		@Override
+		public boolean hasNext() {
+			final boolean hasNext = timed( () -> iterator.hasNext() );
+			if ( !hasNext ) {
+				recordOnce( "none" );
+			}
+			return hasNext;
+		}
+
+		@Override
+		public T next() {
+			return timed( () -> iterator.next() );
+		}
+
+		private <R> R timed( final Supplier<R> call ) {
+			final long start = System.nanoTime();
+			try {
+				if ( iterator == null ) {
+					iterator = listing.get();
+				}
+				return call.get();
+			} catch ( final RuntimeException e ) {
+				nanos += System.nanoTime() - start;
+				recordOnce( e.getClass().getSimpleName() );
+				throw e;
+			} finally {
+				if ( !recorded ) {
+					nanos += System.nanoTime() - start;
+				}
+			}
+		}
+
+		private void recordOnce( final String exception ) {
+			if ( !recorded ) {
+				recorded = true;
+				record( "getAllPullRequests", exception, nanos );
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.retest.rebazer.connector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces requests to a steady rate with bursts up to the capacity. Tokens are reserved in advance, so concurrent callers
+ * queue up behind each other instead of retrying. The rate can be changed on the fly.
+ */
+class TokenBucket {
+
+	private double tokensPerNano;
+	private double capacity;
+	private final LongSupplier nanoClock;
+
+	private double tokens;
+	private long lastRefill;
+
+	TokenBucket( final double tokensPerSecond, final double capacity ) {
+		this( tokensPerSecond, capacity, System::nanoTime );
+	}
+
+	TokenBucket( final double tokensPerSecond, final double capacity, final LongSupplier nanoClock ) {
+		tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos( 1 );
+		this.capacity = capacity;
+		this.nanoClock = nanoClock;
+		tokens = capacity;
+		lastRefill = nanoClock.getAsLong();
+	}
+
+	/**
+	 * Take one token, possibly in advance.
+	 *
+	 * @return nanos to wait until the token is available, 0 if it is available right now
+	 */
+	synchronized long reserve() {
+		refill();
+		tokens -= 1;
+		return tokens >= 0 ? 0 : (long) Math.ceil( -tokens / tokensPerNano );
+	}
+
+	/**
+	 * Give back a reserved token, which wasn't used.
+	 */
+	synchronized void cancel() {
+		tokens = Math.min( capacity, tokens + 1 );
+	}
+
+	/**
+	 * Tokens reserved in advance are refilled at the new rate, tokens beyond the new capacity are dropped.
+	 */
+	synchronized void setRate( final double tokensPerSecond, final double capacity ) {
+		refill();
+		tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos( 1 );
+		this.capacity = capacity;
+		tokens = Math.min( capacity, tokens );
+	}
+
+	synchronized double getRate() {
+		return tokensPerNano * TimeUnit.SECONDS.toNanos( 1 );
+	}
+
+	private void refill() {
+		final long now = nanoClock.getAsLong();
+		tokens = Math.min( capacity, tokens + (now - lastRefill) * tokensPerNano );
+		lastRefill = now;
+	}
+
+	void acquire() throws InterruptedException {
+		final long waitNanos = reserve();
+		if ( waitNanos > 0 ) {
+			TimeUnit.NANOSECONDS.sleep( waitNanos );
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package org.retest.rebazer.domain;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * Parts of the Bitbucket REST API responses used by {@link org.retest.rebazer.connector.BitbucketConnector}. Property
+ * names are bound in snake case, all other properties are ignored.
+ */
+public final class BitbucketResponses {
+
+	private BitbucketResponses() {}
+
+	/**
+	 * One page of a paginated collection, <code>next</code> is the absolute URL of the following page if there is one.
+	 * Bound via constructor, as the element type can't be resolved through a generic builder.
+	 */
+	@Value
+	public static class Page<T> {
+		private final List<T> values;
+		private final Integer size;
+		private final String next;
+
+		@JsonCreator
+		public Page( @JsonProperty( "values" ) final List<T> values, @JsonProperty( "size" ) final Integer size,
+				@JsonProperty( "next" ) final String next ) {
+			this.values = values == null ? Collections.emptyList() : values;
+			this.size = size;
+			this.next = next;
+		}
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class PullRequestResponse {
+		private final Integer id;
+		private final String title;
+		private final String description;
+		private final Endpoint source;
+		private final Endpoint destination;
+		private final String updatedOn;
+		@Builder.Default
+		private final List<Participant> participants = Collections.emptyList();
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Endpoint {
+		private final Branch branch;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Branch {
+		private final String name;
+		private final Commit target;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Participant {
+		private final boolean approved;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Status {
+		private final String state;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Commit {
+		private final String hash;
+		@Builder.Default
+		private final List<Commit> parents = Collections.emptyList();
+	}
+
+}
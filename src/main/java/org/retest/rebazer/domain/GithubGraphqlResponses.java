@@ -0,0 +1,169 @@
+package org.retest.rebazer.domain;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * Parts of the GitHub GraphQL API responses used by {@link org.retest.rebazer.connector.GithubGraphqlConnector},
+ * matching the fields selected by <code>pull-requests.graphql</code>.
+ */
+public final class GithubGraphqlResponses {
+
+	private GithubGraphqlResponses() {}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Response {
+		private final Data data;
+		@Builder.Default
+		private final List<Error> errors = Collections.emptyList();
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Error {
+		private final String message;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Data {
+		private final Repository repository;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Repository {
+		private final PullRequestConnection pullRequests;
+		private final PullRequestNode pullRequest;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class PullRequestConnection {
+		private final PageInfo pageInfo;
+		@Builder.Default
+		private final List<PullRequestNode> nodes = Collections.emptyList();
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class PageInfo {
+		private final boolean hasNextPage;
+		private final String endCursor;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class PullRequestNode {
+		private final Integer number;
+		private final String title;
+		private final String body;
+		private final String updatedAt;
+		private final Actor author;
+		private final String headRefName;
+		private final String baseRefName;
+		private final NameWithOwner headRepository;
+		private final Ref baseRef;
+		private final Connection<ReviewRequest> reviewRequests;
+		private final Connection<Review> latestReviews;
+		private final Connection<PullRequestCommit> firstCommit;
+		private final Connection<PullRequestCommit> lastCommit;
+	}
+
+	/**
+	 * Nodes of a connection, bound via constructor, as the node type can't be resolved through a generic builder.
+	 */
+	@Value
+	public static class Connection<T> {
+		private final List<T> nodes;
+
+		@JsonCreator
+		public Connection( @JsonProperty( "nodes" ) final List<T> nodes ) {
+			this.nodes = nodes == null ? Collections.emptyList() : nodes;
+		}
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Actor {
+		private final Integer databaseId;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class NameWithOwner {
+		private final String nameWithOwner;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Ref {
+		private final Commit target;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class ReviewRequest {
+		private final Actor requestedReviewer;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Review {
+		private final String state;
+		private final Actor author;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class PullRequestCommit {
+		private final Commit commit;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Commit {
+		private final String oid;
+		private final Connection<Commit> parents;
+		private final Connection<CheckSuite> checkSuites;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class CheckSuite {
+		private final String conclusion;
+		private final String updatedAt;
+		private final Count checkRuns;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Count {
+		private final int totalCount;
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.retest.rebazer.domain;
+
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * Parts of the GitHub REST API responses used by {@link org.retest.rebazer.connector.GithubConnector}. Property names
+ * are bound in snake case, all other properties are ignored.
+ */
+public final class GithubResponses {
+
+	private GithubResponses() {}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class PullRequestResponse {
+		private final Integer number;
+		private final String title;
+		private final String body;
+		private final User user;
+		@Builder.Default
+		private final List<User> requestedReviewers = Collections.emptyList();
+		private final Branch head;
+		private final Branch base;
+		private final String updatedAt;
+		/**
+		 * Number of commits, only sent for a single pull request
+		 */
+		private final Integer commits;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class User {
+		private final Integer id;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Branch {
+		private final String ref;
+		private final String sha;
+		private final Repository repo;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Repository {
+		private final String fullName;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Review {
+		private final User user;
+		private final String state;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class CheckRuns {
+		@Builder.Default
+		private final List<CheckRun> checkRuns = Collections.emptyList();
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class CheckRun {
+		private final String conclusion;
+		private final String completedAt;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Commit {
+		private final String sha;
+		@Builder.Default
+		private final List<Commit> parents = Collections.emptyList();
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Ref {
+		private final Commit object;
+	}
+
+	@Value
+	@Builder
+	@Jacksonized
+	public static class Comparison {
+		private final Commit mergeBaseCommit;
+	}
+
+}
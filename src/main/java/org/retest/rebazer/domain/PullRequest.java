@@ -2,6 +2,7 @@ package org.retest.rebazer.domain;
 
 import java.util.Date;
 import java.util.Map;
+import java.util.Objects;
 
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -34,7 +35,8 @@ public class PullRequest {
 	}
 
 	public boolean isReviewByAllReviewersRequested() {
-		return title.concat( description ).contains( "@All" );
+		// GitHub sends no body for pull requests without description
+		return Objects.toString( title, "" ).concat( Objects.toString( description, "" ) ).contains( "@All" );
 	}
 
 	public PullRequest updateLastChange( final Date newLastUpdate ) {
@@ -0,0 +1,29 @@
+package org.retest.rebazer.domain;
+
+/**
+ * Last known state of a pull request, ordered from closest to the merge to the least known.
+ */
+public enum PullRequestState {
+
+	/**
+	 * Green build and approved, but not merged yet
+	 */
+	MERGE_READY,
+	/**
+	 * Green build without the need of a rebase, only the approval is missing
+	 */
+	WAITING_FOR_APPROVAL,
+	/**
+	 * Green build, but its destination moved or the last rebase failed
+	 */
+	REBASE_CANDIDATE,
+	/**
+	 * Build is running or failed, e.g. after a rebase
+	 */
+	WAITING_FOR_BUILD,
+	/**
+	 * Not handled yet or reset
+	 */
+	UNKNOWN;
+
+}
@@ -0,0 +1,50 @@
+package org.retest.rebazer.domain;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+/**
+ * Pull requests of one repository affected by external events, either directly by id or via source/destination
+ * branch.
+ */
+@Value
+@Builder
+@AllArgsConstructor( access = AccessLevel.PRIVATE )
+public class PullRequestTargets {
+
+	@Singular
+	private final Set<Integer> pullRequestIds;
+	@Singular
+	private final Set<String> branches;
+
+	public boolean isEmpty() {
+		return pullRequestIds.isEmpty() && branches.isEmpty();
+	}
+
+	public boolean affects( final PullRequest pullRequest ) {
+		return pullRequestIds.contains( pullRequest.getId() ) || branches.contains( pullRequest.getSource() )
+				|| branches.contains( pullRequest.getDestination() );
+	}
+
+	public PullRequestTargets merge( final PullRequestTargets other ) {
+		final Set<Integer> mergedIds = new HashSet<>( pullRequestIds );
+		mergedIds.addAll( other.pullRequestIds );
+		final Set<String> mergedBranches = new HashSet<>( branches );
+		mergedBranches.addAll( other.branches );
+		return new PullRequestTargets( Collections.unmodifiableSet( mergedIds ),
+				Collections.unmodifiableSet( mergedBranches ) );
+	}
+
+	@Override
+	public String toString() {
+		return "PRs " + pullRequestIds + ", branches " + branches;
+	}
+
+}
@@ -4,6 +4,7 @@ import java.net.URL;
 
 import org.retest.rebazer.RepositoryHostingTypes;
 import org.retest.rebazer.connector.RepositoryConnector;
+import org.retest.rebazer.connector.RequestContext;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 
 import lombok.AccessLevel;
@@ -19,12 +20,17 @@ public class RepositoryConfig {
 	private final RepositoryHostingTypes type;
 	private final URL gitHost;
 	private final URL apiHost;
+	private final boolean graphql;
 	private final String team;
 	private final String repo;
 
 	private final String user;
 	private final String pass;
 	private final String mainBranch;
+	/**
+	 * Max. number of concurrent rebases
+	 */
+	private final int worktrees;
 
 	@Override
 	public String toString() {
@@ -35,6 +41,11 @@ public class RepositoryConfig {
 		return type.getConnector( this, templateBuilder );
 	}
 
+	public RepositoryConnector getConnector( final RestTemplateBuilder templateBuilder,
+			final RequestContext requestContext ) {
+		return type.getConnector( this, templateBuilder, requestContext );
+	}
+
 	public String[] getQualifiers() {
 		return new String[] { gitHost.getHost(), team, repo };
 	}
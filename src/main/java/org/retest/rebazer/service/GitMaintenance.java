@@ -0,0 +1,203 @@
+package org.retest.rebazer.service;
+
+import static org.retest.rebazer.config.RebazerConfig.GIT_MAINTENANCE_INTERVAL_DEFAULT;
+import static org.retest.rebazer.config.RebazerConfig.GIT_MAINTENANCE_INTERVAL_KEY;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.GC.RepoStatistics;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Packs the local repositories in the background on a single low priority thread, instead of inline in the rebase
+ * path. A repository is only packed if it has too many loose objects or pack files (like <code>git gc --auto</code>),
+ * and only while it is idle: repositories processed by the {@link RepositoryWorkerPool} or locked by a rebase are
+ * skipped until the next run.
+ */
+@Slf4j
+@Service
+public class GitMaintenance {
+
+	private static final String METRIC_PACK_FILES = "rebazer.git.pack.files";
+	private static final String METRIC_LOOSE_OBJECTS = "rebazer.git.loose.objects";
+	private static final String METRIC_OBJECT_BYTES = "rebazer.git.object.bytes";
+
+	private final boolean enabled;
+	private final long looseObjectsThreshold;
+	private final long packFilesThreshold;
+	private final RepositoryLocks repositoryLocks;
+	private final RepositoryWorkerPool repositoryWorkerPool;
+	private final MeterRegistry meterRegistry;
+
+	private final Map<RepositoryConfig, Git> localRepos = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, Statistics> statistics = new ConcurrentHashMap<>();
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final ExecutorService executor;
+
+	private static class Statistics {
+		private final AtomicLong packFiles = new AtomicLong();
+		private final AtomicLong looseObjects = new AtomicLong();
+		private final AtomicLong looseBytes = new AtomicLong();
+		private final AtomicLong packedBytes = new AtomicLong();
+
+		void update( final RepoStatistics stats ) {
+			packFiles.set( stats.numberOfPackFiles );
+			looseObjects.set( stats.numberOfLooseObjects );
+			looseBytes.set( stats.sizeOfLooseObjects );
+			packedBytes.set( stats.sizeOfPackedObjects );
+		}
+	}
+
+	@Autowired
+	public GitMaintenance( final RebazerConfig rebazerConfig, final RepositoryLocks repositoryLocks,
+			final RepositoryWorkerPool repositoryWorkerPool, final MeterRegistry meterRegistry ) {
+		enabled = rebazerConfig.isBackgroundGitMaintenance();
+		looseObjectsThreshold = rebazerConfig.getGcLooseObjectsThreshold();
+		packFilesThreshold = rebazerConfig.getGcPackFilesThreshold();
+		this.repositoryLocks = repositoryLocks;
+		this.repositoryWorkerPool = repositoryWorkerPool;
+		this.meterRegistry = meterRegistry;
+		final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "rebazer-maintenance-" );
+		threadFactory.setThreadPriority( Thread.MIN_PRIORITY );
+		threadFactory.setDaemon( true );
+		executor = Executors.newSingleThreadExecutor( threadFactory );
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Observe the repository, the gauges are exported even without background maintenance. With it, the auto gc JGit
+	 * starts after fetches, merges and rebases is disabled.
+	 */
+	public void register( final RepositoryConfig repoConfig, final Git localRepo ) {
+		if ( enabled ) {
+			final StoredConfig config = localRepo.getRepository().getConfig();
+			config.setInt( ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTO, 0 );
+			config.setBoolean( ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTODETACH, false );
+		}
+		localRepos.put( repoConfig, localRepo );
+		statistics.computeIfAbsent( repoConfig, key -> {
+			final Statistics stats = new Statistics();
+			final Tags tags = RepositoryTags.of( key );
+			Gauge.builder( METRIC_PACK_FILES, stats.packFiles, AtomicLong::get ).tags( tags ).register( meterRegistry );
+			Gauge.builder( METRIC_LOOSE_OBJECTS, stats.looseObjects, AtomicLong::get ).tags( tags )
+					.register( meterRegistry );
+			Gauge.builder( METRIC_OBJECT_BYTES, stats.looseBytes, AtomicLong::get ).tags( tags )
+					.tag( "storage", "loose" ).register( meterRegistry );
+			Gauge.builder( METRIC_OBJECT_BYTES, stats.packedBytes, AtomicLong::get ).tags( tags )
+					.tag( "storage", "packed" ).register( meterRegistry );
+			return stats;
+		} );
+		updateStatistics( repoConfig, localRepo );
+	}
+
+	/**
+	 * Start a maintenance run in the background, unless the previous one is still running.
+	 */
+	@Scheduled( fixedDelayString = "${" + GIT_MAINTENANCE_INTERVAL_KEY + ":" + GIT_MAINTENANCE_INTERVAL_DEFAULT
+			+ "}000" )
+	public void scheduleMaintenance() {
+		if ( running.compareAndSet( false, true ) ) {
+			executor.execute( () -> {
+				try {
+					maintainAll();
+				} finally {
+					running.set( false );
+				}
+			} );
+		} else {
+			log.debug( "Skipping git maintenance, previous run is still active." );
+		}
+	}
+
+	void maintainAll() {
+		localRepos.forEach( ( repoConfig, localRepo ) -> {
+			try {
+				maintain( repoConfig, localRepo );
+			} catch ( final Exception e ) {
+				log.error( "Error during git maintenance of {}!", repoConfig, e );
+			}
+		} );
+	}
+
+	/**
+	 * @return true if the repository was packed
+	 */
+	boolean maintain( final RepositoryConfig repoConfig, final Git localRepo ) {
+		final RepoStatistics stats = updateStatistics( repoConfig, localRepo );
+		if ( !enabled || stats == null || !needsPacking( stats ) ) {
+			return false;
+		}
+		if ( repositoryWorkerPool.isBusy( repoConfig ) ) {
+			log.debug( "Skipping git maintenance of busy {}.", repoConfig );
+			return false;
+		}
+		final boolean packed = repositoryLocks.tryCallLocked( repoConfig, () -> {
+			log.info( "Running git gc on {} ({} loose objects, {} pack files).", repoConfig,
+					stats.numberOfLooseObjects, stats.numberOfPackFiles );
+			try {
+				meterRegistry.timer( GitRepoCleaner.METRIC_GC_DURATION,
+						RepositoryTags.of( repoConfig ).and( "trigger", "maintenance" ) )
+						.recordCallable( () -> localRepo.gc().setPrunePreserved( true ).setExpire( null ).call() );
+			} catch ( final Exception e ) {
+				throw new IllegalStateException( "Git gc of " + repoConfig + " failed", e );
+			}
+			return true;
+		} ).orElse( false );
+		if ( packed ) {
+			updateStatistics( repoConfig, localRepo );
+		} else {
+			log.debug( "Skipping git maintenance of locked {}.", repoConfig );
+		}
+		return packed;
+	}
+
+	boolean needsPacking( final RepoStatistics stats ) {
+		return stats.numberOfLooseObjects > looseObjectsThreshold || stats.numberOfPackFiles > packFilesThreshold;
+	}
+
+	private RepoStatistics updateStatistics( final RepositoryConfig repoConfig, final Git localRepo ) {
+		if ( !(localRepo.getRepository() instanceof FileRepository) ) {
+			return null;
+		}
+		try {
+			final RepoStatistics stats = new GC( (FileRepository) localRepo.getRepository() ).getStatistics();
+			statistics.get( repoConfig ).update( stats );
+			return stats;
+		} catch ( final IOException e ) {
+			log.warn( "Can't read object statistics of {}.", repoConfig, e );
+			return null;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+}
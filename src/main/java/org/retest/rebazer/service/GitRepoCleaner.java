@@ -1,17 +1,19 @@
 package org.retest.rebazer.service;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.lib.Ref;
 import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -19,20 +21,42 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 public class GitRepoCleaner {
 
+	static final String METRIC_GC_DURATION = "rebazer.git.gc.duration";
+
+	private final boolean backgroundGitMaintenance;
 	private final int gcCountdownResetValue;
 	private final Map<Git, AtomicInteger> gcCountdownCurrents;
+	private final MeterRegistry meterRegistry;
 
 	@Autowired
-	public GitRepoCleaner( final RebazerConfig repoConfig ) {
+	public GitRepoCleaner( final RebazerConfig repoConfig, final MeterRegistry meterRegistry ) {
+		backgroundGitMaintenance = repoConfig.isBackgroundGitMaintenance();
 		gcCountdownResetValue = repoConfig.getGarbageCollectionCountdown();
-		gcCountdownCurrents = new HashMap<>();
+		gcCountdownCurrents = new ConcurrentHashMap<>();
+		this.meterRegistry = meterRegistry;
 	}
 
-	public void cleanUp( final Git localRepo, final String fallbackBranchName ) {
+	/**
+	 * Reset the local repository to the main branch.
+	 */
+	public void cleanUp( final RepositoryConfig repoConfig, final Git localRepo ) {
+		if ( localRepo.getRepository().isBare() ) {
+			// nothing is checked out, so only leftover branches need to be pruned
+			removeAllLocalBranches( localRepo );
+			triggerGcIfNeeded( repoConfig, localRepo );
+			return;
+		}
+		resetWorkingTree( localRepo, repoConfig.getMainBranch() );
+		triggerGcIfNeeded( repoConfig, localRepo );
+	}
+
+	/**
+	 * Like {@link #cleanUp(RepositoryConfig, Git)}, but without gc, for working trees without objects of their own.
+	 */
+	void resetWorkingTree( final Git localRepo, final String fallbackBranchName ) {
 		resetAndRemoveUntrackedFiles( localRepo );
 		checkoutFallbackBranch( localRepo, fallbackBranchName );
 		removeAllLocalBranches( localRepo );
-		triggerGcIfNeeded( localRepo );
 	}
 
 	@SneakyThrows
@@ -49,22 +73,29 @@ public class GitRepoCleaner {
 	@SneakyThrows
 	private static void removeAllLocalBranches( final Git localRepo ) {
 		final List<Ref> allBranches = localRepo.branchList().call();
+		final String currentBranch = localRepo.getRepository().getFullBranch();
 		final String[] localBranches = allBranches.stream() //
 				.map( Ref::getName ) //
 				.filter( name -> name.startsWith( "refs/heads/" ) ) //
+				.filter( name -> !name.equals( currentBranch ) ) //
 				.toArray( String[]::new );
 
 		localRepo.branchDelete().setForce( true ).setBranchNames( localBranches ).call();
 	}
 
 	@SneakyThrows
-	private void triggerGcIfNeeded( final Git localRepo ) {
+	void triggerGcIfNeeded( final RepositoryConfig repoConfig, final Git localRepo ) {
+		if ( backgroundGitMaintenance ) {
+			// left to GitMaintenance
+			return;
+		}
 		final AtomicInteger gcCountdownCurrent =
 				gcCountdownCurrents.computeIfAbsent( localRepo, key -> new AtomicInteger( gcCountdownResetValue ) );
 		if ( gcCountdownCurrent.decrementAndGet() <= 0 ) {
 			gcCountdownCurrent.set( gcCountdownResetValue );
 			log.info( "Running git gc on {}, next gc after {} cleanups.", localRepo, gcCountdownResetValue );
-			localRepo.gc().setPrunePreserved( true ).setExpire( null ).call();
+			meterRegistry.timer( METRIC_GC_DURATION, RepositoryTags.of( repoConfig ).and( "trigger", "countdown" ) )
+					.recordCallable( () -> localRepo.gc().setPrunePreserved( true ).setExpire( null ).call() );
 		}
 	}
 
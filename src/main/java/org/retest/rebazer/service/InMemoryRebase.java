@@ -0,0 +1,104 @@
+package org.retest.rebazer.service;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.api.RebaseResult.Status;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import lombok.Value;
+
+/**
+ * Rebase without a working tree: the commits of the source are cherry-picked onto the upstream with an in-core merger
+ * and written directly to the object database. Like the {@link org.eclipse.jgit.api.RebaseCommand}, merge commits
+ * are dropped and commits which become empty are skipped.
+ */
+class InMemoryRebase {
+
+	@Value
+	static class Result {
+		Status status;
+		/**
+		 * New tip of the source, <code>null</code> if {@link Status#STOPPED}
+		 */
+		ObjectId head;
+	}
+
+	private final Repository repository;
+
+	InMemoryRebase( final Repository repository ) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @return {@link Status#UP_TO_DATE}, {@link Status#FAST_FORWARD}, {@link Status#OK} or {@link Status#STOPPED} on a
+	 *         conflict, in which case nothing was written to any ref
+	 */
+	Result rebase( final String source, final String upstream ) throws IOException {
+		return rebase( source, upstream, upstream );
+	}
+
+	/**
+	 * Like <code>git rebase --onto onto upstream source</code>: the commits of the source which aren't in the upstream
+	 * are picked onto <code>onto</code>. Commits which are already in <code>onto</code> become empty and are skipped.
+	 */
+	Result rebase( final String source, final String upstream, final String onto ) throws IOException {
+		try ( final ObjectInserter inserter = repository.newObjectInserter();
+				final ObjectReader reader = inserter.newReader();
+				// reads the picked commits before they are flushed
+				final RevWalk walk = new RevWalk( reader ) ) {
+			final RevCommit sourceTip = walk.parseCommit( repository.resolve( source ) );
+			final RevCommit upstreamTip = walk.parseCommit( repository.resolve( upstream ) );
+			final RevCommit ontoTip = walk.parseCommit( repository.resolve( onto ) );
+			if ( walk.isMergedInto( ontoTip, sourceTip ) && walk.isMergedInto( upstreamTip, ontoTip ) ) {
+				return new Result( Status.UP_TO_DATE, sourceTip );
+			}
+			if ( walk.isMergedInto( sourceTip, upstreamTip ) ) {
+				return new Result( Status.FAST_FORWARD, ontoTip );
+			}
+
+			walk.reset();
+			walk.sort( RevSort.TOPO );
+			walk.sort( RevSort.REVERSE, true );
+			walk.markStart( sourceTip );
+			walk.markUninteresting( upstreamTip );
+
+			final PersonIdent committer = new PersonIdent( repository );
+			RevCommit head = ontoTip;
+			for ( RevCommit commit = walk.next(); commit != null; commit = walk.next() ) {
+				if ( commit.getParentCount() != 1 ) {
+					continue;
+				}
+				final ResolveMerger merger = (ResolveMerger) MergeStrategy.RECURSIVE.newMerger( inserter,
+						repository.getConfig() );
+				merger.setBase( commit.getParent( 0 ) );
+				if ( !merger.merge( head, commit ) ) {
+					return new Result( Status.STOPPED, null );
+				}
+				if ( merger.getResultTreeId().equals( head.getTree() ) ) {
+					continue;
+				}
+				final CommitBuilder picked = new CommitBuilder();
+				picked.setTreeId( merger.getResultTreeId() );
+				picked.setParentId( head );
+				picked.setAuthor( commit.getAuthorIdent() );
+				picked.setCommitter( committer );
+				picked.setMessage( commit.getFullMessage() );
+				picked.setEncoding( commit.getEncoding() );
+				head = walk.parseCommit( inserter.insert( picked ) );
+			}
+			inserter.flush();
+			return new Result( Status.OK, head );
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.retest.rebazer.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.retest.rebazer.domain.PullRequestTargets;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.stereotype.Service;
+
+/**
+ * Collects pull requests affected by webhook events per repository. Events for a repository, which arrive before the
+ * pending ones are taken, are coalesced into one unit of work.
+ */
+@Service
+public class PullRequestEventQueue {
+
+	private final ConcurrentMap<RepositoryConfig, PullRequestTargets> pending = new ConcurrentHashMap<>();
+
+	public void enqueue( final RepositoryConfig repoConfig, final PullRequestTargets targets ) {
+		if ( !targets.isEmpty() ) {
+			pending.merge( repoConfig, targets, PullRequestTargets::merge );
+		}
+	}
+
+	public Set<RepositoryConfig> getPendingRepos() {
+		return pending.keySet();
+	}
+
+	/**
+	 * @return all pending targets of the given repository or null if there are none
+	 */
+	public PullRequestTargets take( final RepositoryConfig repoConfig ) {
+		return pending.remove( repoConfig );
+	}
+
+}
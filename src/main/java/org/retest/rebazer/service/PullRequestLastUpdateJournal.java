@@ -0,0 +1,181 @@
+package org.retest.rebazer.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of the changes to the {@link PullRequestLastUpdateStore}, one line per change. Appends reach the
+ * file immediately (and so survive a crash of the process), but are synced to the disk only in batches by
+ * {@link #sync()}. On startup the log is replayed and compacted, an incomplete last line of a crash while appending is
+ * ignored.
+ */
+@Slf4j
+class PullRequestLastUpdateJournal implements Closeable {
+
+	static final String FILE_NAME = "last-updates.log";
+
+	private static final String HANDLED = "H";
+	private static final String RESET_PULL_REQUEST = "P";
+	private static final String RESET_REPO = "R";
+	private static final int MIN_RECORDS_TO_COMPACT = 1000;
+
+	private final Path file;
+	private FileChannel channel;
+	private boolean dirty;
+	private int records;
+
+	PullRequestLastUpdateJournal( final Path directory ) {
+		file = directory.resolve( FILE_NAME );
+		try {
+			Files.createDirectories( directory );
+			channel = openForAppend();
+		} catch ( final IOException e ) {
+			throw new UncheckedIOException( "Can't open " + file, e );
+		}
+	}
+
+	/**
+	 * @return state of all pull requests by repository key, as of the last complete line
+	 */
+	synchronized Map<String, Map<Integer, Date>> load() {
+		final Map<String, Map<Integer, Date>> state = new ConcurrentHashMap<>();
+		records = 0;
+		try ( final BufferedReader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				if ( replay( state, line ) ) {
+					records++;
+				} else {
+					log.warn( "Ignoring incomplete line {} of {}.", records + 1, file );
+				}
+			}
+		} catch ( final IOException e ) {
+			throw new UncheckedIOException( "Can't read " + file, e );
+		}
+		return state;
+	}
+
+	private static boolean replay( final Map<String, Map<Integer, Date>> state, final String line ) {
+		final String[] fields = line.split( "\t" );
+		try {
+			if ( HANDLED.equals( fields[0] ) && fields.length == 4 ) {
+				state.computeIfAbsent( fields[1], key -> new ConcurrentHashMap<>() )
+						.put( Integer.valueOf( fields[2] ), new Date( Long.parseLong( fields[3] ) ) );
+				return true;
+			}
+			if ( RESET_PULL_REQUEST.equals( fields[0] ) && fields.length == 3 ) {
+				final Map<Integer, Date> repo = state.get( fields[1] );
+				if ( repo != null ) {
+					repo.remove( Integer.valueOf( fields[2] ) );
+				}
+				return true;
+			}
+			if ( RESET_REPO.equals( fields[0] ) && fields.length == 2 ) {
+				state.remove( fields[1] );
+				return true;
+			}
+		} catch ( final NumberFormatException e ) {
+			// truncated number in a torn line
+		}
+		return false;
+	}
+
+	synchronized void handled( final String repoKey, final Integer pullRequestId, final Date lastUpdate ) {
+		append( HANDLED + "\t" + repoKey + "\t" + pullRequestId + "\t" + lastUpdate.getTime() + "\n" );
+	}
+
+	synchronized void resetPullRequest( final String repoKey, final Integer pullRequestId ) {
+		append( RESET_PULL_REQUEST + "\t" + repoKey + "\t" + pullRequestId + "\n" );
+	}
+
+	synchronized void resetRepo( final String repoKey ) {
+		append( RESET_REPO + "\t" + repoKey + "\n" );
+	}
+
+	private void append( final String line ) {
+		final ByteBuffer buffer = ByteBuffer.wrap( line.getBytes( StandardCharsets.UTF_8 ) );
+		try {
+			while ( buffer.hasRemaining() ) {
+				channel.write( buffer );
+			}
+		} catch ( final IOException e ) {
+			throw new UncheckedIOException( "Can't write " + file, e );
+		}
+		dirty = true;
+		records++;
+	}
+
+	/**
+	 * Force the appended lines to the disk, if there are any.
+	 */
+	synchronized void sync() throws IOException {
+		if ( dirty ) {
+			channel.force( false );
+			dirty = false;
+		}
+	}
+
+	/**
+	 * @return true if most lines of the log are superseded by later ones
+	 */
+	synchronized boolean needsCompaction( final int liveRecords ) {
+		return records >= MIN_RECORDS_TO_COMPACT && records > 2 * liveRecords;
+	}
+
+	/**
+	 * Replace the log with one line per pull request. The new log is synced before it atomically replaces the old
+	 * one, so a crash leaves either of both.
+	 */
+	synchronized void compact( final Map<String, Map<Integer, Date>> state ) throws IOException {
+		final Path compacted = file.resolveSibling( FILE_NAME + ".tmp" );
+		final StringBuilder lines = new StringBuilder();
+		int compactedRecords = 0;
+		for ( final Map.Entry<String, Map<Integer, Date>> repo : state.entrySet() ) {
+			for ( final Map.Entry<Integer, Date> pullRequest : repo.getValue().entrySet() ) {
+				lines.append( HANDLED ).append( '\t' ).append( repo.getKey() ).append( '\t' )
+						.append( pullRequest.getKey() ).append( '\t' ).append( pullRequest.getValue().getTime() )
+						.append( '\n' );
+				compactedRecords++;
+			}
+		}
+		try ( final FileChannel out = FileChannel.open( compacted, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+			final ByteBuffer buffer = ByteBuffer.wrap( lines.toString().getBytes( StandardCharsets.UTF_8 ) );
+			while ( buffer.hasRemaining() ) {
+				out.write( buffer );
+			}
+			out.force( false );
+		}
+		channel.close();
+		Files.move( compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		channel = openForAppend();
+		records = compactedRecords;
+		dirty = false;
+	}
+
+	private FileChannel openForAppend() throws IOException {
+		return FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND );
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		sync();
+		channel.close();
+	}
+
+}
@@ -1,42 +1,261 @@
 package org.retest.rebazer.service;
 
+import static org.retest.rebazer.config.RebazerConfig.LAST_UPDATE_SYNC_INTERVAL_DEFAULT;
+import static org.retest.rebazer.config.RebazerConfig.LAST_UPDATE_SYNC_INTERVAL_KEY;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
 
+import org.retest.rebazer.config.RebazerConfig;
 import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
 import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Remembers the last update of handled pull requests. Kept in memory by default, with
+ * <code>rebazer.persistChangeDetection</code> the changes are journaled to the workspace and restored on startup.
+ * After a merge only the pull requests into the same destination are reset, the ones only waiting for approval keep
+ * their known results and just have their rebase check redone. The last known state of a pull request outlives resets,
+ * it is used by the {@link PullRequestScheduler}.
+ */
+@Slf4j
 @Service
 public class PullRequestLastUpdateStore {
 
-	private final Map<RepositoryConfig, Map<Integer, Date>> pullRequestUpdateStates = new HashMap<>();
+	private final Map<RepositoryConfig, Map<Integer, Date>> pullRequestUpdateStates = new ConcurrentHashMap<>();
 	protected static final Date FALLBACK_REPOSITORY_TIME = parseStringToDate( "2019-01-01T00:00:00Z" );
 
+	private final PullRequestLastUpdateJournal journal;
+	private final Map<String, Map<Integer, Date>> restoredStates;
+
+	/**
+	 * What is known about the pull requests besides their last update, kept in memory only
+	 */
+	private final Map<RepositoryConfig, Map<Integer, Known>> knownStates = new ConcurrentHashMap<>();
+	/**
+	 * Last update of pull requests waiting for approval, whose destination moved since they were handled
+	 */
+	private final Map<RepositoryConfig, Map<Integer, Date>> rebaseCheckPending = new ConcurrentHashMap<>();
+
+	@Value
+	private static class Known {
+		String destination;
+		PullRequestState state;
+	}
+
+	public PullRequestLastUpdateStore() {
+		journal = null;
+		restoredStates = Collections.emptyMap();
+	}
+
+	@Autowired
+	public PullRequestLastUpdateStore( final RebazerConfig rebazerConfig ) {
+		if ( rebazerConfig.isPersistChangeDetection() ) {
+			journal = new PullRequestLastUpdateJournal( Paths.get( rebazerConfig.getWorkspace() ) );
+			restoredStates = journal.load();
+			try {
+				journal.compact( restoredStates );
+			} catch ( final IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+			log.info( "Restored last updates of {} repositories.", restoredStates.size() );
+		} else {
+			journal = null;
+			restoredStates = Collections.emptyMap();
+		}
+	}
+
 	public static Date parseStringToDate( final String date ) {
 		return Date.from( OffsetDateTime.parse( date ).toInstant() );
 	}
 
 	public void setHandled( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		setHandled( repoConfig, pullRequest, PullRequestState.UNKNOWN );
+	}
+
+	/**
+	 * @param state
+	 *            state the pull request was left in, only {@link PullRequestState#WAITING_FOR_APPROVAL} keeps its
+	 *            results if the destination moves
+	 */
+	public void setHandled( final RepositoryConfig repoConfig, final PullRequest pullRequest,
+			final PullRequestState state ) {
+		setLastKnownState( repoConfig, pullRequest, state );
 		getMapFor( repoConfig ).put( pullRequest.getId(), pullRequest.getLastUpdate() );
+		if ( journal != null ) {
+			journal.handled( repoKey( repoConfig ), pullRequest.getId(), pullRequest.getLastUpdate() );
+		}
+	}
+
+	/**
+	 * Remember the state of a pull request without marking it as handled, e.g. before merging it.
+	 */
+	public void setLastKnownState( final RepositoryConfig repoConfig, final PullRequest pullRequest,
+			final PullRequestState state ) {
+		getPendingFor( repoConfig ).remove( pullRequest.getId() );
+		getKnownFor( repoConfig ).put( pullRequest.getId(), new Known( pullRequest.getDestination(), state ) );
+	}
+
+	/**
+	 * @return last known state, even if the pull request changed or was reset meanwhile
+	 */
+	public PullRequestState getLastKnownState( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( pullRequest.getId() == null ) {
+			return PullRequestState.UNKNOWN;
+		}
+		if ( getPendingFor( repoConfig ).containsKey( pullRequest.getId() ) ) {
+			return PullRequestState.REBASE_CANDIDATE;
+		}
+		final Known known = getKnownFor( repoConfig ).get( pullRequest.getId() );
+		return known != null ? known.getState() : PullRequestState.UNKNOWN;
 	}
 
 	public Date getLastDate( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( pullRequest.getId() == null ) {
+			return FALLBACK_REPOSITORY_TIME;
+		}
 		return getMapFor( repoConfig ).getOrDefault( pullRequest.getId(), FALLBACK_REPOSITORY_TIME );
 	}
 
 	public void resetAllInThisRepo( final RepositoryConfig repoConfig ) {
 		pullRequestUpdateStates.remove( repoConfig );
+		knownStates.remove( repoConfig );
+		rebaseCheckPending.remove( repoConfig );
+		if ( journal != null ) {
+			restoredStates.remove( repoKey( repoConfig ) );
+			journal.resetRepo( repoKey( repoConfig ) );
+		}
+	}
+
+	/**
+	 * Forget the pull requests of the repository which aren't open anymore, e.g. merged or declined ones, so the
+	 * states don't grow with every pull request ever handled.
+	 *
+	 * @param openPullRequests
+	 *            all open pull requests of the repository
+	 */
+	public void retainOpen( final RepositoryConfig repoConfig, final Collection<PullRequest> openPullRequests ) {
+		final Set<Integer> openIds = openPullRequests.stream() //
+				.map( PullRequest::getId ) //
+				.filter( Objects::nonNull ) //
+				.collect( Collectors.toSet() );
+		getKnownFor( repoConfig ).keySet().retainAll( openIds );
+		getPendingFor( repoConfig ).keySet().retainAll( openIds );
+		for ( final Integer pullRequestId : new ArrayList<>( getMapFor( repoConfig ).keySet() ) ) {
+			if ( !openIds.contains( pullRequestId ) ) {
+				reset( repoConfig, pullRequestId );
+			}
+		}
+	}
+
+	public void resetPullRequest( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		getPendingFor( repoConfig ).remove( pullRequest.getId() );
+		reset( repoConfig, pullRequest.getId() );
+	}
+
+	/**
+	 * Reset the pull requests into the given destination after it moved, e.g. by a merge. Pull requests into other
+	 * destinations stay handled. Pull requests waiting for approval keep their green build and missing approval, only
+	 * their rebase check is pending, see {@link #isRebaseCheckPending(RepositoryConfig, PullRequest)}. Pull requests
+	 * with an unknown destination (restored from the journal) are reset as well.
+	 */
+	public void resetDestination( final RepositoryConfig repoConfig, final String destination ) {
+		final Map<Integer, Date> lastUpdates = getMapFor( repoConfig );
+		final Map<Integer, Known> known = getKnownFor( repoConfig );
+		for ( final Integer pullRequestId : new ArrayList<>( lastUpdates.keySet() ) ) {
+			final Known state = known.get( pullRequestId );
+			if ( state != null && !Objects.equals( state.getDestination(), destination ) ) {
+				continue;
+			}
+			final Date lastUpdate = lastUpdates.get( pullRequestId );
+			if ( state != null && state.getState() == PullRequestState.WAITING_FOR_APPROVAL && lastUpdate != null ) {
+				getPendingFor( repoConfig ).put( pullRequestId, lastUpdate );
+			}
+			// pending pull requests are reset in the journal as well, they are fully checked after a restart
+			reset( repoConfig, pullRequestId );
+		}
 	}
 
 	public boolean isHandled( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
 		return pullRequest.getLastUpdate().compareTo( getLastDate( repoConfig, pullRequest ) ) == 0;
 	}
 
+	/**
+	 * @return true if the pull request is unchanged since it was handled waiting for approval, but its destination
+	 *         moved meanwhile: its build is still green and the approval still missing, only a rebase may be needed
+	 */
+	public boolean isRebaseCheckPending( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( pullRequest.getId() == null ) {
+			return false;
+		}
+		final Date lastUpdate = getPendingFor( repoConfig ).get( pullRequest.getId() );
+		return lastUpdate != null && lastUpdate.compareTo( pullRequest.getLastUpdate() ) == 0;
+	}
+
+	private void reset( final RepositoryConfig repoConfig, final Integer pullRequestId ) {
+		getMapFor( repoConfig ).remove( pullRequestId );
+		if ( journal != null ) {
+			journal.resetPullRequest( repoKey( repoConfig ), pullRequestId );
+		}
+	}
+
 	private Map<Integer, Date> getMapFor( final RepositoryConfig repoConfig ) {
-		return pullRequestUpdateStates.computeIfAbsent( repoConfig, key -> new HashMap<>() );
+		return pullRequestUpdateStates.computeIfAbsent( repoConfig, key -> journal == null ? new ConcurrentHashMap<>()
+				: restoredStates.computeIfAbsent( repoKey( key ), restored -> new ConcurrentHashMap<>() ) );
+	}
+
+	private Map<Integer, Known> getKnownFor( final RepositoryConfig repoConfig ) {
+		return knownStates.computeIfAbsent( repoConfig, key -> new ConcurrentHashMap<>() );
+	}
+
+	private Map<Integer, Date> getPendingFor( final RepositoryConfig repoConfig ) {
+		return rebaseCheckPending.computeIfAbsent( repoConfig, key -> new ConcurrentHashMap<>() );
+	}
+
+	private static String repoKey( final RepositoryConfig repoConfig ) {
+		return String.join( "/", repoConfig.getQualifiers() );
+	}
+
+	/**
+	 * Syncs the journal in batches instead of on every change, compacts it if it mostly contains outdated lines.
+	 */
+	@Scheduled( fixedDelayString = "${" + LAST_UPDATE_SYNC_INTERVAL_KEY + ":" + LAST_UPDATE_SYNC_INTERVAL_DEFAULT
+			+ "}000" )
+	public void sync() throws IOException {
+		if ( journal == null ) {
+			return;
+		}
+		journal.sync();
+		final int liveRecords = restoredStates.values().stream().mapToInt( Map::size ).sum();
+		if ( journal.needsCompaction( liveRecords ) ) {
+			journal.compact( restoredStates );
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if ( journal != null ) {
+			journal.close();
+		}
 	}
 
 }
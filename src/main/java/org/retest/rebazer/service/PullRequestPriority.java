@@ -0,0 +1,24 @@
+package org.retest.rebazer.service;
+
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
+
+/**
+ * Decides in which order the {@link PullRequestScheduler} handles pull requests and repositories. Defaults to
+ * {@link #CLOSEST_TO_MERGE}, define a bean of this type to replace it.
+ */
+@FunctionalInterface
+public interface PullRequestPriority {
+
+	/**
+	 * Merge-ready pull requests first, then the ones waiting for approval or a rebase, then the ones waiting for a
+	 * build and finally the unknown ones.
+	 */
+	PullRequestPriority CLOSEST_TO_MERGE = ( pullRequest, lastKnownState ) -> lastKnownState.ordinal();
+
+	/**
+	 * @return priority of the pull request, lower values are handled first
+	 */
+	int of( PullRequest pullRequest, PullRequestState lastKnownState );
+
+}
@@ -0,0 +1,88 @@
+package org.retest.rebazer.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Orders the work by the {@link PullRequestPriority} of the last known state of the pull requests, so e.g. a
+ * merge-ready pull request isn't waiting behind dozens of drafts if a cycle takes long or the request budget runs out.
+ * Pull requests of a repository are handled in one cycle (sharing its requests, local clone and merge trains), so
+ * repositories are ordered by their pull request with the highest priority and the pull requests within a cycle by
+ * their own. Pull requests with the same priority are handled most recently updated first, stale ones last.
+ */
+@Service
+public class PullRequestScheduler {
+
+	private final PullRequestLastUpdateStore pullRequestLastUpdateStore;
+	private final PullRequestPriority priority;
+
+	/**
+	 * Open pull requests of the last cycle per repository
+	 */
+	private final Map<RepositoryConfig, List<PullRequest>> pullRequests = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PullRequestScheduler( final PullRequestLastUpdateStore pullRequestLastUpdateStore,
+			final ObjectProvider<PullRequestPriority> priority ) {
+		this( pullRequestLastUpdateStore, priority.getIfAvailable( () -> PullRequestPriority.CLOSEST_TO_MERGE ) );
+	}
+
+	public PullRequestScheduler( final PullRequestLastUpdateStore pullRequestLastUpdateStore,
+			final PullRequestPriority priority ) {
+		this.pullRequestLastUpdateStore = pullRequestLastUpdateStore;
+		this.priority = priority;
+	}
+
+	/**
+	 * @param openPullRequests
+	 *            all open pull requests of the repository, remembered to order the repositories
+	 * @return the pull requests in the order to handle them
+	 */
+	public List<PullRequest> order( final RepositoryConfig repoConfig,
+			final Collection<PullRequest> openPullRequests ) {
+		pullRequests.put( repoConfig, new ArrayList<>( openPullRequests ) );
+		final Comparator<PullRequest> byPriority =
+				Comparator.comparingInt( pullRequest -> priorityOf( repoConfig, pullRequest ) );
+		final Comparator<PullRequest> byRecentUpdate =
+				Comparator.comparing( PullRequest::getLastUpdate, Comparator.nullsLast( Comparator.reverseOrder() ) );
+		return openPullRequests.stream() //
+				.sorted( byPriority.thenComparing( byRecentUpdate ) ) //
+				.collect( Collectors.toList() );
+	}
+
+	/**
+	 * @return the repositories in the order to handle them, repositories without known pull requests keep their order
+	 *         behind the others
+	 */
+	public List<RepositoryConfig> orderRepositories( final Collection<RepositoryConfig> repoConfigs ) {
+		final Map<RepositoryConfig, Integer> priorities = repoConfigs.stream() //
+				.collect( Collectors.toMap( repoConfig -> repoConfig, this::priorityOf, ( first, second ) -> first ) );
+		return repoConfigs.stream() //
+				.sorted( Comparator.comparingInt( priorities::get ) ) //
+				.collect( Collectors.toList() );
+	}
+
+	private int priorityOf( final RepositoryConfig repoConfig ) {
+		return pullRequests.getOrDefault( repoConfig, Collections.emptyList() ).stream() //
+				.mapToInt( pullRequest -> priorityOf( repoConfig, pullRequest ) ) //
+				.min() //
+				.orElse( Integer.MAX_VALUE );
+	}
+
+	private int priorityOf( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		return priority.of( pullRequest, pullRequestLastUpdateStore.getLastKnownState( repoConfig, pullRequest ) );
+	}
+
+}
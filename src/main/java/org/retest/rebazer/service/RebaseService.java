@@ -1,22 +1,64 @@
 package org.retest.rebazer.service;
 
+import static org.retest.rebazer.config.RebazerConfig.WORKTREE_IDLE_TIMEOUT_DEFAULT;
+import static org.retest.rebazer.config.RebazerConfig.WORKTREE_IDLE_TIMEOUT_KEY;
+
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.RebaseCommand.Operation;
 import org.eclipse.jgit.api.RebaseResult;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.util.FS;
 import org.retest.rebazer.config.RebazerConfig;
 import org.retest.rebazer.domain.PullRequest;
 import org.retest.rebazer.domain.RepositoryConfig;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -24,37 +66,134 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 public class RebaseService {
 
+	private static final String METRIC_CLONE_DURATION = "rebazer.git.clone.duration";
+	private static final String METRIC_FETCH_DURATION = "rebazer.git.fetch.duration";
+	private static final String METRIC_FETCH_BYTES = "rebazer.git.fetch.bytes";
+	private static final String METRIC_REBASE_DURATION = "rebazer.rebase.duration";
+	private static final String METRIC_REBASE_PHASE_DURATION = "rebazer.rebase.phase.duration";
+	private static final String METRIC_WORKSPACE_BYTES = "rebazer.workspace.bytes";
+
 	private final File workspace;
 	private final GitRepoCleaner cleaner;
+	private final GitMaintenance maintenance;
+	private final RepositoryLocks repositoryLocks;
+	private final boolean localRebaseCheck;
+	private final boolean fetchOncePerCycle;
+	private final boolean inMemoryRebase;
+	private final boolean bareWorkspace;
+	private final boolean singleBranchClone;
+	private final Duration worktreeIdleTimeout;
+	private final MeterRegistry meterRegistry;
+
+	private final Map<RepositoryConfig, CredentialsProvider> credentials = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, Git> localGitRepos = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, Set<String>> fetchedBranches = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, AtomicLong> workspaceBytes = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, WorktreePool> worktreePools = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, ExecutorService> rebaseExecutors = new ConcurrentHashMap<>();
+	/**
+	 * Concurrent rebases per repository, their commits are unreachable in the shared object database until pushed
+	 */
+	private final Map<RepositoryConfig, AtomicInteger> rebasesInFlight = new ConcurrentHashMap<>();
+	private final Map<RepositoryConfig, CompletableFuture<Void>> setups = new ConcurrentHashMap<>();
+	private final ExecutorService setupExecutor;
 
-	private final Map<RepositoryConfig, CredentialsProvider> credentials = new HashMap<>();
-	private final Map<RepositoryConfig, Git> localGitRepos = new HashMap<>();
+	public enum SetupState {
+		PENDING,
+		READY,
+		FAILED
+	}
 
 	@Autowired
-	public RebaseService( final RebazerConfig rebazerConfig, final GitRepoCleaner cleaner ) {
+	public RebaseService( final RebazerConfig rebazerConfig, final GitRepoCleaner cleaner,
+			final RepositoryLocks repositoryLocks, final GitMaintenance maintenance,
+			final MeterRegistry meterRegistry ) {
 		this.cleaner = cleaner;
+		this.maintenance = maintenance;
+		this.repositoryLocks = repositoryLocks;
+		this.meterRegistry = meterRegistry;
+		localRebaseCheck = rebazerConfig.isLocalRebaseCheck();
+		singleBranchClone = rebazerConfig.isSingleBranchClone();
+		// the local check reads the branches of all pull requests, a single branch clone has only the main branch
+		fetchOncePerCycle = rebazerConfig.isFetchOncePerCycle() || localRebaseCheck || singleBranchClone;
+		bareWorkspace = rebazerConfig.isBareWorkspace();
+		// without a working tree there is nothing to check out
+		inMemoryRebase = rebazerConfig.isInMemoryRebase() || bareWorkspace;
+		worktreeIdleTimeout = Duration.ofSeconds( rebazerConfig.getWorktreeIdleTimeout() );
 		workspace = new File( rebazerConfig.getWorkspace() ).getAbsoluteFile();
 
-		rebazerConfig.getRepos().forEach( repoConfig -> {
-			try {
-				setupRepo( repoConfig );
-			} catch ( final Exception e ) {
-				log.error( "Error while handle {}!", repoConfig, e );
+		final int cloneThreads = Math.max( 1, rebazerConfig.getCloneThreads() );
+		final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "rebazer-clone-" );
+		threadFactory.setDaemon( true );
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( cloneThreads, cloneThreads, 1, TimeUnit.MINUTES,
+				new LinkedBlockingQueue<>(), threadFactory );
+		executor.allowCoreThreadTimeOut( true );
+		setupExecutor = executor;
+		// in parallel, as cloning is mostly waiting for the network, and without delaying the start of polling
+		rebazerConfig.getRepos().forEach( this::setup );
+	}
+
+	/**
+	 * @return the running or finished setup of the local repository, a failed one is started again
+	 */
+	private CompletableFuture<Void> setup( final RepositoryConfig repoConfig ) {
+		return setups.compute( repoConfig, ( key, setup ) -> {
+			if ( setup != null && !setup.isCompletedExceptionally() ) {
+				return setup;
 			}
+			final CompletableFuture<Void> newSetup = CompletableFuture
+					.runAsync( () -> repositoryLocks.runLocked( key, () -> setupRepo( key ) ), setupExecutor );
+			newSetup.exceptionally( e -> {
+				log.error( "Error while handle {}!", key, e );
+				return null;
+			} );
+			return newSetup;
 		} );
 	}
 
+	/**
+	 * Wait until the local repository is set up, setups of other repositories aren't awaited.
+	 *
+	 * @return false if the setup failed
+	 */
+	boolean awaitSetup( final RepositoryConfig repoConfig ) {
+		try {
+			setup( repoConfig ).join();
+			return true;
+		} catch ( final CompletionException | CancellationException e ) {
+			return false;
+		}
+	}
+
+	public SetupState getSetupState( final RepositoryConfig repoConfig ) {
+		final CompletableFuture<Void> setup = setups.get( repoConfig );
+		if ( setup == null || !setup.isDone() ) {
+			return SetupState.PENDING;
+		}
+		return setup.isCompletedExceptionally() ? SetupState.FAILED : SetupState.READY;
+	}
+
+	private boolean isReady( final RepositoryConfig repoConfig ) {
+		return getSetupState( repoConfig ) == SetupState.READY;
+	}
+
 	private void setupRepo( final RepositoryConfig repoConfig ) {
 		final CredentialsProvider credential = repoCredential( repoConfig );
 		final File repoFolder = repoFolder( repoConfig );
-		final Git localRepo = setupLocalGitRepo( credential, repoFolder, repoConfig.getGitRepoUrl() );
+		final Git localRepo = setupLocalGitRepo( repoConfig, credential, repoFolder );
 
 		localRepo.getRepository().getConfig().setString( "user", null, "name", "rebazer" );
 		localRepo.getRepository().getConfig().setString( "user", null, "email", "rebazer@retest.de" );
 
 		credentials.put( repoConfig, credential );
 		localGitRepos.put( repoConfig, localRepo );
-		cleaner.cleanUp( localRepo, repoConfig.getMainBranch() );
+		cleaner.cleanUp( repoConfig, localRepo );
+		maintenance.register( repoConfig, localRepo );
+
+		final long bytes = FileUtils.sizeOfDirectory( repoFolder );
+		log.info( "Local repository of {} uses {} bytes.", repoConfig, bytes );
+		meterRegistry.gauge( METRIC_WORKSPACE_BYTES, RepositoryTags.of( repoConfig ),
+				workspaceBytes.computeIfAbsent( repoConfig, key -> new AtomicLong() ) ).set( bytes );
 	}
 
 	private static CredentialsProvider repoCredential( final RepositoryConfig repoConfig ) {
@@ -65,16 +204,30 @@ public class RebaseService {
 		return FileUtils.getFile( workspace, repoConfig.getQualifiers() );
 	}
 
-	private static Git setupLocalGitRepo( final CredentialsProvider credential, final File repoFolder,
-			final String repoUrl ) {
+	private Git setupLocalGitRepo( final RepositoryConfig repoConfig, final CredentialsProvider credential,
+			final File repoFolder ) {
+		final String repoUrl = repoConfig.getGitRepoUrl();
 		if ( repoFolder.exists() ) {
 			final Git localRepo = tryToOpenExistingRepoAndCheckRemote( repoFolder, repoUrl );
-			if ( localRepo != null ) {
+			if ( localRepo != null && localRepo.getRepository().isBare() == bareWorkspace ) {
 				return localRepo;
 			}
+			if ( localRepo != null ) {
+				localRepo.close();
+				if ( bareWorkspace ) {
+					return convertToBare( repoFolder );
+				}
+			}
 			deleteDirectory( repoFolder );
 		}
-		return cloneNewRepo( repoFolder, repoUrl, credential );
+		final long start = System.nanoTime();
+		final Git localRepo = bareWorkspace ? cloneNewBareRepo( repoConfig, repoFolder, credential )
+				: cloneNewRepo( repoConfig, repoFolder, credential );
+		final long duration = System.nanoTime() - start;
+		meterRegistry.timer( METRIC_CLONE_DURATION, RepositoryTags.of( repoConfig ) ).record( duration,
+				TimeUnit.NANOSECONDS );
+		log.info( "Cloned {} in {} ms.", repoConfig, TimeUnit.NANOSECONDS.toMillis( duration ) );
+		return localRepo;
 	}
 
 	@SneakyThrows
@@ -110,15 +263,331 @@ public class RebaseService {
 	}
 
 	@SneakyThrows
-	private static Git cloneNewRepo( final File repoFolder, final String repoUrl,
+	private Git cloneNewRepo( final RepositoryConfig repoConfig, final File repoFolder,
 			final CredentialsProvider credentialsProvider ) {
-		log.info( "Cloning repository {} to folder {} ...", repoUrl, repoFolder );
-		return Git.cloneRepository().setURI( repoUrl ).setCredentialsProvider( credentialsProvider )
-				.setDirectory( repoFolder ).call();
+		log.info( "Cloning repository {} to folder {} ...", repoConfig.getGitRepoUrl(), repoFolder );
+		final CloneCommand clone = Git.cloneRepository().setURI( repoConfig.getGitRepoUrl() )
+				.setCredentialsProvider( credentialsProvider ).setDirectory( repoFolder );
+		if ( singleBranchClone ) {
+			clone.setBranch( repoConfig.getMainBranch() ).setCloneAllBranches( false ).setBranchesToClone(
+					Collections.singletonList( Constants.R_HEADS + repoConfig.getMainBranch() ) );
+		}
+		return clone.call();
+	}
+
+	/**
+	 * Unlike <code>git clone --bare</code> the branches are fetched to <code>refs/remotes/origin/*</code>, so the
+	 * layout of the refs is the same as in a checkout.
+	 */
+	@SneakyThrows
+	private Git cloneNewBareRepo( final RepositoryConfig repoConfig, final File repoFolder,
+			final CredentialsProvider credentialsProvider ) {
+		log.info( "Cloning bare repository {} to folder {} ...", repoConfig.getGitRepoUrl(), repoFolder );
+		final Git localRepo = Git.init().setBare( true ).setDirectory( repoFolder ).call();
+		localRepo.remoteAdd().setName( "origin" ).setUri( new URIish( repoConfig.getGitRepoUrl() ) ).call();
+		final String mainBranch = repoConfig.getMainBranch();
+		final RefSpec mainRefSpec =
+				new RefSpec( "+" + Constants.R_HEADS + mainBranch + ":" + remoteBranch( mainBranch ) );
+		final List<RefSpec> refSpecs =
+				singleBranchClone ? Collections.singletonList( mainRefSpec ) : Collections.emptyList();
+		localRepo.fetch().setCredentialsProvider( credentialsProvider ).setRefSpecs( refSpecs ).call();
+		return localRepo;
+	}
+
+	/**
+	 * Keep the objects and refs of an existing checkout and drop its working tree.
+	 */
+	@SneakyThrows
+	private static Git convertToBare( final File repoFolder ) {
+		log.info( "Converting {} to a bare repository ...", repoFolder );
+		final File gitDir = new File( repoFolder, Constants.DOT_GIT );
+		final File converted = new File( repoFolder.getParentFile(), repoFolder.getName() + ".bare" );
+		FileUtils.moveDirectory( gitDir, converted );
+		FileUtils.deleteDirectory( repoFolder );
+		FileUtils.moveDirectory( converted, repoFolder );
+		final FileBasedConfig config = new FileBasedConfig( new File( repoFolder, Constants.CONFIG ), FS.DETECTED );
+		config.load();
+		config.setBoolean( ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_BARE, true );
+		config.save();
+		return Git.open( repoFolder );
+	}
+
+	/**
+	 * Fetch the source and destination branches of the given pull requests at once, so the following
+	 * {@link #rebaseNeeded(RepositoryConfig, PullRequest)} and {@link #rebase(RepositoryConfig, PullRequest)} of this
+	 * cycle don't need to fetch again. Does nothing without <code>fetchOncePerCycle</code>. Called once per cycle, a
+	 * failed setup of the local repository is started again in the background.
+	 */
+	public void fetch( final RepositoryConfig repoConfig, final Collection<PullRequest> pullRequests ) {
+		if ( getSetupState( repoConfig ) == SetupState.FAILED ) {
+			log.info( "Setting up the local repository of {} again.", repoConfig );
+			setup( repoConfig );
+		}
+		if ( !fetchOncePerCycle ) {
+			return;
+		}
+		if ( !isReady( repoConfig ) ) {
+			// the branches are fetched by the first rebase after the setup
+			fetchedBranches.remove( repoConfig );
+			return;
+		}
+		final Set<String> branches = new HashSet<>();
+		pullRequests.forEach( pullRequest -> {
+			branches.add( pullRequest.getSource() );
+			branches.add( pullRequest.getDestination() );
+		} );
+		repositoryLocks.runLocked( repoConfig, () -> {
+			fetchedBranches.put( repoConfig, ConcurrentHashMap.newKeySet() );
+			fetchBranchesLocked( repoConfig, branches );
+		} );
+	}
+
+	/**
+	 * Fetch the branch again when it is needed next, e.g. after a merge moved it.
+	 */
+	public void invalidate( final RepositoryConfig repoConfig, final String branch ) {
+		final Set<String> fetched = fetchedBranches.get( repoConfig );
+		if ( fetched != null ) {
+			fetched.remove( branch );
+		}
 	}
 
 	@SneakyThrows
+	private void fetchPullRequestLocked( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( !fetchOncePerCycle ) {
+			fetchLocked( repoConfig, Collections.emptyList() );
+			return;
+		}
+		final Set<String> fetched = fetchedBranches.getOrDefault( repoConfig, Collections.emptySet() );
+		final Set<String> missing = Stream.of( pullRequest.getSource(), pullRequest.getDestination() ) //
+				.filter( branch -> !fetched.contains( branch ) ) //
+				.collect( Collectors.toSet() );
+		fetchBranchesLocked( repoConfig, missing );
+	}
+
+	@SneakyThrows
+	private void fetchBranchesLocked( final RepositoryConfig repoConfig, final Set<String> branches ) {
+		if ( branches.isEmpty() || !localGitRepos.containsKey( repoConfig ) ) {
+			return;
+		}
+		final List<RefSpec> refSpecs = branches.stream() //
+				.map( branch -> new RefSpec( "+" + Constants.R_HEADS + branch + ":" + remoteBranch( branch ) ) ) //
+				.collect( Collectors.toList() );
+		try {
+			fetchLocked( repoConfig, refSpecs );
+		} catch ( final TransportException e ) {
+			// a branch was deleted since the pull requests were listed
+			log.warn( "Fetching {} of {} failed, fetching all branches: {}", branches, repoConfig, e.getMessage() );
+			fetchLocked( repoConfig, Collections.emptyList() );
+		}
+		fetchedBranches.computeIfAbsent( repoConfig, key -> ConcurrentHashMap.newKeySet() ).addAll( branches );
+	}
+
+	/**
+	 * @param refSpecs
+	 *            to fetch, empty to fetch all branches
+	 */
+	private void fetchLocked( final RepositoryConfig repoConfig, final List<RefSpec> refSpecs )
+			throws GitAPIException {
+		final Git localRepo = localGitRepos.get( repoConfig );
+		final File packDirectory = new File( localRepo.getRepository().getDirectory(), "objects/pack" );
+		final long packBytesBefore = packBytes( packDirectory );
+		final long start = System.nanoTime();
+
+		localRepo.fetch().setCredentialsProvider( credentials.get( repoConfig ) ).setRemoveDeletedRefs( true )
+				.setRefSpecs( refSpecs ).call();
+
+		final Tags tags = RepositoryTags.of( repoConfig );
+		meterRegistry.timer( METRIC_FETCH_DURATION, tags ).record( System.nanoTime() - start, TimeUnit.NANOSECONDS );
+		meterRegistry.summary( METRIC_FETCH_BYTES, tags )
+				.record( Math.max( 0, packBytes( packDirectory ) - packBytesBefore ) );
+	}
+
+	/**
+	 * JGit keeps each fetched pack, so the growth of the pack directory is the size of the fetch.
+	 */
+	private static long packBytes( final File packDirectory ) {
+		final File[] packs = packDirectory.listFiles( ( dir, name ) -> name.endsWith( ".pack" ) );
+		return packs == null ? 0 : Arrays.stream( packs ).mapToLong( File::length ).sum();
+	}
+
+	private static String remoteBranch( final String branch ) {
+		return Constants.R_REMOTES + "origin/" + branch;
+	}
+
+	/**
+	 * @return if the source branch isn't based on the tip of the destination branch as of the last
+	 *         fetch of this cycle, empty without <code>localRebaseCheck</code>, if the local repository
+	 *         isn't set up yet or if a branch is unknown locally
+	 */
+	public Optional<Boolean> rebaseNeeded( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( !localRebaseCheck || !isReady( repoConfig ) ) {
+			return Optional.empty();
+		}
+		return repositoryLocks.callLocked( repoConfig, () -> rebaseNeededLocked( repoConfig, pullRequest ) );
+	}
+
+	@SneakyThrows
+	private Optional<Boolean> rebaseNeededLocked( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		final Git localRepo = localGitRepos.get( repoConfig );
+		if ( localRepo == null ) {
+			return Optional.empty();
+		}
+		fetchPullRequestLocked( repoConfig, pullRequest );
+		final Repository repository = localRepo.getRepository();
+		final ObjectId source = repository.resolve( remoteBranch( pullRequest.getSource() ) );
+		final ObjectId destination = repository.resolve( remoteBranch( pullRequest.getDestination() ) );
+		if ( source == null || destination == null ) {
+			log.debug( "Branches of {} aren't fetched, falling back to the API.", pullRequest );
+			return Optional.empty();
+		}
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			return Optional.of( !walk.isMergedInto( walk.parseCommit( destination ), walk.parseCommit( source ) ) );
+		}
+	}
+
+	/**
+	 * @return the commit of the freshly fetched branch, empty if the local repository isn't set up yet or the branch
+	 *         is unknown
+	 */
+	public Optional<String> getHead( final RepositoryConfig repoConfig, final String branch ) {
+		if ( !isReady( repoConfig ) ) {
+			return Optional.empty();
+		}
+		return repositoryLocks.callLocked( repoConfig, () -> getHeadLocked( repoConfig, branch ) );
+	}
+
+	@SneakyThrows
+	private Optional<String> getHeadLocked( final RepositoryConfig repoConfig, final String branch ) {
+		final Git localRepo = localGitRepos.get( repoConfig );
+		if ( localRepo == null ) {
+			return Optional.empty();
+		}
+		fetchBranchesLocked( repoConfig, Collections.singleton( branch ) );
+		return Optional.ofNullable( localRepo.getRepository().resolve( remoteBranch( branch ) ) ) //
+				.map( ObjectId::getName );
+	}
+
+	/**
+	 * Waits for the setup of the local repository, if it isn't ready yet.
+	 */
 	public boolean rebase( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( !awaitSetup( repoConfig ) ) {
+			log.info( "Local repository isn't prepared for {}.", repoConfig );
+			return false;
+		}
+		return repositoryLocks.callLocked( repoConfig,
+				() -> rebaseTimer( repoConfig ).record( () -> rebaseLocked( repoConfig, pullRequest ) ) );
+	}
+
+	/**
+	 * Rebase the commits of the source which aren't in <code>upstream</code> onto <code>onto</code>, like
+	 * <code>git rebase --onto</code>. Used to stack the pull requests of a merge train, always done in memory and with
+	 * freshly fetched branches, as they were just pushed. The <code>upstream</code> is a branch or a commit id, e.g.
+	 * the head of a pull request before it was rebased itself.
+	 */
+	public boolean rebaseOnto( final RepositoryConfig repoConfig, final PullRequest pullRequest, final String upstream,
+			final String onto ) {
+		if ( !awaitSetup( repoConfig ) ) {
+			log.info( "Local repository isn't prepared for {}.", repoConfig );
+			return false;
+		}
+		return repositoryLocks.callLocked( repoConfig, () -> rebaseTimer( repoConfig )
+				.record( () -> rebaseOntoLocked( repoConfig, pullRequest, upstream, onto ) ) );
+	}
+
+	private boolean rebaseOntoLocked( final RepositoryConfig repoConfig, final PullRequest pullRequest,
+			final String upstream, final String onto ) {
+		log.info( "Rebasing {} onto {}.", pullRequest, onto );
+
+		final Git localRepo = localGitRepos.get( repoConfig );
+		if ( localRepo == null ) {
+			log.info( "Local repository isn't prepared for {}.", repoConfig );
+			return false;
+		}
+		try {
+			final Set<String> branches = new HashSet<>( Arrays.asList( pullRequest.getSource(), onto ) );
+			if ( !ObjectId.isId( upstream ) ) {
+				branches.add( upstream );
+			}
+			runPhase( repoConfig, "fetch", () -> fetchBranchesLocked( repoConfig, branches ) );
+			final String upstreamRevision = ObjectId.isId( upstream ) ? upstream : remoteBranch( upstream );
+			final InMemoryRebase.Result result = callPhase( repoConfig, "rebase",
+					() -> new InMemoryRebase( localRepo.getRepository() ).rebase(
+							remoteBranch( pullRequest.getSource() ), upstreamRevision, remoteBranch( onto ) ) );
+			if ( result.getStatus() == RebaseResult.Status.STOPPED ) {
+				log.info( "Merge conflict in {}.", pullRequest );
+				return false;
+			}
+			if ( result.getStatus() != RebaseResult.Status.UP_TO_DATE ) {
+				callPhase( repoConfig, "push", () -> push( localRepo, credentials.get( repoConfig ), result.getHead(),
+						pullRequest.getSource() ) );
+			}
+			return true;
+		} finally {
+			invalidate( repoConfig, pullRequest.getSource() );
+			runPhase( repoConfig, "cleanup", () -> triggerGcIfIdle( repoConfig, localRepo ) );
+		}
+	}
+
+	/**
+	 * Rebase concurrently to other pull requests of the same repository, if it has more than one of
+	 * <code>worktrees</code>. Otherwise the rebase is done right away like {@link #rebase(RepositoryConfig,
+	 * PullRequest)}. Like that, the rebase fails with <code>false</code> if the local repository couldn't be set up.
+	 */
+	public CompletableFuture<Boolean> rebaseAsync( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		if ( repoConfig.getWorktrees() <= 1 ) {
+			try {
+				return CompletableFuture.completedFuture( rebase( repoConfig, pullRequest ) );
+			} catch ( final Exception e ) {
+				return CompletableFuture.failedFuture( e );
+			}
+		}
+		return setup( repoConfig ).handle( ( result, e ) -> e == null ).thenApplyAsync( ready -> {
+			if ( !ready ) {
+				log.info( "Local repository isn't prepared for {}.", repoConfig );
+				return false;
+			}
+			return rebaseTimer( repoConfig ).record( () -> rebaseConcurrently( repoConfig, pullRequest ) );
+		}, rebaseExecutors.computeIfAbsent( repoConfig, RebaseService::newRebaseExecutor ) );
+	}
+
+	private static ExecutorService newRebaseExecutor( final RepositoryConfig repoConfig ) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( repoConfig.getWorktrees(),
+				repoConfig.getWorktrees(), 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+					final Thread thread = new Thread( runnable, "rebazer-rebase-" + threadCount.incrementAndGet() );
+					thread.setDaemon( true );
+					return thread;
+				} );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	private Timer rebaseTimer( final RepositoryConfig repoConfig ) {
+		return meterRegistry.timer( METRIC_REBASE_DURATION,
+				RepositoryTags.of( repoConfig ).and( "engine", inMemoryRebase ? "in-memory" : "working-tree" ) );
+	}
+
+	private Timer phaseTimer( final RepositoryConfig repoConfig, final String phase ) {
+		return meterRegistry.timer( METRIC_REBASE_PHASE_DURATION,
+				RepositoryTags.of( repoConfig ).and( "phase", phase ) );
+	}
+
+	/**
+	 * Record the duration of a phase of a rebase, failed ones included.
+	 */
+	@SneakyThrows
+	private <T> T callPhase( final RepositoryConfig repoConfig, final String phase, final Callable<T> action ) {
+		return phaseTimer( repoConfig, phase ).recordCallable( action );
+	}
+
+	private void runPhase( final RepositoryConfig repoConfig, final String phase, final Runnable action ) {
+		phaseTimer( repoConfig, phase ).record( action );
+	}
+
+	@SneakyThrows
+	private boolean rebaseLocked( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
 		log.info( "Rebasing {}.", pullRequest );
 
 		final Git localRepo = localGitRepos.get( repoConfig );
@@ -127,41 +596,180 @@ public class RebaseService {
 			return false;
 		}
 		final CredentialsProvider credential = credentials.get( repoConfig );
+		if ( inMemoryRebase ) {
+			try {
+				runPhase( repoConfig, "fetch", () -> fetchPullRequestLocked( repoConfig, pullRequest ) );
+				return rebaseInMemory( repoConfig, localRepo, credential, pullRequest );
+			} finally {
+				runPhase( repoConfig, "cleanup", () -> triggerGcIfIdle( repoConfig, localRepo ) );
+			}
+		}
 
 		try {
-			localRepo.fetch().setCredentialsProvider( credential ).setRemoveDeletedRefs( true ).call();
-			localRepo.checkout().setCreateBranch( true ).setName( pullRequest.getSource() )
-					.setStartPoint( "origin/" + pullRequest.getSource() ).call();
-
-			final RebaseResult rebaseResult =
-					localRepo.rebase().setUpstream( "origin/" + pullRequest.getDestination() ).call();
-
-			switch ( rebaseResult.getStatus() ) {
-				case UP_TO_DATE:
-					log.warn( "Why rebasing up to date {}?", pullRequest );
-					return true;
-				case FAST_FORWARD:
-					log.warn( "Why creating {} without changes?", pullRequest );
-					localRepo.push().setCredentialsProvider( credential ).setForce( true ).call();
-					return true;
-
-				case OK:
-					localRepo.push().setCredentialsProvider( credential ).setForce( true ).call();
-					return true;
-
-				case STOPPED:
-					log.info( "Merge conflict in {}.", pullRequest );
-					localRepo.rebase().setOperation( Operation.ABORT ).call();
-					return false;
-
-				default:
-					localRepo.rebase().setOperation( Operation.ABORT ).call();
-					throw new RuntimeException(
-							"For " + pullRequest + " rebase causes an unexpected result: " + rebaseResult.getStatus() );
-			}
+			runPhase( repoConfig, "fetch", () -> fetchPullRequestLocked( repoConfig, pullRequest ) );
+			return rebaseOnWorkingTree( repoConfig, localRepo, credential, pullRequest );
+		} finally {
+			runPhase( repoConfig, "cleanup", () -> cleaner.cleanUp( repoConfig, localRepo ) );
+		}
+	}
+
+	/**
+	 * Only fetching and gc are done under the lock of the repository, the rebase itself is done in memory or in one
+	 * of the pooled working trees. The gc is left to the last of the concurrent rebases.
+	 */
+	@SneakyThrows
+	private boolean rebaseConcurrently( final RepositoryConfig repoConfig, final PullRequest pullRequest ) {
+		log.info( "Rebasing {}.", pullRequest );
+
+		final Git localRepo = localGitRepos.get( repoConfig );
+		if ( localRepo == null ) {
+			log.info( "Local repository isn't prepared for {}.", repoConfig );
+			return false;
+		}
+		final AtomicInteger inFlight = rebasesInFlight.computeIfAbsent( repoConfig, key -> new AtomicInteger() );
+		inFlight.incrementAndGet();
+		try {
+			return rebaseInFlight( repoConfig, localRepo, pullRequest );
+		} finally {
+			repositoryLocks.runLocked( repoConfig, () -> {
+				inFlight.decrementAndGet();
+				if ( inMemoryRebase ) {
+					runPhase( repoConfig, "cleanup", () -> triggerGcIfIdle( repoConfig, localRepo ) );
+				}
+			} );
+		}
+	}
+
+	@SneakyThrows
+	private boolean rebaseInFlight( final RepositoryConfig repoConfig, final Git localRepo,
+			final PullRequest pullRequest ) {
+		final CredentialsProvider credential = credentials.get( repoConfig );
+		repositoryLocks.runLocked( repoConfig,
+				() -> runPhase( repoConfig, "fetch", () -> fetchPullRequestLocked( repoConfig, pullRequest ) ) );
+		if ( inMemoryRebase ) {
+			return rebaseInMemory( repoConfig, localRepo, credential, pullRequest );
+		}
+
+		final WorktreePool pool = worktreePools.computeIfAbsent( repoConfig,
+				key -> new WorktreePool( localRepo.getRepository(), worktreeFolder( key ), key.getGitRepoUrl() ) );
+		final Git worktree = callPhase( repoConfig, "checkout", () -> {
+			final Git borrowed = pool.borrow();
+			pool.update( borrowed, Arrays.asList( pullRequest.getSource(), pullRequest.getDestination(),
+					repoConfig.getMainBranch() ) );
+			return borrowed;
+		} );
+		try {
+			return rebaseOnWorkingTree( repoConfig, worktree, credential, pullRequest );
 		} finally {
-			cleaner.cleanUp( localRepo, repoConfig.getMainBranch() );
+			// the pushed commits are only known to the working tree
+			invalidate( repoConfig, pullRequest.getSource() );
+			runPhase( repoConfig, "cleanup",
+					() -> cleaner.resetWorkingTree( worktree, repoConfig.getMainBranch() ) );
+			pool.release( worktree );
+		}
+	}
+
+	/**
+	 * Called under the lock of the repository. The gc prunes unreachable objects right away, so it is skipped while
+	 * concurrent rebases haven't pushed their commits yet.
+	 */
+	private void triggerGcIfIdle( final RepositoryConfig repoConfig, final Git localRepo ) {
+		final AtomicInteger inFlight = rebasesInFlight.get( repoConfig );
+		if ( inFlight != null && inFlight.get() > 0 ) {
+			log.debug( "Skipping git gc of {}, {} rebases are in flight.", repoConfig, inFlight.get() );
+			return;
+		}
+		cleaner.triggerGcIfNeeded( repoConfig, localRepo );
+	}
+
+	private File worktreeFolder( final RepositoryConfig repoConfig ) {
+		final File repoFolder = repoFolder( repoConfig );
+		return new File( repoFolder.getParentFile(), repoFolder.getName() + ".worktrees" );
+	}
+
+	/**
+	 * Delete the working trees, which weren't used for the given timeout.
+	 */
+	@Scheduled( fixedDelayString = "${" + WORKTREE_IDLE_TIMEOUT_KEY + ":" + WORKTREE_IDLE_TIMEOUT_DEFAULT + "}000" )
+	public void reclaimIdleWorktrees() {
+		worktreePools.forEach( ( repoConfig, pool ) -> {
+			final int reclaimed = pool.reclaim( worktreeIdleTimeout );
+			if ( reclaimed > 0 ) {
+				log.info( "Deleted {} idle working trees of {}.", reclaimed, repoConfig );
+			}
+		} );
+	}
+
+	private boolean rebaseOnWorkingTree( final RepositoryConfig repoConfig, final Git localRepo,
+			final CredentialsProvider credential, final PullRequest pullRequest ) throws GitAPIException {
+		callPhase( repoConfig, "checkout", () -> localRepo.checkout().setCreateBranch( true )
+				.setName( pullRequest.getSource() ).setStartPoint( "origin/" + pullRequest.getSource() ).call() );
+
+		final RebaseResult rebaseResult = callPhase( repoConfig, "rebase",
+				() -> localRepo.rebase().setUpstream( "origin/" + pullRequest.getDestination() ).call() );
+
+		switch ( rebaseResult.getStatus() ) {
+			case UP_TO_DATE:
+				log.warn( "Why rebasing up to date {}?", pullRequest );
+				return true;
+			case FAST_FORWARD:
+				log.warn( "Why creating {} without changes?", pullRequest );
+				callPhase( repoConfig, "push",
+						() -> localRepo.push().setCredentialsProvider( credential ).setForce( true ).call() );
+				return true;
+
+			case OK:
+				callPhase( repoConfig, "push",
+						() -> localRepo.push().setCredentialsProvider( credential ).setForce( true ).call() );
+				return true;
+
+			case STOPPED:
+				log.info( "Merge conflict in {}.", pullRequest );
+				localRepo.rebase().setOperation( Operation.ABORT ).call();
+				return false;
+
+			default:
+				localRepo.rebase().setOperation( Operation.ABORT ).call();
+				throw new RuntimeException(
+						"For " + pullRequest + " rebase causes an unexpected result: " + rebaseResult.getStatus() );
 		}
 	}
 
+	private boolean rebaseInMemory( final RepositoryConfig repoConfig, final Git localRepo,
+			final CredentialsProvider credential, final PullRequest pullRequest ) {
+		final InMemoryRebase.Result result = callPhase( repoConfig, "rebase",
+				() -> new InMemoryRebase( localRepo.getRepository() ).rebase( remoteBranch( pullRequest.getSource() ),
+						remoteBranch( pullRequest.getDestination() ) ) );
+
+		switch ( result.getStatus() ) {
+			case UP_TO_DATE:
+				log.warn( "Why rebasing up to date {}?", pullRequest );
+				return true;
+			case FAST_FORWARD:
+				log.warn( "Why creating {} without changes?", pullRequest );
+				callPhase( repoConfig, "push",
+						() -> push( localRepo, credential, result.getHead(), pullRequest.getSource() ) );
+				return true;
+
+			case OK:
+				callPhase( repoConfig, "push",
+						() -> push( localRepo, credential, result.getHead(), pullRequest.getSource() ) );
+				return true;
+
+			case STOPPED:
+				log.info( "Merge conflict in {}.", pullRequest );
+				return false;
+
+			default:
+				throw new RuntimeException(
+						"For " + pullRequest + " rebase causes an unexpected result: " + result.getStatus() );
+		}
+	}
+
+	private static Iterable<PushResult> push( final Git localRepo, final CredentialsProvider credential,
+			final ObjectId head, final String branch ) throws GitAPIException {
+		return localRepo.push().setCredentialsProvider( credential )
+				.setRefSpecs( new RefSpec( "+" + head.name() + ":" + Constants.R_HEADS + branch ) ).call();
+	}
+
 }
@@ -0,0 +1,48 @@
+package org.retest.rebazer.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.RebaseService.SetupState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Readiness of the local repositories as <code>repositories</code> health: unknown while some are still cloned and up
+ * otherwise. A failed setup is only reported in the details, which hold the state of each repository: the other
+ * repositories are still handled and the failed setup is retried every cycle, so a single unreachable repository
+ * mustn't turn the aggregate health into 503.
+ */
+@Component( "repositories" )
+public class RepositoryHealthIndicator extends AbstractHealthIndicator {
+
+	private final RebazerConfig rebazerConfig;
+	private final RebaseService rebaseService;
+
+	@Autowired
+	public RepositoryHealthIndicator( final RebazerConfig rebazerConfig, final RebaseService rebaseService ) {
+		super( "Reading the setup state of the local repositories failed" );
+		this.rebazerConfig = rebazerConfig;
+		this.rebaseService = rebaseService;
+	}
+
+	@Override
+	protected void doHealthCheck( final Health.Builder builder ) {
+		final Map<String, SetupState> states = new TreeMap<>();
+		for ( final RepositoryConfig repoConfig : rebazerConfig.getRepos() ) {
+			states.put( String.join( "/", repoConfig.getQualifiers() ), rebaseService.getSetupState( repoConfig ) );
+		}
+		if ( states.containsValue( SetupState.PENDING ) ) {
+			builder.status( Status.UNKNOWN );
+		} else {
+			builder.up();
+		}
+		builder.withDetails( states );
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.retest.rebazer.service;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.stereotype.Service;
+
+/**
+ * One lock per repository to serialize all operations on the local git repo of it. Operations on different
+ * repositories never share a lock.
+ */
+@Service
+public class RepositoryLocks {
+
+	private final ConcurrentMap<RepositoryConfig, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+	public <T> T callLocked( final RepositoryConfig repoConfig, final Supplier<T> action ) {
+		final ReentrantLock lock = lockFor( repoConfig );
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void runLocked( final RepositoryConfig repoConfig, final Runnable action ) {
+		callLocked( repoConfig, () -> {
+			action.run();
+			return null;
+		} );
+	}
+
+	/**
+	 * @return result of the action, empty without calling it if the repository is locked
+	 */
+	public <T> Optional<T> tryCallLocked( final RepositoryConfig repoConfig, final Supplier<T> action ) {
+		final ReentrantLock lock = lockFor( repoConfig );
+		if ( !lock.tryLock() ) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.ofNullable( action.get() );
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isLocked( final RepositoryConfig repoConfig ) {
+		return lockFor( repoConfig ).isLocked();
+	}
+
+	ReentrantLock lockFor( final RepositoryConfig repoConfig ) {
+		return locks.computeIfAbsent( repoConfig, key -> new ReentrantLock() );
+	}
+
+}
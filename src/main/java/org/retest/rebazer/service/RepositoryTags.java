@@ -0,0 +1,19 @@
+package org.retest.rebazer.service;
+
+import org.retest.rebazer.domain.RepositoryConfig;
+
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Common tags of all metrics about a repository, so they can be aggregated by host, team or repo.
+ */
+public final class RepositoryTags {
+
+	private RepositoryTags() {}
+
+	public static Tags of( final RepositoryConfig repoConfig ) {
+		final String[] qualifiers = repoConfig.getQualifiers();
+		return Tags.of( "host", qualifiers[0], "team", qualifiers[1], "repo", qualifiers[2] );
+	}
+
+}
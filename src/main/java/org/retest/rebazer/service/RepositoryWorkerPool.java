@@ -0,0 +1,86 @@
+package org.retest.rebazer.service;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs the work for a repository either inline (default) or on a bounded pool of worker threads. In both modes at
+ * most one task per repository is queued or running at a time, further tasks for a busy repository are skipped.
+ */
+@Slf4j
+@Service
+public class RepositoryWorkerPool {
+
+	private final ThreadPoolExecutor executor;
+	private final Set<RepositoryConfig> busyRepos = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	public RepositoryWorkerPool( final RebazerConfig rebazerConfig ) {
+		if ( rebazerConfig.isConcurrentRepoProcessing() ) {
+			final int poolSize = rebazerConfig.getRepoWorkerPoolSize();
+			executor = new ThreadPoolExecutor( poolSize, poolSize, 60L, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>( rebazerConfig.getRepoWorkerQueueLength() ),
+					new CustomizableThreadFactory( "rebazer-repo-" ) );
+			executor.allowCoreThreadTimeOut( true );
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return true if the task is executed or queued, false if it is skipped because the repository is still busy or
+	 *         the queue is full
+	 */
+	public boolean execute( final RepositoryConfig repoConfig, final Runnable task ) {
+		if ( !busyRepos.add( repoConfig ) ) {
+			log.warn( "Skipping {}, previous cycle is still running.", repoConfig );
+			return false;
+		}
+		final Runnable releasingTask = () -> {
+			try {
+				task.run();
+			} finally {
+				busyRepos.remove( repoConfig );
+			}
+		};
+
+		if ( executor == null ) {
+			releasingTask.run();
+			return true;
+		}
+		try {
+			executor.execute( releasingTask );
+			return true;
+		} catch ( final RejectedExecutionException e ) {
+			busyRepos.remove( repoConfig );
+			log.warn( "Worker queue is full, skipping {} in this cycle.", repoConfig );
+			return false;
+		}
+	}
+
+	public boolean isBusy( final RepositoryConfig repoConfig ) {
+		return busyRepos.contains( repoConfig );
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if ( executor != null ) {
+			executor.shutdownNow();
+		}
+	}
+
+}
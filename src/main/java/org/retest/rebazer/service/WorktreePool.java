@@ -0,0 +1,140 @@
+package org.retest.rebazer.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Working trees of one repository for concurrent rebases. Each tree is a repository of its own (own index, HEAD and
+ * refs), but shares the object database of the primary repository via <code>objects/info/alternates</code>, so
+ * creating one doesn't copy any history. Trees are created on demand and deleted after being idle.
+ */
+@Slf4j
+class WorktreePool {
+
+	private final Repository primary;
+	private final File folder;
+	private final String repoUrl;
+	private final Clock clock;
+
+	private final Deque<Worktree> idle = new ArrayDeque<>();
+	private int nextId;
+
+	private static class Worktree {
+		private final Git git;
+		private final File directory;
+		private Instant lastUsed;
+
+		Worktree( final Git git, final File directory ) {
+			this.git = git;
+			this.directory = directory;
+		}
+	}
+
+	WorktreePool( final Repository primary, final File folder, final String repoUrl ) {
+		this( primary, folder, repoUrl, Clock.systemUTC() );
+	}
+
+	WorktreePool( final Repository primary, final File folder, final String repoUrl, final Clock clock ) {
+		this.primary = primary;
+		this.folder = folder;
+		this.repoUrl = repoUrl;
+		this.clock = clock;
+		// leftovers of a previous run
+		FileUtils.deleteQuietly( folder );
+	}
+
+	/**
+	 * @return an idle working tree, or a new one if all are in use
+	 */
+	synchronized Git borrow() throws IOException, GitAPIException {
+		final Worktree worktree = idle.pollFirst();
+		return worktree != null ? worktree.git : create();
+	}
+
+	synchronized void release( final Git git ) {
+		final Worktree worktree = new Worktree( git, git.getRepository().getWorkTree() );
+		worktree.lastUsed = clock.instant();
+		// most recently used first, so rarely needed trees get idle
+		idle.addFirst( worktree );
+	}
+
+	/**
+	 * Copy the remote tracking refs of the given branches from the primary repository. As all objects are available
+	 * via the alternates, only the refs are written.
+	 */
+	void update( final Git git, final Collection<String> branches ) throws GitAPIException {
+		final List<RefSpec> refSpecs = branches.stream() //
+				.map( branch -> Constants.R_REMOTES + "origin/" + branch ) //
+				.map( ref -> new RefSpec( "+" + ref + ":" + ref ) ) //
+				.collect( Collectors.toList() );
+		git.fetch().setRemote( primary.getDirectory().getAbsolutePath() ).setRefSpecs( refSpecs ).call();
+	}
+
+	/**
+	 * @return number of deleted trees, which were idle longer than the given duration
+	 */
+	synchronized int reclaim( final Duration maxIdle ) {
+		final Instant idleSince = clock.instant().minus( maxIdle );
+		int reclaimed = 0;
+		for ( final Iterator<Worktree> it = idle.iterator(); it.hasNext(); ) {
+			final Worktree worktree = it.next();
+			if ( worktree.lastUsed.isBefore( idleSince ) ) {
+				it.remove();
+				worktree.git.close();
+				FileUtils.deleteQuietly( worktree.directory );
+				reclaimed++;
+			}
+		}
+		return reclaimed;
+	}
+
+	synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	private Git create() throws IOException, GitAPIException {
+		final File directory = new File( folder, String.valueOf( nextId++ ) );
+		log.info( "Creating working tree {} for {} ...", directory, repoUrl );
+		try ( final Git git = Git.init().setDirectory( directory ).call() ) {
+			final File alternates = new File( git.getRepository().getDirectory(), "objects/info/alternates" );
+			FileUtils.writeStringToFile( alternates,
+					new File( primary.getDirectory(), "objects" ).getAbsolutePath() + "\n", StandardCharsets.UTF_8 );
+			git.remoteAdd().setName( "origin" ).setUri( new URIish( repoUrl ) ).call();
+			final StoredConfig config = git.getRepository().getConfig();
+			config.setString( "user", null, "name", primary.getConfig().getString( "user", null, "name" ) );
+			config.setString( "user", null, "email", primary.getConfig().getString( "user", null, "email" ) );
+			// the objects are in the primary repository, a detached auto gc would race with deleting the tree
+			config.setInt( ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTO, 0 );
+			config.setBoolean( ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTODETACH, false );
+			config.save();
+		} catch ( final URISyntaxException e ) {
+			throw new IOException( e );
+		}
+		// reopen to pick up the alternates
+		return Git.open( directory );
+	}
+
+}
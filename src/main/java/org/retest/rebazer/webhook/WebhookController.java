@@ -0,0 +1,80 @@
+package org.retest.rebazer.webhook;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.retest.rebazer.RepositoryHostingTypes;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.PullRequestEventQueue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Receives GitHub and Bitbucket webhooks and queues the affected pull requests, they are handled by
+ * {@link org.retest.rebazer.RebazerService#handleQueuedEvents()}.
+ */
+@Slf4j
+@RestController
+@RequestMapping( "/webhook" )
+@RequiredArgsConstructor( onConstructor = @__( @Autowired ) )
+public class WebhookController {
+
+	private final RebazerConfig rebazerConfig;
+	private final PullRequestEventQueue eventQueue;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@PostMapping( "/github" )
+	public ResponseEntity<Void> github( @RequestHeader( "X-GitHub-Event" ) final String eventType,
+			@RequestHeader( value = "X-Hub-Signature-256", required = false ) final String signature,
+			@RequestBody final byte[] payload ) throws IOException {
+		if ( !WebhookSignature.isValid( rebazerConfig.getWebhookSecret(), payload, signature ) ) {
+			log.warn( "Rejecting GitHub {} event with invalid signature.", eventType );
+			return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).build();
+		}
+		return enqueue( RepositoryHostingTypes.GITHUB,
+				WebhookEvent.fromGithub( eventType, objectMapper.readTree( payload ) ) );
+	}
+
+	@PostMapping( "/bitbucket" )
+	public ResponseEntity<Void> bitbucket( @RequestHeader( "X-Event-Key" ) final String eventKey,
+			@RequestHeader( value = "X-Hub-Signature", required = false ) final String signature,
+			@RequestBody final byte[] payload ) throws IOException {
+		if ( !WebhookSignature.isValid( rebazerConfig.getWebhookSecret(), payload, signature ) ) {
+			log.warn( "Rejecting Bitbucket {} event with invalid signature.", eventKey );
+			return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).build();
+		}
+		return enqueue( RepositoryHostingTypes.BITBUCKET,
+				WebhookEvent.fromBitbucket( eventKey, objectMapper.readTree( payload ) ) );
+	}
+
+	private ResponseEntity<Void> enqueue( final RepositoryHostingTypes type, final WebhookEvent event ) {
+		final Optional<RepositoryConfig> repoConfig = findRepo( type, event.getRepositoryFullName() );
+		if ( !repoConfig.isPresent() ) {
+			log.debug( "Ignoring event for unconfigured repository {}.", event.getRepositoryFullName() );
+			return ResponseEntity.noContent().build();
+		}
+		log.debug( "Queuing {} for {}.", event.getTargets(), repoConfig.get() );
+		eventQueue.enqueue( repoConfig.get(), event.getTargets() );
+		return ResponseEntity.accepted().build();
+	}
+
+	private Optional<RepositoryConfig> findRepo( final RepositoryHostingTypes type, final String fullName ) {
+		return rebazerConfig.getRepos().stream() //
+				.filter( repoConfig -> repoConfig.getType() == type ) //
+				.filter( repoConfig -> fullName.equalsIgnoreCase( repoConfig.getTeam() + "/" + repoConfig.getRepo() ) ) //
+				.findFirst();
+	}
+
+}
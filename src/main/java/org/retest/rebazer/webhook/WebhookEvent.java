@@ -0,0 +1,86 @@
+package org.retest.rebazer.webhook;
+
+import org.retest.rebazer.domain.PullRequestTargets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import lombok.Value;
+
+/**
+ * Repository and affected pull requests extracted from a GitHub or Bitbucket webhook payload.
+ */
+@Value
+public class WebhookEvent {
+
+	private static final String BRANCH_REF_PREFIX = "refs/heads/";
+
+	private final String repositoryFullName;
+	private final PullRequestTargets targets;
+
+	/**
+	 * @param eventType
+	 *            value of the <code>X-GitHub-Event</code> header
+	 */
+	public static WebhookEvent fromGithub( final String eventType, final JsonNode payload ) {
+		final PullRequestTargets.PullRequestTargetsBuilder targets = PullRequestTargets.builder();
+		switch ( eventType ) {
+			case "pull_request":
+				targets.pullRequestId( payload.path( "pull_request" ).path( "number" ).asInt() );
+				if ( payload.path( "pull_request" ).path( "merged" ).asBoolean() ) {
+					// the destination moved, all other pull requests targeting it need a rebase
+					targets.branch( payload.path( "pull_request" ).path( "base" ).path( "ref" ).asText() );
+				}
+				break;
+			case "pull_request_review":
+				targets.pullRequestId( payload.path( "pull_request" ).path( "number" ).asInt() );
+				break;
+			case "check_run":
+			case "check_suite":
+				payload.path( eventType ).path( "pull_requests" )
+						.forEach( pr -> targets.pullRequestId( pr.path( "number" ).asInt() ) );
+				break;
+			case "status":
+				payload.path( "branches" ).forEach( branch -> targets.branch( branch.path( "name" ).asText() ) );
+				break;
+			case "push":
+				final String ref = payload.path( "ref" ).asText();
+				if ( ref.startsWith( BRANCH_REF_PREFIX ) ) {
+					targets.branch( ref.substring( BRANCH_REF_PREFIX.length() ) );
+				}
+				break;
+			default:
+				break;
+		}
+		return new WebhookEvent( payload.path( "repository" ).path( "full_name" ).asText(), targets.build() );
+	}
+
+	/**
+	 * @param eventKey
+	 *            value of the <code>X-Event-Key</code> header
+	 */
+	public static WebhookEvent fromBitbucket( final String eventKey, final JsonNode payload ) {
+		final PullRequestTargets.PullRequestTargetsBuilder targets = PullRequestTargets.builder();
+		if ( eventKey.startsWith( "pullrequest:" ) ) {
+			targets.pullRequestId( payload.path( "pullrequest" ).path( "id" ).asInt() );
+			if ( eventKey.equals( "pullrequest:fulfilled" ) ) {
+				// the destination moved, all other pull requests targeting it need a rebase
+				targets.branch( payload.path( "pullrequest" ).path( "destination" ).path( "branch" ).path( "name" )
+						.asText() );
+			}
+		} else if ( eventKey.startsWith( "repo:commit_status_" ) ) {
+			final JsonNode refName = payload.path( "commit_status" ).path( "refname" );
+			if ( refName.isTextual() ) {
+				targets.branch( refName.asText() );
+			}
+		} else if ( eventKey.equals( "repo:push" ) ) {
+			payload.path( "push" ).path( "changes" ).forEach( change -> {
+				final JsonNode newBranch = change.path( "new" );
+				if ( "branch".equals( newBranch.path( "type" ).asText() ) ) {
+					targets.branch( newBranch.path( "name" ).asText() );
+				}
+			} );
+		}
+		return new WebhookEvent( payload.path( "repository" ).path( "full_name" ).asText(), targets.build() );
+	}
+
+}
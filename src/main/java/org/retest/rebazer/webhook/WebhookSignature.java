@@ -0,0 +1,44 @@
+package org.retest.rebazer.webhook;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies the HMAC signature GitHub (<code>X-Hub-Signature-256</code>) and Bitbucket (<code>X-Hub-Signature</code>)
+ * send along with webhook payloads. Both use the format <code>sha256=&lt;hex digest&gt;</code>.
+ */
+public final class WebhookSignature {
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final String PREFIX = "sha256=";
+
+	private WebhookSignature() {}
+
+	public static boolean isValid( final String secret, final byte[] payload, final String signature ) {
+		if ( secret == null || secret.isEmpty() || signature == null || !signature.startsWith( PREFIX ) ) {
+			return false;
+		}
+		final byte[] expected = sign( secret, payload ).getBytes( StandardCharsets.US_ASCII );
+		final byte[] actual = signature.getBytes( StandardCharsets.US_ASCII );
+		return MessageDigest.isEqual( expected, actual );
+	}
+
+	static String sign( final String secret, final byte[] payload ) {
+		try {
+			final Mac mac = Mac.getInstance( ALGORITHM );
+			mac.init( new SecretKeySpec( secret.getBytes( StandardCharsets.UTF_8 ), ALGORITHM ) );
+			final StringBuilder result = new StringBuilder( PREFIX );
+			for ( final byte b : mac.doFinal( payload ) ) {
+				result.append( String.format( "%02x", b ) );
+			}
+			return result.toString();
+		} catch ( final GeneralSecurityException e ) {
+			throw new IllegalStateException( "Unable to calculate webhook signature", e );
+		}
+	}
+
+}
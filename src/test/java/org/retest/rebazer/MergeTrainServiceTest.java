@@ -0,0 +1,248 @@
+package org.retest.rebazer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.connector.RepositoryConnector;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.PullRequestLastUpdateStore;
+import org.retest.rebazer.service.RebaseService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MergeTrainServiceTest {
+
+	RebaseService rebaseService;
+	PullRequestLastUpdateStore pullRequestLastUpdateStore;
+	RepositoryConnector repoConnector;
+	RepositoryConfig repoConfig;
+	SimpleMeterRegistry meterRegistry;
+
+	PullRequest first;
+	PullRequest second;
+	PullRequest third;
+	List<PullRequest> open;
+
+	MergeTrainService cut;
+
+	@BeforeEach
+	void setUp() {
+		rebaseService = mock( RebaseService.class );
+		pullRequestLastUpdateStore = mock( PullRequestLastUpdateStore.class );
+		repoConnector = mock( RepositoryConnector.class );
+		repoConfig = mock( RepositoryConfig.class );
+		when( repoConfig.getQualifiers() ).thenReturn( new String[] { "github.com", "retest", "repo" } );
+		when( rebaseService.rebaseOnto( any(), any(), anyString(), anyString() ) ).thenReturn( true );
+		when( repoConnector.getLatestUpdate( any() ) ).thenAnswer( invocation -> invocation.getArgument( 0 ) );
+		when( repoConnector.isApproved( any() ) ).thenReturn( true );
+		meterRegistry = new SimpleMeterRegistry();
+
+		first = pullRequest( 1 );
+		second = pullRequest( 2 );
+		third = pullRequest( 3 );
+		open = Arrays.asList( first, second, third );
+
+		final RebazerConfig config = new RebazerConfig();
+		config.setMergeTrain( true );
+		config.setMergeTrainLength( 3 );
+		cut = new MergeTrainService( config, rebaseService, pullRequestLastUpdateStore, meterRegistry );
+	}
+
+	@Test
+	void ready_pull_requests_should_be_stacked_onto_each_other() {
+		boardAll();
+
+		verify( rebaseService ).rebaseOnto( repoConfig, first, "master", "master" );
+		verify( rebaseService ).rebaseOnto( repoConfig, second, "master", "feature/1" );
+		verify( rebaseService ).rebaseOnto( repoConfig, third, "master", "feature/2" );
+		assertThat( open ).allMatch( pullRequest -> cut.isInTrain( repoConfig, pullRequest ) );
+		assertThat( count( "boarded" ) ).isEqualTo( 3 );
+	}
+
+	@Test
+	void full_train_should_leave_pull_request_waiting() {
+		final PullRequest fourth = pullRequest( 4 );
+		boardAll();
+		cut.board( repoConfig, fourth );
+		cut.handleTrains( repoConnector, repoConfig, Arrays.asList( first, second, third, fourth ) );
+
+		verify( rebaseService, never() ).rebaseOnto( repoConfig, fourth, "master", "feature/3" );
+		assertThat( cut.isInTrain( repoConfig, fourth ) ).isFalse();
+	}
+
+	@Test
+	void green_build_of_last_pull_request_should_merge_whole_train() {
+		boardAll();
+		when( repoConnector.greenBuildExists( third ) ).thenReturn( true );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		final InOrder inOrder = inOrder( repoConnector );
+		inOrder.verify( repoConnector ).merge( first );
+		inOrder.verify( repoConnector ).merge( second );
+		inOrder.verify( repoConnector ).merge( third );
+		verify( repoConnector, never() ).greenBuildExists( first );
+		verify( pullRequestLastUpdateStore ).resetDestination( repoConfig, "master" );
+		verify( rebaseService ).invalidate( repoConfig, "master" );
+		assertThat( open ).noneMatch( pullRequest -> cut.isInTrain( repoConfig, pullRequest ) );
+		assertThat( count( "merged" ) ).isEqualTo( 3 );
+	}
+
+	@Test
+	void running_build_should_merge_pull_requests_covered_by_green_build() {
+		boardAll();
+		when( repoConnector.greenBuildExists( second ) ).thenReturn( true );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		verify( repoConnector ).merge( first );
+		verify( repoConnector ).merge( second );
+		verify( repoConnector, never() ).merge( third );
+		verify( repoConnector, never() ).addComment( any(), anyString() );
+		assertThat( cut.isInTrain( repoConfig, third ) ).isTrue();
+	}
+
+	@Test
+	void failed_pull_request_should_be_ejected_and_followers_restacked() {
+		boardAll();
+		when( repoConnector.greenBuildExists( first ) ).thenReturn( true );
+		when( repoConnector.failedBuildExists( second ) ).thenReturn( true );
+		when( repoConnector.failedBuildExists( third ) ).thenReturn( true );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		verify( repoConnector ).merge( first );
+		verify( repoConnector, never() ).merge( second );
+		verify( repoConnector ).addComment( second, MergeTrainService.MSG_EJECTED );
+		verify( rebaseService ).rebaseOnto( repoConfig, third, "feature/2", "master" );
+		assertThat( cut.isInTrain( repoConfig, second ) ).isFalse();
+		assertThat( cut.isInTrain( repoConfig, third ) ).isTrue();
+		assertThat( count( "ejected" ) ).isEqualTo( 1 );
+	}
+
+	@Test
+	void conflicting_follower_should_be_ejected_as_well() {
+		boardAll();
+		open.forEach( pullRequest -> when( repoConnector.failedBuildExists( pullRequest ) ).thenReturn( true ) );
+		when( rebaseService.rebaseOnto( repoConfig, second, "feature/1", "master" ) ).thenReturn( false );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		verify( repoConnector ).addComment( first, MergeTrainService.MSG_EJECTED );
+		verify( repoConnector ).addComment( second, RebazerService.MSG_REBASE_FAILED );
+		verify( rebaseService ).rebaseOnto( repoConfig, third, "feature/2", "master" );
+		assertThat( cut.isInTrain( repoConfig, third ) ).isTrue();
+	}
+
+	@Test
+	void closed_pull_request_should_dissolve_train() {
+		boardAll();
+
+		cut.handleTrains( repoConnector, repoConfig, Arrays.asList( first, third ) );
+
+		assertThat( open ).noneMatch( pullRequest -> cut.isInTrain( repoConfig, pullRequest ) );
+		verify( pullRequestLastUpdateStore ).resetPullRequest( repoConfig, second );
+		verify( repoConnector, never() ).merge( any() );
+	}
+
+	@Test
+	void pushed_pull_request_should_be_dropped_and_followers_restacked() {
+		open.forEach( pullRequest -> when( rebaseService.getHead( repoConfig, pullRequest.getSource() ) )
+				.thenReturn( Optional.of( "head-" + pullRequest.getId() ) ) );
+		boardAll();
+		final PullRequest pushed = second.updateLastChange( new Date() );
+		when( rebaseService.getHead( repoConfig, "feature/2" ) ).thenReturn( Optional.of( "pushed" ) );
+		when( repoConnector.greenBuildExists( first ) ).thenReturn( true );
+
+		cut.handleTrains( repoConnector, repoConfig, Arrays.asList( first, pushed, third ) );
+
+		verify( pullRequestLastUpdateStore ).resetPullRequest( repoConfig, second );
+		verify( rebaseService ).rebaseOnto( repoConfig, third, "head-2", "feature/1" );
+		verify( repoConnector, never() ).merge( second );
+		assertThat( cut.isInTrain( repoConfig, second ) ).isFalse();
+		assertThat( cut.isInTrain( repoConfig, third ) ).isTrue();
+	}
+
+	@Test
+	void updated_pull_request_with_same_head_should_stay_in_train() {
+		boardAll();
+		when( repoConnector.greenBuildExists( third ) ).thenReturn( true );
+		final PullRequest commented = second.updateLastChange( new Date() );
+
+		cut.handleTrains( repoConnector, repoConfig, Arrays.asList( first, commented, third ) );
+
+		verify( pullRequestLastUpdateStore, never() ).resetPullRequest( any(), any() );
+		verify( repoConnector ).merge( third );
+	}
+
+	@Test
+	void withdrawn_approval_should_drop_pull_request_before_merging() {
+		boardAll();
+		when( repoConnector.isApproved( second ) ).thenReturn( false );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		verify( pullRequestLastUpdateStore ).resetPullRequest( repoConfig, second );
+		verify( rebaseService ).rebaseOnto( repoConfig, third, "feature/2", "feature/1" );
+		verify( repoConnector, never() ).merge( any() );
+		assertThat( cut.isInTrain( repoConfig, first ) ).isTrue();
+		assertThat( cut.isInTrain( repoConfig, second ) ).isFalse();
+	}
+
+	@Test
+	void moved_destination_should_restack_train_before_merging() {
+		boardAll();
+		when( repoConnector.rebaseNeeded( first ) ).thenReturn( true );
+		when( repoConnector.greenBuildExists( third ) ).thenReturn( true );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		verify( rebaseService, times( 2 ) ).rebaseOnto( repoConfig, first, "master", "master" );
+		verify( rebaseService ).rebaseOnto( repoConfig, second, "feature/1", "feature/1" );
+		verify( repoConnector, never() ).merge( any() );
+		assertThat( open ).allMatch( pullRequest -> cut.isInTrain( repoConfig, pullRequest ) );
+	}
+
+	@Test
+	void moved_destination_should_be_detected_with_the_local_repository() {
+		boardAll();
+		when( rebaseService.rebaseNeeded( repoConfig, first ) ).thenReturn( Optional.of( true ) );
+
+		cut.handleTrains( repoConnector, repoConfig, open );
+
+		verify( rebaseService, times( 2 ) ).rebaseOnto( repoConfig, first, "master", "master" );
+		verify( repoConnector, never() ).rebaseNeeded( any() );
+		verify( repoConnector, never() ).merge( any() );
+	}
+
+	private void boardAll() {
+		open.forEach( pullRequest -> cut.board( repoConfig, pullRequest ) );
+		cut.handleTrains( repoConnector, repoConfig, open );
+	}
+
+	private double count( final String outcome ) {
+		return meterRegistry.get( "rebazer.pull.requests" ).tag( "outcome", outcome ).counter().count();
+	}
+
+	private static PullRequest pullRequest( final int id ) {
+		return PullRequest.builder().id( id ).source( "feature/" + id ).destination( "master" ).build();
+	}
+
+}
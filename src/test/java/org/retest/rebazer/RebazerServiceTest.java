@@ -1,19 +1,30 @@
 package org.retest.rebazer;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -21,12 +32,23 @@ import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.retest.rebazer.config.RebazerConfig;
 import org.retest.rebazer.connector.RepositoryConnector;
+import org.retest.rebazer.connector.RequestContext;
+import org.retest.rebazer.connector.ResponseCache;
+import org.retest.rebazer.connector.TimedRepositoryConnector;
 import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
+import org.retest.rebazer.domain.PullRequestTargets;
 import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.PullRequestEventQueue;
 import org.retest.rebazer.service.PullRequestLastUpdateStore;
+import org.retest.rebazer.service.PullRequestPriority;
+import org.retest.rebazer.service.PullRequestScheduler;
 import org.retest.rebazer.service.RebaseService;
+import org.retest.rebazer.service.RepositoryWorkerPool;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith( MockitoExtension.class )
 @MockitoSettings( strictness = Strictness.LENIENT )
 class RebazerServiceTest {
@@ -35,12 +57,17 @@ class RebazerServiceTest {
 
 	@Mock
 	RebaseService rebaseService;
+	MergeTrainService mergeTrainService;
 	@Mock
 	RebazerConfig rebazerConfig;
 	@Mock
 	PullRequestLastUpdateStore pullRequestLastUpdateStore;
+	PullRequestScheduler scheduler;
 	@Mock
 	RestTemplateBuilder templateBuilder;
+	PullRequestEventQueue eventQueue = new PullRequestEventQueue();
+	ResponseCache responseCache = ResponseCache.disabled();
+	SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 	@Mock
 	RepositoryConfig repoConfig;
 	@Mock
@@ -52,16 +79,24 @@ class RebazerServiceTest {
 	void setUp() {
 		when( rebazerConfig.getBranchBlacklist() ).thenReturn( new RebazerConfig().getBranchBlacklist() );
 		when( pullRequest.getSource() ).thenReturn( "feature/foo" );
-		cut = spy( new RebazerService( rebaseService, rebazerConfig, pullRequestLastUpdateStore, templateBuilder ) );
+		when( repoConfig.getQualifiers() ).thenReturn( new String[] { "github.com", "retest", "repo" } );
+		when( pullRequestLastUpdateStore.getLastKnownState( any(), any() ) ).thenReturn( PullRequestState.UNKNOWN );
+		final RepositoryWorkerPool sequentialWorkerPool = new RepositoryWorkerPool( new RebazerConfig() );
+		scheduler = new PullRequestScheduler( pullRequestLastUpdateStore, PullRequestPriority.CLOSEST_TO_MERGE );
+		mergeTrainService = new MergeTrainService( new RebazerConfig(), rebaseService, pullRequestLastUpdateStore,
+				meterRegistry );
+		cut = spy( new RebazerService( rebaseService, mergeTrainService, rebazerConfig, pullRequestLastUpdateStore,
+				scheduler, sequentialWorkerPool, eventQueue, responseCache, meterRegistry, ForkJoinPool.commonPool(),
+				ForkJoinPool.commonPool(), templateBuilder ) );
 	}
 
 	@Test
 	void pollToHandleAllPullRequests_call_handleRepo_foreach_repo() {
-		final RepositoryConfig repoConfig1 = mock( RepositoryConfig.class );
-		final RepositoryConfig repoConfig2 = mock( RepositoryConfig.class );
-		when( repoConfig.getConnector( templateBuilder ) ).thenReturn( repoConnector );
-		when( repoConfig1.getConnector( templateBuilder ) ).thenReturn( repoConnector );
-		when( repoConfig2.getConnector( templateBuilder ) ).thenReturn( repoConnector );
+		final RepositoryConfig repoConfig1 = mockRepoConfig( "repo1" );
+		final RepositoryConfig repoConfig2 = mockRepoConfig( "repo2" );
+		when( repoConfig.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConfig1.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConfig2.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
 		when( repoConnector.getAllPullRequests() ).thenReturn( new ArrayList<>() );
 		when( rebazerConfig.getRepos() ).thenReturn( Arrays.asList( repoConfig, repoConfig1, repoConfig2 ) );
 
@@ -77,11 +112,11 @@ class RebazerServiceTest {
 
 	@Test
 	void pollToHandleAllPullRequests_catch_Exception_and_continue() {
-		final RepositoryConfig repoConfig1 = mock( RepositoryConfig.class );
-		final RepositoryConfig repoConfig2 = mock( RepositoryConfig.class );
-		when( repoConfig.getConnector( templateBuilder ) ).thenReturn( repoConnector );
-		when( repoConfig1.getConnector( templateBuilder ) ).thenReturn( repoConnector );
-		when( repoConfig2.getConnector( templateBuilder ) ).thenReturn( repoConnector );
+		final RepositoryConfig repoConfig1 = mockRepoConfig( "repo1" );
+		final RepositoryConfig repoConfig2 = mockRepoConfig( "repo2" );
+		when( repoConfig.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConfig1.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConfig2.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
 		when( repoConnector.getAllPullRequests() ).thenThrow( RuntimeException.class ); // changed
 		when( rebazerConfig.getRepos() ).thenReturn( Arrays.asList( repoConfig, repoConfig1, repoConfig2 ) );
 
@@ -101,17 +136,80 @@ class RebazerServiceTest {
 		when( pullRequest1.getSource() ).thenReturn( "feature/bar" );
 		final PullRequest pullRequest2 = mock( PullRequest.class );
 		when( pullRequest2.getSource() ).thenReturn( "feature/baz" );
-		when( repoConfig.getConnector( templateBuilder ) ).thenReturn( repoConnector );
+		when( repoConfig.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
 		when( repoConnector.getAllPullRequests() )
 				.thenReturn( Arrays.asList( pullRequest, pullRequest1, pullRequest2 ) );
 
 		cut.handleRepo( repoConfig );
 
-		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest );
-		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest1 );
-		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest2 );
+		verify( cut ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ), eq( pullRequest ) );
+		verify( cut ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ), eq( pullRequest1 ) );
+		verify( cut ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ), eq( pullRequest2 ) );
 		verify( cut ).handleRepo( repoConfig );
 		verifyNoMoreInteractions( cut, templateBuilder );
+		verify( pullRequestLastUpdateStore ).retainOpen( repoConfig,
+				Arrays.asList( pullRequest, pullRequest1, pullRequest2 ) );
+	}
+
+	@Test
+	void handleRepo_should_handle_PRs_closest_to_merge_first() {
+		final PullRequest pullRequest1 = mock( PullRequest.class );
+		when( pullRequest1.getSource() ).thenReturn( "feature/bar" );
+		when( pullRequestLastUpdateStore.getLastKnownState( repoConfig, pullRequest1 ) )
+				.thenReturn( PullRequestState.MERGE_READY );
+		when( repoConfig.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConnector.getAllPullRequests() ).thenReturn( Arrays.asList( pullRequest, pullRequest1 ) );
+
+		cut.handleRepo( repoConfig );
+
+		final InOrder inOrder = inOrder( cut );
+		inOrder.verify( cut ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ),
+				eq( pullRequest1 ) );
+		inOrder.verify( cut ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ),
+				eq( pullRequest ) );
+	}
+
+	@Test
+	void handleRepo_should_await_handling_of_rebase_results() {
+		final CompletableFuture<Boolean> rebase = new CompletableFuture<>();
+		when( repoConfig.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConnector.getAllPullRequests() ).thenReturn( Arrays.asList( pullRequest ) );
+		when( repoConnector.greenBuildExists( pullRequest ) ).thenReturn( true );
+		when( repoConnector.rebaseNeeded( pullRequest ) ).thenReturn( true );
+		when( rebaseService.rebaseAsync( repoConfig, pullRequest ) ).thenReturn( rebase );
+		CompletableFuture.delayedExecutor( 100, TimeUnit.MILLISECONDS ).execute( () -> rebase.complete( true ) );
+
+		cut.handleRepo( repoConfig );
+
+		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, null, PullRequestState.WAITING_FOR_BUILD );
+	}
+
+	@Test
+	void handleQueuedEvents_should_handle_only_affected_PRs() {
+		final PullRequest pullRequest1 = mock( PullRequest.class );
+		when( pullRequest1.getId() ).thenReturn( 1 );
+		when( pullRequest1.getSource() ).thenReturn( "feature/bar" );
+		when( pullRequest1.getDestination() ).thenReturn( "main" );
+		final PullRequest pullRequest2 = mock( PullRequest.class );
+		when( pullRequest2.getId() ).thenReturn( 2 );
+		when( pullRequest2.getSource() ).thenReturn( "feature/baz" );
+		when( pullRequest2.getDestination() ).thenReturn( "develop" );
+		when( repoConfig.getConnector( eq( templateBuilder ), any( RequestContext.class ) ) ).thenReturn( repoConnector );
+		when( repoConnector.getAllPullRequests() ).thenReturn( Arrays.asList( pullRequest1, pullRequest2 ) );
+
+		eventQueue.enqueue( repoConfig, PullRequestTargets.builder().pullRequestId( 1 ).build() );
+		eventQueue.enqueue( repoConfig, PullRequestTargets.builder().branch( "main" ).build() );
+		cut.handleQueuedEvents();
+
+		verify( cut ).handlePullRequests( repoConfig,
+				PullRequestTargets.builder().pullRequestId( 1 ).branch( "main" ).build() );
+		verify( pullRequestLastUpdateStore ).resetPullRequest( repoConfig, pullRequest1 );
+		verify( pullRequestLastUpdateStore ).retainOpen( repoConfig, Arrays.asList( pullRequest1, pullRequest2 ) );
+		verify( cut ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ), eq( pullRequest1 ) );
+		verify( cut, never() ).handlePullRequest( any( TimedRepositoryConnector.class ), eq( repoConfig ),
+				eq( pullRequest2 ) );
+		verify( repoConnector, times( 1 ) ).getAllPullRequests();
+		assertThat( eventQueue.getPendingRepos() ).isEmpty();
 	}
 
 	@Test
@@ -124,27 +222,49 @@ class RebazerServiceTest {
 		verify( repoConnector ).merge( pullRequest );
 		verify( repoConnector ).isApproved( pullRequest );
 		verify( repoConnector ).rebaseNeeded( pullRequest );
-		verify( pullRequestLastUpdateStore ).resetAllInThisRepo( repoConfig );
+		verify( pullRequestLastUpdateStore ).setLastKnownState( repoConfig, pullRequest,
+				PullRequestState.MERGE_READY );
+		verify( pullRequestLastUpdateStore ).resetDestination( repoConfig, null );
 		verify( repoConnector ).greenBuildExists( pullRequest );
 		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest );
 		verifyNoMoreInteractions( cut, pullRequestLastUpdateStore, repoConnector );
+		assertThat( meterRegistry.get( "rebazer.pull.requests" ).tag( "outcome", "merged" ).counter().count() )
+				.isEqualTo( 1 );
 	}
 
 	@Test
 	void handlePullRequest_rebase_needed() {
 		when( repoConnector.greenBuildExists( pullRequest ) ).thenReturn( true );
 		when( repoConnector.rebaseNeeded( pullRequest ) ).thenReturn( true );
-		when( rebaseService.rebase( repoConfig, pullRequest ) ).thenReturn( false );
+		when( rebaseService.rebaseAsync( repoConfig, pullRequest ) )
+				.thenReturn( CompletableFuture.completedFuture( false ) );
 
 		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
 
 		verify( repoConnector ).addComment( Mockito.any( PullRequest.class ), Mockito.anyString() );
 		verify( repoConnector ).greenBuildExists( pullRequest );
 		verify( repoConnector ).rebaseNeeded( pullRequest );
-		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, null );
+		verify( repoConnector ).invalidate( pullRequest );
+		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, null, PullRequestState.REBASE_CANDIDATE );
 		verify( repoConnector ).getLatestUpdate( pullRequest );
 		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest );
 		verifyNoMoreInteractions( cut, pullRequestLastUpdateStore, repoConnector );
+		assertThat( meterRegistry.get( "rebazer.pull.requests" ).tags( "repo", "repo", "outcome", "conflict" )
+				.counter().count() ).isEqualTo( 1 );
+	}
+
+	@Test
+	void handlePullRequest_local_rebase_check_should_replace_api() {
+		when( repoConnector.greenBuildExists( pullRequest ) ).thenReturn( true );
+		when( repoConnector.isApproved( pullRequest ) ).thenReturn( true );
+		when( rebaseService.rebaseNeeded( repoConfig, pullRequest ) ).thenReturn( Optional.of( false ) );
+		when( pullRequest.getDestination() ).thenReturn( "main" );
+
+		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
+
+		verify( repoConnector, never() ).rebaseNeeded( pullRequest );
+		verify( repoConnector ).merge( pullRequest );
+		verify( rebaseService ).invalidate( repoConfig, "main" );
 	}
 
 	@Test
@@ -165,7 +285,8 @@ class RebazerServiceTest {
 		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
 
 		verify( repoConnector ).greenBuildExists( pullRequest );
-		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ) );
+		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ),
+				PullRequestState.WAITING_FOR_BUILD );
 		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest );
 		verifyNoMoreInteractions( cut, pullRequestLastUpdateStore );
 	}
@@ -176,11 +297,75 @@ class RebazerServiceTest {
 
 		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
 
-		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, pullRequest );
+		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, pullRequest,
+				PullRequestState.WAITING_FOR_APPROVAL );
 		verify( cut ).handlePullRequest( repoConnector, repoConfig, pullRequest );
 		verifyNoMoreInteractions( cut, pullRequestLastUpdateStore );
 	}
 
+	@Test
+	void handlePullRequest_should_only_check_rebase_if_destination_moved() {
+		when( rebazerConfig.isChangeDetection() ).thenReturn( true );
+		when( pullRequestLastUpdateStore.isRebaseCheckPending( repoConfig, pullRequest ) ).thenReturn( true );
+		when( rebaseService.rebaseNeeded( repoConfig, pullRequest ) ).thenReturn( Optional.of( false ) );
+
+		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
+
+		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, pullRequest,
+				PullRequestState.WAITING_FOR_APPROVAL );
+		verifyZeroInteractions( repoConnector );
+		assertThat( meterRegistry.get( "rebazer.pull.requests" ).tag( "outcome", "waiting_for_approval" ).counter()
+				.count() ).isEqualTo( 1 );
+	}
+
+	@Test
+	void handlePullRequest_parallel_checks_should_request_signals_concurrently() {
+		when( rebazerConfig.isParallelChecks() ).thenReturn( true );
+		// each check waits for the others, so they only succeed if requested concurrently
+		final CountDownLatch requested = new CountDownLatch( 3 );
+		when( repoConnector.greenBuildExists( pullRequest ) ).thenAnswer( invocation -> arrive( requested ) );
+		when( repoConnector.isApproved( pullRequest ) ).thenAnswer( invocation -> arrive( requested ) );
+		when( repoConnector.rebaseNeeded( pullRequest ) ).thenAnswer( invocation -> !arrive( requested ) );
+
+		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
+
+		verify( repoConnector ).merge( pullRequest );
+		verify( repoConnector ).greenBuildExists( pullRequest );
+		verify( repoConnector ).isApproved( pullRequest );
+		verify( repoConnector ).rebaseNeeded( pullRequest );
+	}
+
+	@Test
+	void handlePullRequest_parallel_checks_should_ignore_failures_of_unneeded_signals() {
+		when( rebazerConfig.isParallelChecks() ).thenReturn( true );
+		when( repoConnector.isApproved( pullRequest ) ).thenThrow( IllegalStateException.class );
+
+		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
+
+		verify( pullRequestLastUpdateStore ).setHandled( repoConfig, repoConnector.getLatestUpdate( pullRequest ),
+				PullRequestState.WAITING_FOR_BUILD );
+	}
+
+	@Test
+	void handlePullRequest_should_board_merge_train_instead_of_merging() {
+		final RebazerConfig trainConfig = new RebazerConfig();
+		trainConfig.setMergeTrain( true );
+		mergeTrainService = spy( new MergeTrainService( trainConfig, rebaseService, pullRequestLastUpdateStore,
+				meterRegistry ) );
+		cut = new RebazerService( rebaseService, mergeTrainService, rebazerConfig, pullRequestLastUpdateStore,
+				scheduler, new RepositoryWorkerPool( new RebazerConfig() ), eventQueue, responseCache, meterRegistry,
+				ForkJoinPool.commonPool(), ForkJoinPool.commonPool(), templateBuilder );
+		when( repoConnector.greenBuildExists( pullRequest ) ).thenReturn( true );
+		when( repoConnector.isApproved( pullRequest ) ).thenReturn( true );
+		when( repoConnector.rebaseNeeded( pullRequest ) ).thenReturn( true );
+
+		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
+
+		verify( mergeTrainService ).board( repoConfig, pullRequest );
+		verify( repoConnector, never() ).merge( pullRequest );
+		verify( rebaseService, never() ).rebaseAsync( repoConfig, pullRequest );
+	}
+
 	@Test
 	void blacklisted_branches_should_be_ignored() {
 		cut.handlePullRequest( repoConnector, repoConfig, pullRequest );
@@ -191,4 +376,16 @@ class RebazerServiceTest {
 		cut.handlePullRequest( repoConnector, repoConfig, pullRequest1 );
 		verify( repoConnector, never() ).greenBuildExists( pullRequest1 );
 	}
+
+	private static boolean arrive( final CountDownLatch requested ) throws InterruptedException {
+		requested.countDown();
+		return requested.await( 10, TimeUnit.SECONDS );
+	}
+
+	private static RepositoryConfig mockRepoConfig( final String repo ) {
+		final RepositoryConfig repoConfig = mock( RepositoryConfig.class );
+		when( repoConfig.getQualifiers() ).thenReturn( new String[] { "github.com", "retest", repo } );
+		return repoConfig;
+	}
+
 }
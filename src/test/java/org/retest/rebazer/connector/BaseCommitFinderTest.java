@@ -0,0 +1,58 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+class BaseCommitFinderTest {
+
+	@Test
+	void base_should_be_parent_of_first_commit() {
+		final BaseCommitFinder cut = new BaseCommitFinder( false );
+		cut.add( "a", Stream.of( "base" ) );
+		cut.add( "b", Stream.of( "a" ) );
+		cut.add( "c", Stream.of( "b" ) );
+
+		assertThat( cut.getBase() ).hasValue( "base" );
+		assertThat( cut.getCommitCount() ).isEqualTo( 3 );
+	}
+
+	@Test
+	void base_should_be_newest_merged_commit_of_destination() {
+		final BaseCommitFinder cut = new BaseCommitFinder( false );
+		cut.add( "a", Stream.of( "base" ) );
+		cut.add( "merge", Stream.of( "a", "newer-base" ) );
+		cut.add( "b", Stream.of( "merge" ) );
+
+		assertThat( cut.getBase() ).hasValue( "newer-base" );
+	}
+
+	@Test
+	void base_should_be_found_in_listing_newest_first() {
+		final BaseCommitFinder cut = new BaseCommitFinder( true );
+		cut.add( "b", Stream.of( "merge" ) );
+		cut.add( "merge", Stream.of( "a", "newer-base" ) );
+		cut.add( "a", Stream.of( "base" ) );
+
+		assertThat( cut.getBase() ).hasValue( "newer-base" );
+	}
+
+	@Test
+	void base_should_be_found_in_thousands_of_commits() {
+		final BaseCommitFinder cut = new BaseCommitFinder( false );
+		cut.add( "0", Stream.of( "base" ) );
+		for ( int i = 1; i < 100_000; i++ ) {
+			cut.add( String.valueOf( i ), Stream.of( String.valueOf( i - 1 ) ) );
+		}
+
+		assertThat( cut.getBase() ).hasValue( "base" );
+	}
+
+	@Test
+	void base_should_be_empty_without_commits() {
+		assertThat( new BaseCommitFinder( true ).getBase() ).isEmpty();
+	}
+
+}
@@ -3,10 +3,14 @@ package org.retest.rebazer.connector;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.ExpectedCount.manyTimes;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.anything;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -26,6 +30,8 @@ import org.retest.rebazer.domain.PullRequest;
 import org.retest.rebazer.domain.RepositoryConfig;
 import org.retest.rebazer.service.PullRequestLastUpdateStore;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
 
 import com.jayway.jsonpath.DocumentContext;
@@ -35,6 +41,7 @@ class BitbucketConnectorTest {
 
 	PullRequestLastUpdateStore pullRequestUpdateStates;
 	RestTemplate template;
+	MockRestServiceServer server;
 	RebazerConfig config;
 	RepositoryConfig repoConfig;
 
@@ -42,19 +49,20 @@ class BitbucketConnectorTest {
 
 	private static Stream<Arguments> reviewStates() {
 		return Stream.of( //
-				Arguments.of( "{participants: []}", false, false ), //
-				Arguments.of( "{participants: []}", true, false ), //
-				Arguments.of( "{participants: [{\"approved\": false}, {\"approved\": false}]}", false, false ),
-				Arguments.of( "{participants: [{\"approved\": false}, {\"approved\": false}]}", true, false ),
-				Arguments.of( "{participants: [{\"approved\": false}, {\"approved\": true}]}", false, true ),
-				Arguments.of( "{participants: [{\"approved\": false}, {\"approved\": true}]}", true, false ),
-				Arguments.of( "{participants: [{\"approved\": true}, {\"approved\": false}]}", true, false ),
-				Arguments.of( "{participants: [{\"approved\": true}, {\"approved\": true}]}", true, true ) );
+				Arguments.of( "{\"participants\": []}", false, false ), //
+				Arguments.of( "{\"participants\": []}", true, false ), //
+				Arguments.of( "{\"participants\": [{\"approved\": false}, {\"approved\": false}]}", false, false ),
+				Arguments.of( "{\"participants\": [{\"approved\": false}, {\"approved\": false}]}", true, false ),
+				Arguments.of( "{\"participants\": [{\"approved\": false}, {\"approved\": true}]}", false, true ),
+				Arguments.of( "{\"participants\": [{\"approved\": false}, {\"approved\": true}]}", true, false ),
+				Arguments.of( "{\"participants\": [{\"approved\": true}, {\"approved\": false}]}", true, false ),
+				Arguments.of( "{\"participants\": [{\"approved\": true}, {\"approved\": true}]}", true, true ) );
 	}
 
 	@BeforeEach
 	void setUp() {
-		template = mock( RestTemplate.class );
+		template = new RestTemplate();
+		server = MockRestServiceServer.bindTo( template ).ignoreExpectOrder( true ).build();
 		config = mock( RebazerConfig.class );
 		repoConfig = mock( RepositoryConfig.class );
 		final RestTemplateBuilder builder = mock( RestTemplateBuilder.class );
@@ -97,7 +105,7 @@ class BitbucketConnectorTest {
 			final boolean result ) {
 		final PullRequest pullRequest = mock( PullRequest.class );
 		when( pullRequest.isReviewByAllReviewersRequested() ).thenReturn( allRequested );
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( states );
+		respondToApiCalls( states );
 
 		assertThat( cut.isApproved( pullRequest ) ).isEqualTo( result );
 	}
@@ -105,8 +113,8 @@ class BitbucketConnectorTest {
 	@Test
 	void greenBuildExists_should_return_false_if_state_is_failed() {
 		final PullRequest pullRequest = mock( PullRequest.class );
-		final String json = "{values: [{\"state\": FAILED}]}";
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( json );
+		final String json = "{\"values\": [{\"state\": \"FAILED\"}]}";
+		respondToApiCalls( json );
 
 		assertThat( cut.greenBuildExists( pullRequest ) ).isFalse();
 	}
@@ -114,8 +122,8 @@ class BitbucketConnectorTest {
 	@Test
 	void greenBuildExists_should_return_true_if_state_is_successful() {
 		final PullRequest pullRequest = mock( PullRequest.class );
-		final String json = "{values: [{\"state\": SUCCESSFUL}]}";
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( json );
+		final String json = "{\"values\": [{\"state\": \"SUCCESSFUL\"}]}";
+		respondToApiCalls( json );
 
 		assertThat( cut.greenBuildExists( pullRequest ) ).isTrue();
 	}
@@ -128,7 +136,7 @@ class BitbucketConnectorTest {
 
 		when( repoConfig.getTeam() ).thenReturn( "test_team" );
 		when( repoConfig.getRepo() ).thenReturn( "test_repo_name" );
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( json );
+		respondToApiCalls( json );
 		final Date lastUpdate =
 				PullRequestLastUpdateStore.parseStringToDate( documentContext.read( "$.values[0].updated_on" ) );
 		final int expectedId = (int) documentContext.read( "$.values[0].id" );
@@ -140,16 +148,52 @@ class BitbucketConnectorTest {
 				.destination( documentContext.read( "$.values[0].destination.branch.name" ) )//
 				.lastUpdate( lastUpdate )//
 				.build() );
-		final List<PullRequest> actual = cut.getAllPullRequests();
+		final Iterable<PullRequest> actual = cut.getAllPullRequests();
 
-		assertThat( actual ).isEqualTo( expected );
+		assertThat( actual ).containsExactlyElementsOf( expected );
+	}
+
+	@Test
+	void getAllPullRequests_should_follow_next_page() {
+		final String next = "https://api.bitbucket.org/2.0/repositories/team/repo/pullrequests?pagelen=50&page=2";
+		final String page1 = "{\"values\": [{\"id\": 1, \"source\": {\"branch\": {\"name\": \"feature-1\"}}, "
+				+ "\"destination\": {\"branch\": {\"name\": \"master\"}}, \"updated_on\": \"2019-02-04T20:18:44Z\"}], "
+				+ "\"next\": \"" + next + "\"}";
+		final String page2 = "{\"values\": [{\"id\": 2, \"source\": {\"branch\": {\"name\": \"feature-2\"}}, "
+				+ "\"destination\": {\"branch\": {\"name\": \"master\"}}, "
+				+ "\"updated_on\": \"2019-02-04T20:18:44Z\"}]}";
+		server = MockRestServiceServer.bindTo( template ).build();
+		server.expect( once(), requestTo( "/pullrequests?pagelen=50" ) )
+				.andRespond( withSuccess( page1, MediaType.APPLICATION_JSON ) );
+		server.expect( once(), requestTo( next ) ).andRespond( withSuccess( page2, MediaType.APPLICATION_JSON ) );
+
+		assertThat( cut.getAllPullRequests() ).extracting( PullRequest::getId ).containsExactly( 1, 2 );
+		server.verify();
+	}
+
+	@Test
+	void getLastParentCommitId_should_follow_next_page() {
+		final PullRequest pullRequest = mock( PullRequest.class );
+		when( pullRequest.getId() ).thenReturn( 1 );
+		final String next = "https://api.bitbucket.org/2.0/repositories/team/repo/pullrequests/1/commits?page=2";
+		final String page1 = "{\"values\": [{\"hash\": \"b\", \"parents\": [{\"hash\": \"merge\"}]}, "
+				+ "{\"hash\": \"merge\", \"parents\": [{\"hash\": \"a\"}, {\"hash\": \"newer-base\"}]}], "
+				+ "\"next\": \"" + next + "\"}";
+		final String page2 = "{\"values\": [{\"hash\": \"a\", \"parents\": [{\"hash\": \"base\"}]}]}";
+		server = MockRestServiceServer.bindTo( template ).build();
+		server.expect( once(), requestTo( "/pullrequests/1/commits?pagelen=100" ) )
+				.andRespond( withSuccess( page1, MediaType.APPLICATION_JSON ) );
+		server.expect( once(), requestTo( next ) ).andRespond( withSuccess( page2, MediaType.APPLICATION_JSON ) );
+
+		assertThat( cut.getLastParentCommitId( pullRequest ) ).isEqualTo( "newer-base" );
+		server.verify();
 	}
 
 	@Test
 	void getLatestUpdate_should_return_updated_PullRequest() {
 		final PullRequest pullRequest = mock( PullRequest.class );
 		final String json = "{\"updated_on\": \"2019-02-04T20:18:44Z\"}";
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( json );
+		respondToApiCalls( json );
 
 		cut.getLatestUpdate( pullRequest );
 
@@ -158,4 +202,8 @@ class BitbucketConnectorTest {
 		assertThat( parsedDate.getValue() ).isEqualTo( "2019-02-04T20:18:44Z" );
 
 	}
+
+	private void respondToApiCalls( final String json ) {
+		server.expect( manyTimes(), anything() ).andRespond( withSuccess( json, MediaType.APPLICATION_JSON ) );
+	}
 }
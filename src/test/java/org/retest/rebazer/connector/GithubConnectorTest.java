@@ -3,10 +3,14 @@ package org.retest.rebazer.connector;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.ExpectedCount.manyTimes;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.ExpectedCount.times;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -18,6 +22,7 @@ import java.util.Map;
 import java.util.stream.Stream;
 
 import org.assertj.core.util.Maps;
+import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -29,10 +34,9 @@ import org.retest.rebazer.domain.PullRequest;
 import org.retest.rebazer.domain.RepositoryConfig;
 import org.retest.rebazer.service.PullRequestLastUpdateStore;
 import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
 
 import com.jayway.jsonpath.DocumentContext;
@@ -41,6 +45,7 @@ import com.jayway.jsonpath.JsonPath;
 class GithubConnectorTest {
 
 	RestTemplate template;
+	MockRestServiceServer server;
 	RebazerConfig config;
 	RepositoryConfig repoConfig;
 	PullRequest pullRequest;
@@ -63,7 +68,7 @@ class GithubConnectorTest {
 						"{\"check_runs\":[{\"completed_at\":null},{\"completed_at\":\"2019-04-04T08:31:40Z\"},{\"completed_at\":\"2019-04-04T08:31:20Z\"}]}",
 						"2019-04-04T08:31:40Z" ),
 				Arguments.of(
-						"{\"check_runs\":[{\"completed_at\":null},{\"completed_at\":null},{\"completed_at\":2019-01-04T15:30:50Z}]}",
+						"{\"check_runs\":[{\"completed_at\":null},{\"completed_at\":null},{\"completed_at\":\"2019-01-04T15:30:50Z\"}]}",
 						"2019-01-04T15:30:50Z" ),
 				Arguments.of(
 						"{\"check_runs\":[{\"completed_at\":null},{\"completed_at\":null},{\"completed_at\":null}]}",
@@ -72,7 +77,7 @@ class GithubConnectorTest {
 						"{\"check_runs\":[{\"completed_at\":\"\"},{\"completed_at\":\"\"},{\"completed_at\":\"2019-04-04T08:31:20Z\"}]}",
 						"2019-04-04T08:31:20Z" ),
 				Arguments.of(
-						"{\"check_runs\":[{\"completed_at\":\"\"},{\"completed_at\":\"\"},{\"completed_at\":2019-01-04T15:30:50Z}]}",
+						"{\"check_runs\":[{\"completed_at\":\"\"},{\"completed_at\":\"\"},{\"completed_at\":\"2019-01-04T15:30:50Z\"}]}",
 						"2019-01-04T15:30:50Z" ),
 				Arguments.of(
 						"{\"check_runs\":[{\"completed_at\":\"\"},{\"completed_at\":\"\"},{\"completed_at\":\"\"}]}",
@@ -141,7 +146,8 @@ class GithubConnectorTest {
 
 	@BeforeEach
 	void setUp() {
-		template = mock( RestTemplate.class );
+		template = new RestTemplate();
+		server = MockRestServiceServer.bindTo( template ).ignoreExpectOrder( true ).build();
 		config = mock( RebazerConfig.class );
 		repoConfig = mock( RepositoryConfig.class );
 		pullRequest = mock( PullRequest.class );
@@ -178,6 +184,39 @@ class GithubConnectorTest {
 		assertThat( cut.rebaseNeeded( pullRequest ) ).isTrue();
 	}
 
+	@Test
+	void getLastCommonCommitId_should_follow_next_links() {
+		when( pullRequest.getId() ).thenReturn( 1 );
+		final HttpHeaders link = new HttpHeaders();
+		link.set( HttpHeaders.LINK, "<https://api.github.com/repositories/1/pulls/1/commits?per_page=100&page=2>; "
+				+ "rel=\"next\"" );
+		server.expect( once(), requestTo( "/pulls/1" ) )
+				.andRespond( withSuccess( "{\"commits\": 3}", MediaType.APPLICATION_JSON ) );
+		server.expect( once(), requestTo( "/pulls/1/commits?per_page=100" ) ).andRespond( withSuccess(
+				"[{\"sha\": \"a\", \"parents\": [{\"sha\": \"base\"}]}, "
+						+ "{\"sha\": \"merge\", \"parents\": [{\"sha\": \"a\"}, {\"sha\": \"newer-base\"}]}]",
+				MediaType.APPLICATION_JSON ).headers( link ) );
+		server.expect( once(), requestTo( "https://api.github.com/repositories/1/pulls/1/commits?per_page=100&page=2" ) )
+				.andRespond( withSuccess( "[{\"sha\": \"b\", \"parents\": [{\"sha\": \"merge\"}]}]",
+						MediaType.APPLICATION_JSON ) );
+
+		assertThat( cut.getLastCommonCommitId( pullRequest ) ).isEqualTo( "newer-base" );
+		server.verify();
+	}
+
+	@Test
+	void getLastCommonCommitId_should_compare_if_commits_exceed_listing_limit() {
+		when( pullRequest.getId() ).thenReturn( 1 );
+		when( pullRequest.getDestination() ).thenReturn( "master" );
+		server.expect( once(), requestTo( "/pulls/1" ) ).andRespond( withSuccess(
+				"{\"commits\": 5000, \"head\": {\"sha\": \"head\"}}", MediaType.APPLICATION_JSON ) );
+		server.expect( once(), requestTo( "/compare/master...head" ) ).andRespond( withSuccess(
+				"{\"merge_base_commit\": {\"sha\": \"base\"}, \"total_commits\": 5000}", MediaType.APPLICATION_JSON ) );
+
+		assertThat( cut.getLastCommonCommitId( pullRequest ) ).isEqualTo( "base" );
+		server.verify();
+	}
+
 	@ParameterizedTest
 	@MethodSource( "reviewStates" )
 	void isApproved_should_handle_all_different_review_states( final String state1, final String state2,
@@ -190,7 +229,7 @@ class GithubConnectorTest {
 		reviewersState.put( 3, state3 );
 
 		when( pullRequest.getReviewers() ).thenReturn( reviewersState );
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( "{\"review\": []}" );
+		respondToApiCalls( "[]" );
 
 		assertThat( cut.isApproved( pullRequest ) ).isEqualTo( result );
 	}
@@ -198,7 +237,7 @@ class GithubConnectorTest {
 	@ParameterizedTest
 	@MethodSource( "overrideDifferentStates" )
 	void getReviewers_should_provide_always_the_newest_state( final String actions, final String result ) {
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( actions );
+		respondToApiCalls( actions );
 		when( pullRequest.getReviewers() ).thenReturn( Maps.newHashMap( 2, null ) );
 
 		cut.isApproved( pullRequest );
@@ -209,7 +248,7 @@ class GithubConnectorTest {
 	@Test
 	void isApproved_should_ignore_the_creater_and_nonexistent_reviewer() {
 		final String action = "[{\"user\": {\"id\": 2}, \"state\": \"COMMENTED\"}]";
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( action );
+		respondToApiCalls( action );
 		when( pullRequest.getReviewers() ).thenReturn( new HashMap<Integer, String>() );
 		when( pullRequest.getCreator() ).thenReturn( 2 );
 
@@ -221,22 +260,37 @@ class GithubConnectorTest {
 	void greenBuildExists_should_return_false_if_state_is_failed() {
 		final String json = "{\"check_runs\":[{\"conclusion\":\"failure\"},{\"conclusion\":\"success\"}]}";
 		final String headResponse = "{\"head\":{\"sha\": \"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
-		final ResponseEntity<String> resp = new ResponseEntity<>( json, HttpStatus.OK );
-		when( template.exchange( anyString(), any( HttpMethod.class ), any( HttpEntity.class ), eq( String.class ) ) )
-				.thenReturn( resp );
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( headResponse );
+		respondToCheckRunsCalls( json );
+		respondToApiCalls( headResponse );
+
+		assertThat( cut.greenBuildExists( pullRequest ) ).isFalse();
+	}
+
+	@Test
+	void failedBuildExists_should_ignore_running_checks() {
+		final String headResponse = "{\"head\":{\"sha\": \"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
+		respondToCheckRunsCalls( "{\"check_runs\":[{\"conclusion\":null},{\"conclusion\":\"success\"}]}" );
+		respondToApiCalls( headResponse );
 
+		assertThat( cut.failedBuildExists( pullRequest ) ).isFalse();
 		assertThat( cut.greenBuildExists( pullRequest ) ).isFalse();
 	}
 
+	@Test
+	void failedBuildExists_should_return_true_if_a_check_failed() {
+		final String headResponse = "{\"head\":{\"sha\": \"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
+		respondToCheckRunsCalls( "{\"check_runs\":[{\"conclusion\":null},{\"conclusion\":\"timed_out\"}]}" );
+		respondToApiCalls( headResponse );
+
+		assertThat( cut.failedBuildExists( pullRequest ) ).isTrue();
+	}
+
 	@Test
 	void greenBuildExists_should_return_true_if_state_is_successful() {
 		final String json = "{\"check_runs\":[{\"conclusion\":\"success\"},{\"conclusion\":\"success\"}]}";
 		final String headResponse = "{\"head\":{\"sha\": \"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
-		final ResponseEntity<String> resp = new ResponseEntity<>( json, HttpStatus.OK );
-		when( template.exchange( anyString(), any( HttpMethod.class ), any( HttpEntity.class ), eq( String.class ) ) )
-				.thenReturn( resp );
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( headResponse );
+		respondToCheckRunsCalls( json );
+		respondToApiCalls( headResponse );
 
 		assertThat( cut.greenBuildExists( pullRequest ) ).isTrue();
 	}
@@ -248,7 +302,7 @@ class GithubConnectorTest {
 		final DocumentContext documentContext = JsonPath.parse( json );
 		when( repoConfig.getTeam() ).thenReturn( "test_team" );
 		when( repoConfig.getRepo() ).thenReturn( "test_repo_name" );
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( json );
+		respondToApiCalls( json );
 
 		final Date lastUpdate =
 				PullRequestLastUpdateStore.parseStringToDate( documentContext.read( "$.[0].updated_at" ) );
@@ -265,21 +319,49 @@ class GithubConnectorTest {
 				.source( documentContext.read( "$.[0].head.ref" ) ) //
 				.destination( documentContext.read( "$.[0].base.ref" ) )//
 				.lastUpdate( lastUpdate ).build() );
-		final List<PullRequest> actual = cut.getAllPullRequests();
+		final Iterable<PullRequest> actual = cut.getAllPullRequests();
+
+		assertThat( actual ).containsExactlyElementsOf( expected );
+	}
+
+	@Test
+	void getAllPullRequests_should_follow_next_links() {
+		final String page1 = "[{\"number\": 1, \"user\": {\"id\": 3}, \"head\": {\"ref\": \"feature-1\", "
+				+ "\"repo\": {\"full_name\": \"retest/demo\"}}, \"base\": {\"ref\": \"master\"}, "
+				+ "\"updated_at\": \"2019-02-04T20:18:44Z\"}]";
+		final String page2 = "[{\"number\": 2, \"user\": {\"id\": 3}, \"head\": {\"ref\": \"feature-2\", "
+				+ "\"repo\": {\"full_name\": \"retest/demo\"}}, \"base\": {\"ref\": \"master\"}, "
+				+ "\"updated_at\": \"2019-02-04T20:18:44Z\"}]";
+		final HttpHeaders link = new HttpHeaders();
+		link.set( HttpHeaders.LINK, "<https://api.github.com/repositories/1/pulls?per_page=100&page=2>; rel=\"next\", "
+				+ "<https://api.github.com/repositories/1/pulls?per_page=100&page=2>; rel=\"last\"" );
+		server.expect( once(), requestTo( "/pulls?per_page=100" ) )
+				.andRespond( withSuccess( page1, MediaType.APPLICATION_JSON ).headers( link ) );
+		server.expect( once(), requestTo( "https://api.github.com/repositories/1/pulls?per_page=100&page=2" ) )
+				.andRespond( withSuccess( page2, MediaType.APPLICATION_JSON ) );
+
+		assertThat( cut.getAllPullRequests() ).extracting( PullRequest::getId ).containsExactly( 1, 2 );
+		server.verify();
+	}
 
-		assertThat( actual ).isEqualTo( expected );
+	@Test
+	void nextLink_should_be_absent_on_last_page() {
+		final HttpHeaders link = new HttpHeaders();
+		link.set( HttpHeaders.LINK, "<https://api.github.com/repositories/1/pulls?page=1>; rel=\"prev\", "
+				+ "<https://api.github.com/repositories/1/pulls?page=1>; rel=\"first\"" );
+
+		assertThat( GithubConnector.nextLink( link ) ).isNull();
+		assertThat( GithubConnector.nextLink( new HttpHeaders() ) ).isNull();
 	}
 
 	@Test
 	void getLatestUpdate_should_return_updated_PullRequest() {
 		final String repositoryTime =
 				"{\"updated_at\": \"2019-01-04T15:00:50Z\",\"head\":{\"sha\":\"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( repositoryTime );
+		respondToApiCalls( repositoryTime );
 		final String checksFinished =
 				"{\"check_runs\":[{\"completed_at\":\"2019-01-04T15:30:50Z\"},{\"completed_at\":\"2019-01-04T15:30:59Z\"},{\"completed_at\":\"2019-01-04T15:29:59Z\"}]}";
-		final ResponseEntity<String> resp = new ResponseEntity<>( checksFinished, HttpStatus.OK );
-		when( template.exchange( anyString(), any( HttpMethod.class ), any( HttpEntity.class ), eq( String.class ) ) )
-				.thenReturn( resp );
+		respondToCheckRunsCalls( checksFinished );
 
 		cut.getLatestUpdate( pullRequest );
 
@@ -294,12 +376,10 @@ class GithubConnectorTest {
 	void newestChecksTime_should_return_newest_time_of_the_checks( final String checksFinishedTime,
 			final String expected ) {
 
-		final ResponseEntity<String> resp = new ResponseEntity<>( checksFinishedTime, HttpStatus.OK );
-		when( template.exchange( anyString(), any( HttpMethod.class ), any( HttpEntity.class ), eq( String.class ) ) )
-				.thenReturn( resp );
+		respondToCheckRunsCalls( checksFinishedTime );
 
 		final String headResponse = "{\"head\":{\"sha\": \"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( headResponse );
+		respondToApiCalls( headResponse );
 
 		assertThat( cut.newestChecksTime( pullRequest ) ).isEqualTo( expected );
 	}
@@ -308,11 +388,9 @@ class GithubConnectorTest {
 	@MethodSource( "provideTimesFromDiffrentTimeZones" )
 	void getLatestUpdate_should_return_always_the_newest_time( final String repositoryTime,
 			final String checksFinishedTime, final String expectedChecksTime, final String expectedTime ) {
-		when( template.getForObject( anyString(), eq( String.class ) ) ).thenReturn( repositoryTime );
+		respondToApiCalls( repositoryTime );
 
-		final ResponseEntity<String> resp = new ResponseEntity<>( checksFinishedTime, HttpStatus.OK );
-		when( template.exchange( anyString(), any( HttpMethod.class ), any( HttpEntity.class ), eq( String.class ) ) )
-				.thenReturn( resp );
+		respondToCheckRunsCalls( checksFinishedTime );
 
 		cut.getLatestUpdate( pullRequest );
 
@@ -322,4 +400,45 @@ class GithubConnectorTest {
 		verify( pullRequest ).updateLastChange( parsedDate.capture() );
 		assertThat( parsedDate.getValue() ).isEqualTo( expectedTime );
 	}
+
+	@Test
+	void pull_request_and_checks_should_be_requested_only_once_per_cycle() {
+		when( pullRequest.getId() ).thenReturn( 1 );
+		final String pr =
+				"{\"updated_at\": \"2019-01-04T15:00:50Z\",\"head\":{\"sha\":\"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
+		final String checks = "{\"check_runs\":[{\"conclusion\":\"success\",\"completed_at\":\"2019-01-04T15:30:50Z\"}]}";
+		server.expect( once(), requestTo( "/pulls/1" ) ).andRespond( withSuccess( pr, MediaType.APPLICATION_JSON ) );
+		server.expect( once(), requestTo( Matchers.containsString( "/check-runs" ) ) )
+				.andRespond( withSuccess( checks, MediaType.APPLICATION_JSON ) );
+
+		assertThat( cut.greenBuildExists( pullRequest ) ).isTrue();
+		cut.getLatestUpdate( pullRequest );
+
+		server.verify();
+	}
+
+	@Test
+	void invalidate_should_request_pull_request_again() {
+		when( pullRequest.getId() ).thenReturn( 1 );
+		final String pr =
+				"{\"updated_at\": \"2019-01-04T15:00:50Z\",\"head\":{\"sha\":\"3ce2b596bcdb72f82425c809f56a0b56f089443e\"}}";
+		server.expect( times( 2 ), requestTo( "/pulls/1" ) ).andRespond( withSuccess( pr, MediaType.APPLICATION_JSON ) );
+		respondToCheckRunsCalls( "{\"check_runs\":[]}" );
+
+		cut.getLatestUpdate( pullRequest );
+		cut.invalidate( pullRequest );
+		cut.getLatestUpdate( pullRequest );
+
+		server.verify();
+	}
+
+	private void respondToApiCalls( final String json ) {
+		server.expect( manyTimes(), requestTo( Matchers.not( Matchers.containsString( "/check-runs" ) ) ) )
+				.andRespond( withSuccess( json, MediaType.APPLICATION_JSON ) );
+	}
+
+	private void respondToCheckRunsCalls( final String json ) {
+		server.expect( manyTimes(), requestTo( Matchers.containsString( "/check-runs" ) ) )
+				.andRespond( withSuccess( json, MediaType.APPLICATION_JSON ) );
+	}
 }
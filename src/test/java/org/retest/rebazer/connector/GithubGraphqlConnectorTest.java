@@ -0,0 +1,203 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class GithubGraphqlConnectorTest {
+
+	static final String RESOURCES = "src/test/resources/org/retest/rebazer/connector/githubgraphqlconnectortest/";
+	static final String OUTDATED_PULL_REQUEST = "{\"number\": 2, \"commits\": 2, \"head\": {\"sha\": \"dddd\"}}";
+
+	HttpServer server;
+	Deque<String> responses;
+	List<JsonNode> requests;
+	List<String> authorizations;
+	Map<String, String> restResponses;
+	RequestContext requestContext;
+
+	GithubGraphqlConnector cut;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		responses = new ConcurrentLinkedDeque<>();
+		requests = new CopyOnWriteArrayList<>();
+		authorizations = new CopyOnWriteArrayList<>();
+		restResponses = new ConcurrentHashMap<>();
+		server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+		server.createContext( "/graphql", this::respond );
+		server.createContext( "/repos/retest/demo", this::respondRest );
+		server.start();
+
+		final RepositoryConfig repoConfig = mock( RepositoryConfig.class );
+		when( repoConfig.getApiHost() ).thenReturn( new URL( "http://localhost:" + server.getAddress().getPort() ) );
+		when( repoConfig.getTeam() ).thenReturn( "retest" );
+		when( repoConfig.getRepo() ).thenReturn( "demo" );
+		when( repoConfig.getUser() ).thenReturn( "user" );
+		when( repoConfig.getPass() ).thenReturn( "token" );
+		requestContext = new RequestContext( ResponseCache.disabled() );
+
+		cut = new GithubGraphqlConnector( repoConfig, new RestTemplateBuilder(), requestContext );
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop( 0 );
+	}
+
+	@Test
+	void all_pages_should_be_queried_with_cursor() throws Exception {
+		respondWith( "page1.json", "page2.json" );
+
+		final List<PullRequest> pullRequests = getAllPullRequests();
+
+		assertThat( pullRequests ).extracting( PullRequest::getId ).containsExactly( 1, 2 );
+		assertThat( requests ).hasSize( 2 );
+		assertThat( requests.get( 0 ).at( "/variables/owner" ).asText() ).isEqualTo( "retest" );
+		assertThat( requests.get( 0 ).at( "/variables/name" ).asText() ).isEqualTo( "demo" );
+		assertThat( requests.get( 0 ).at( "/variables/cursor" ).isNull() ).isTrue();
+		assertThat( requests.get( 0 ).at( "/variables/single" ).asBoolean() ).isFalse();
+		assertThat( requests.get( 1 ).at( "/variables/cursor" ).asText() ).isEqualTo( "Y3Vyc29yOjE=" );
+		assertThat( authorizations ).containsOnly( "bearer token" );
+	}
+
+	@Test
+	void pull_request_state_should_be_answered_from_the_snapshot() throws Exception {
+		respondWith( "page1.json", "page2.json" );
+		final List<PullRequest> pullRequests = getAllPullRequests();
+		final PullRequest approvedAndGreen = pullRequests.get( 0 );
+		final PullRequest outdatedAndFailing = pullRequests.get( 1 );
+
+		assertThat( approvedAndGreen.getCreator() ).isEqualTo( 3 );
+		assertThat( approvedAndGreen.getReviewers() ).containsOnlyKeys( 1 );
+		assertThat( cut.isApproved( approvedAndGreen ) ).isTrue();
+		assertThat( cut.greenBuildExists( approvedAndGreen ) ).isTrue();
+		assertThat( cut.rebaseNeeded( approvedAndGreen ) ).isFalse();
+		assertThat( cut.getLatestUpdate( approvedAndGreen ).getLastUpdate() )
+				.isEqualTo( "2019-02-04T21:00:00Z" );
+
+		assertThat( cut.isApproved( outdatedAndFailing ) ).isFalse();
+		assertThat( cut.greenBuildExists( outdatedAndFailing ) ).isFalse();
+		assertThat( cut.getLatestUpdate( outdatedAndFailing ).getLastUpdate() )
+				.isEqualTo( "2019-02-04T20:18:44Z" );
+
+		assertThat( requests ).hasSize( 2 );
+		assertThat( requestContext.getRequestCount() ).isEqualTo( 2 );
+	}
+
+	@Test
+	void invalidated_pull_request_should_be_queried_again() throws Exception {
+		respondWith( "page1.json", "page2.json", "single.json" );
+		final PullRequest outdatedAndFailing = getAllPullRequests().get( 1 );
+
+		cut.invalidate( outdatedAndFailing );
+
+		assertThat( cut.rebaseNeeded( outdatedAndFailing ) ).isFalse();
+		assertThat( requests ).hasSize( 3 );
+		assertThat( requests.get( 2 ).at( "/variables/single" ).asBoolean() ).isTrue();
+		assertThat( requests.get( 2 ).at( "/variables/number" ).asInt() ).isEqualTo( 2 );
+	}
+
+	@Test
+	void outdated_pull_request_should_be_confirmed_by_its_commits() throws Exception {
+		respondWith( "page1.json", "page2.json" );
+		final PullRequest outdatedAndFailing = getAllPullRequests().get( 1 );
+		restResponses.put( "/repos/retest/demo/pulls/2", OUTDATED_PULL_REQUEST );
+		restResponses.put( "/repos/retest/demo/pulls/2/commits?per_page=100",
+				"[{\"sha\": \"cccc\", \"parents\": [{\"sha\": \"bbbb\"}]},"
+						+ " {\"sha\": \"dddd\", \"parents\": [{\"sha\": \"cccc\"}]}]" );
+
+		assertThat( cut.rebaseNeeded( outdatedAndFailing ) ).isTrue();
+	}
+
+	@Test
+	void pull_request_with_destination_merged_in_should_not_need_rebase() throws Exception {
+		respondWith( "page1.json", "page2.json" );
+		final PullRequest mergedIn = getAllPullRequests().get( 1 );
+		restResponses.put( "/repos/retest/demo/pulls/2", OUTDATED_PULL_REQUEST );
+		restResponses.put( "/repos/retest/demo/pulls/2/commits?per_page=100",
+				"[{\"sha\": \"cccc\", \"parents\": [{\"sha\": \"bbbb\"}]},"
+						+ " {\"sha\": \"dddd\", \"parents\": [{\"sha\": \"cccc\"}, {\"sha\": \"aaaa\"}]}]" );
+
+		assertThat( cut.rebaseNeeded( mergedIn ) ).isFalse();
+	}
+
+	@Test
+	void errors_should_be_thrown() {
+		responses.add( "{\"errors\": [{\"message\": \"Could not resolve to a Repository\"}]}" );
+
+		assertThatThrownBy( this::getAllPullRequests ).isInstanceOf( IllegalStateException.class )
+				.hasMessageContaining( "Could not resolve to a Repository" );
+	}
+
+	@Test
+	void graphqlUrl_should_handle_github_and_enterprise_hosts() throws Exception {
+		assertThat( GithubGraphqlConnector.graphqlUrl( new URL( "https://api.github.com" ) ) )
+				.isEqualTo( "https://api.github.com/graphql" );
+		assertThat( GithubGraphqlConnector.graphqlUrl( new URL( "https://github.example.org/api/v3/" ) ) )
+				.isEqualTo( "https://github.example.org/api/graphql" );
+	}
+
+	private List<PullRequest> getAllPullRequests() {
+		final List<PullRequest> pullRequests = new ArrayList<>();
+		cut.getAllPullRequests().forEach( pullRequests::add );
+		return pullRequests;
+	}
+
+	private void respondWith( final String... files ) throws IOException {
+		for ( final String file : files ) {
+			responses.add( new String( Files.readAllBytes( Paths.get( RESOURCES + file ) ), StandardCharsets.UTF_8 ) );
+		}
+	}
+
+	private void respond( final HttpExchange exchange ) throws IOException {
+		requests.add( new ObjectMapper().readTree( exchange.getRequestBody() ) );
+		authorizations.add( exchange.getRequestHeaders().getFirst( "Authorization" ) );
+		final String response = responses.poll();
+		send( exchange, 200, response == null ? "{}" : response );
+	}
+
+	private void respondRest( final HttpExchange exchange ) throws IOException {
+		final String response = restResponses.get( exchange.getRequestURI().toString() );
+		send( exchange, response == null ? 404 : 200, response == null ? "{}" : response );
+	}
+
+	private static void send( final HttpExchange exchange, final int status, final String response )
+			throws IOException {
+		final byte[] body = response.getBytes( StandardCharsets.UTF_8 );
+		exchange.getResponseHeaders().set( "Content-Type", "application/json" );
+		exchange.sendResponseHeaders( status, body.length );
+		try ( final OutputStream out = exchange.getResponseBody() ) {
+			out.write( body );
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.connector.PageIterator.Page;
+
+class PageIteratorTest {
+
+	List<String> requestedUrls;
+	List<Runnable> prefetches;
+	Executor executor;
+
+	@BeforeEach
+	void setUp() {
+		requestedUrls = new ArrayList<>();
+		prefetches = new ArrayList<>();
+		executor = prefetches::add;
+	}
+
+	@Test
+	void pages_should_be_requested_lazily_and_prefetched_one_ahead() {
+		final PageIterator<Integer> cut = new PageIterator<>( "1", this::fetch, executor );
+		assertThat( requestedUrls ).isEmpty();
+
+		assertThat( cut.next() ).isEqualTo( 10 );
+		assertThat( requestedUrls ).containsExactly( "1" );
+		assertThat( prefetches ).hasSize( 1 );
+
+		prefetches.remove( 0 ).run();
+		assertThat( requestedUrls ).containsExactly( "1", "2" );
+		assertThat( cut.next() ).isEqualTo( 11 );
+		assertThat( cut.next() ).isEqualTo( 20 );
+		assertThat( prefetches ).hasSize( 1 );
+	}
+
+	@Test
+	void pages_should_not_be_prefetched_without_executor() {
+		assertThat( PageIterator.stream( "1", this::fetch ).anyMatch( element -> element == 11 ) ).isTrue();
+		assertThat( requestedUrls ).containsExactly( "1" );
+
+		assertThat( PageIterator.stream( "1", this::fetch ).anyMatch( element -> element == 20 ) ).isTrue();
+		assertThat( requestedUrls ).containsExactly( "1", "1", "2" );
+	}
+
+	@Test
+	void all_elements_of_all_pages_should_be_iterated() {
+		final List<Integer> elements = new ArrayList<>();
+		new PageIterator<>( "1", this::fetch, Runnable::run ).forEachRemaining( elements::add );
+
+		assertThat( elements ).containsExactly( 10, 11, 20, 21, 30 );
+		assertThat( requestedUrls ).containsExactly( "1", "2", "3" );
+	}
+
+	@Test
+	void empty_pages_should_be_skipped() {
+		final PageIterator<Integer> cut = new PageIterator<>( "1",
+				url -> "1".equals( url ) ? new Page<>( Collections.emptyList(), "2" )
+						: new Page<>( Collections.singletonList( 20 ), null ),
+				Runnable::run );
+
+		assertThat( cut.next() ).isEqualTo( 20 );
+		assertThat( cut.hasNext() ).isFalse();
+	}
+
+	@Test
+	void failing_prefetch_should_be_thrown_unwrapped() {
+		final PageIterator<Integer> cut = new PageIterator<>( "1", url -> {
+			if ( "2".equals( url ) ) {
+				throw new IllegalStateException( "page 2" );
+			}
+			return fetch( url );
+		}, Runnable::run );
+
+		cut.next();
+		cut.next();
+		assertThatThrownBy( cut::next ).isInstanceOf( IllegalStateException.class ).hasMessage( "page 2" );
+	}
+
+	private Page<Integer> fetch( final String url ) {
+		requestedUrls.add( url );
+		switch ( url ) {
+			case "1":
+				return new Page<>( Arrays.asList( 10, 11 ), "2" );
+			case "2":
+				return new Page<>( Arrays.asList( 20, 21 ), "3" );
+			default:
+				return new Page<>( Collections.singletonList( 30 ), null );
+		}
+	}
+
+}
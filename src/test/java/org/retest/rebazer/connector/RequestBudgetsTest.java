@@ -0,0 +1,215 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RequestBudgetsTest {
+
+	static final String URL = "https://api.github.com/repos/retest/rebazer/pulls";
+	static final Instant NOW = Instant.ofEpochSecond( 1_000 );
+
+	RestTemplate template;
+	MockRestServiceServer server;
+
+	RequestBudgets cut;
+
+	@BeforeEach
+	void setUp() {
+		cut = new RequestBudgets( 1000, 0.1, 2, Clock.fixed( NOW, ZoneOffset.UTC ) );
+		template = new RestTemplate();
+		cut.customize( template );
+		server = MockRestServiceServer.bindTo( template ).build();
+	}
+
+	@Test
+	void remaining_should_be_tracked_from_rate_limit_headers() {
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 5000, 4321 ) ) );
+
+		assertThat( cut.getRemaining( "api.github.com" ) ).isEqualTo( -1 );
+		template.getForObject( URL, String.class );
+
+		server.verify();
+		assertThat( cut.getRemaining( "api.github.com" ) ).isEqualTo( 4321 );
+	}
+
+	@Test
+	void reads_should_fail_fast_within_write_reserve() {
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 100, 11 ) ) );
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 100, 10 ) ) );
+		server.expect( once(), requestTo( URL ) ).andExpect( method( HttpMethod.PUT ) )
+				.andRespond( withSuccess().headers( rateLimit( 100, 9 ) ) );
+
+		template.getForObject( URL, String.class );
+		template.getForObject( URL, String.class );
+		assertThatThrownBy( () -> template.getForObject( URL, String.class ) )
+				.isInstanceOf( RequestBudgetExhaustedException.class ).hasMessageContaining( "api.github.com" );
+		template.put( URL, "merge" );
+
+		server.verify();
+	}
+
+	@Test
+	void reads_should_slow_down_as_remaining_drops() {
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 5000, 4100 ) ) );
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 5000, 1400 ) ) );
+		server.expect( once(), requestTo( URL ) ).andExpect( method( HttpMethod.PUT ) )
+				.andRespond( withSuccess().headers( rateLimit( 5000, 1399 ) ) );
+
+		assertThat( cut.getReadRate( "api.github.com" ) ).isEqualTo( 1000 );
+		// 3600 reads beyond the write reserve of 500 are left for the next hour
+		template.getForObject( URL, String.class );
+		assertThat( cut.getReadRate( "api.github.com" ) ).isCloseTo( 1.0, within( 0.001 ) );
+		template.getForObject( URL, String.class );
+		assertThat( cut.getReadRate( "api.github.com" ) ).isCloseTo( 0.25, within( 0.001 ) );
+		// writes aren't held back by the pace of the reads
+		template.put( URL, "merge" );
+
+		server.verify();
+	}
+
+	@Test
+	void reads_should_fail_fast_if_their_wait_runs_past_reset() {
+		final AtomicReference<Instant> now = new AtomicReference<>( NOW );
+		cut = new RequestBudgets( 1000, 0.1, 2, new Clock() {
+			@Override
+			public Instant instant() {
+				return now.get();
+			}
+
+			@Override
+			public ZoneId getZone() {
+				return ZoneOffset.UTC;
+			}
+
+			@Override
+			public Clock withZone( final ZoneId zone ) {
+				return this;
+			}
+		} );
+		template = new RestTemplate();
+		cut.customize( template );
+		server = MockRestServiceServer.bindTo( template ).build();
+		final Instant reset = NOW.plusSeconds( 2 );
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 100, 12, reset ) ) );
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess() );
+
+		// two reads beyond the write reserve are left, one per second
+		template.getForObject( URL, String.class );
+		template.getForObject( URL, String.class );
+		now.set( NOW.plusMillis( 1500 ) );
+
+		assertThatThrownBy( () -> template.getForObject( URL, String.class ) ) //
+				.isInstanceOfSatisfying( RequestBudgetExhaustedException.class,
+						e -> assertThat( e.getReset() ).isEqualTo( reset ) );
+		assertThat( cut.getRemaining( "api.github.com" ) ).isEqualTo( 11 );
+		server.verify();
+	}
+
+	@Test
+	void too_many_requests_should_block_until_retry_after() {
+		final HttpHeaders retryAfter = new HttpHeaders();
+		retryAfter.set( HttpHeaders.RETRY_AFTER, "30" );
+		server.expect( once(), requestTo( URL ) )
+				.andRespond( withStatus( HttpStatus.TOO_MANY_REQUESTS ).headers( retryAfter ) );
+
+		assertThatThrownBy( () -> template.getForObject( URL, String.class ) )
+				.isInstanceOf( HttpClientErrorException.TooManyRequests.class );
+		assertThatThrownBy( () -> template.put( URL, "merge" ) ) //
+				.isInstanceOfSatisfying( RequestBudgetExhaustedException.class,
+						e -> assertThat( e.getReset() ).isEqualTo( NOW.plusSeconds( 30 ) ) );
+
+		server.verify();
+	}
+
+	@Test
+	void budget_should_be_restored_after_reset() {
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 100, 0, NOW ) ) );
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 100, 99 ) ) );
+
+		template.getForObject( URL, String.class );
+		template.getForObject( URL, String.class );
+
+		server.verify();
+		assertThat( cut.getRemaining( "api.github.com" ) ).isEqualTo( 99 );
+	}
+
+	@Test
+	void remaining_should_be_exposed_as_gauge_per_host() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 5000, 42 ) ) );
+		server.expect( once(), requestTo( "https://api.bitbucket.org/2.0/repositories" ) )
+				.andRespond( withSuccess() );
+
+		template.getForObject( URL, String.class );
+		cut.bindTo( registry );
+		template.getForObject( "https://api.bitbucket.org/2.0/repositories", String.class );
+
+		assertThat( registry.get( "rebazer.connector.rate.limit.remaining" ).tag( "host", "api.github.com" ).gauge()
+				.value() ).isEqualTo( 42 );
+		assertThat( registry.get( "rebazer.connector.rate.limit.remaining" ).tag( "host", "api.bitbucket.org" )
+				.gauge().value() ).isEqualTo( -1 );
+	}
+
+	@Test
+	void graphql_queries_should_count_as_reads() {
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess().headers( rateLimit( 100, 10 ) ) );
+
+		template.getForObject( URL, String.class );
+
+		assertThatThrownBy( () -> template.postForObject( "https://api.github.com/graphql", "{}", String.class ) )
+				.isInstanceOf( RequestBudgetExhaustedException.class );
+		server.verify();
+	}
+
+	@Test
+	void request_should_be_in_flight_until_its_response_is_closed() {
+		server.expect( once(), requestTo( URL ) ).andRespond( withSuccess() );
+		server.expect( once(), requestTo( URL ) ).andRespond( withStatus( HttpStatus.NOT_FOUND ) );
+
+		final Integer inFlight = template.execute( URL, HttpMethod.GET, null,
+				response -> cut.getInFlight( "api.github.com" ) );
+		assertThat( inFlight ).isEqualTo( 1 );
+		assertThat( cut.getInFlight( "api.github.com" ) ).isZero();
+
+		assertThatThrownBy( () -> template.getForObject( URL, String.class ) )
+				.isInstanceOf( HttpClientErrorException.class );
+		assertThat( cut.getInFlight( "api.github.com" ) ).isZero();
+		server.verify();
+	}
+
+	static HttpHeaders rateLimit( final int limit, final int remaining ) {
+		return rateLimit( limit, remaining, NOW.plusSeconds( 3600 ) );
+	}
+
+	static HttpHeaders rateLimit( final int limit, final int remaining, final Instant reset ) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.set( "X-RateLimit-Limit", String.valueOf( limit ) );
+		headers.set( "X-RateLimit-Remaining", String.valueOf( remaining ) );
+		headers.set( "X-RateLimit-Reset", String.valueOf( reset.getEpochSecond() ) );
+		return headers;
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.ExpectedCount.manyTimes;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.anything;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.domain.PullRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+class RequestContextTest {
+
+	RestTemplate template;
+	PullRequest pullRequest1;
+	PullRequest pullRequest2;
+
+	RequestContext cut;
+
+	@BeforeEach
+	void setUp() {
+		template = new RestTemplate();
+		final MockRestServiceServer server = MockRestServiceServer.bindTo( template ).build();
+		server.expect( manyTimes(), anything() ).andRespond( withSuccess( "{}", MediaType.APPLICATION_JSON ) );
+		pullRequest1 = mock( PullRequest.class );
+		when( pullRequest1.getId() ).thenReturn( 1 );
+		pullRequest2 = mock( PullRequest.class );
+		when( pullRequest2.getId() ).thenReturn( 2 );
+
+		cut = new RequestContext( ResponseCache.disabled() );
+	}
+
+	@Test
+	void repeated_lookups_should_be_requested_once() {
+		get( "/pulls/1", pullRequest1 );
+		get( "/pulls/1", pullRequest1 );
+		get( "/refs/main", null );
+		get( "/refs/main", null );
+
+		assertThat( cut.getRequestCount() ).isEqualTo( 2 );
+	}
+
+	@Test
+	void invalidate_should_only_affect_the_given_pull_request() {
+		get( "/pulls/1", pullRequest1 );
+		get( "/pulls/2", pullRequest2 );
+		get( "/refs/main", null );
+
+		cut.invalidate( pullRequest1 );
+		get( "/pulls/1", pullRequest1 );
+		get( "/pulls/2", pullRequest2 );
+		get( "/refs/main", null );
+
+		assertThat( cut.getRequestCount() ).isEqualTo( 4 );
+	}
+
+	@Test
+	void invalidateRepository_should_keep_pull_request_responses() {
+		get( "/pulls/1", pullRequest1 );
+		get( "/refs/main", null );
+
+		cut.invalidateRepository();
+		get( "/pulls/1", pullRequest1 );
+		get( "/refs/main", null );
+
+		assertThat( cut.getRequestCount() ).isEqualTo( 3 );
+	}
+
+	@Test
+	void concurrent_lookups_should_be_requested_once() throws Exception {
+		final CountDownLatch parsing = new CountDownLatch( 1 );
+		final CountDownLatch parsed = new CountDownLatch( 1 );
+		final ResponseParser<Object> slowParser = ( body, headers ) -> {
+			parsing.countDown();
+			try {
+				parsed.await( 10, TimeUnit.SECONDS );
+			} catch ( final InterruptedException e ) {
+				throw new InterruptedIOException();
+			}
+			return IOUtils.toByteArray( body );
+		};
+		final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try {
+			final Future<Object> first = executor.submit( () -> cut.getForObject( template, "/pulls/1", "/pulls/1",
+					new HttpHeaders(), slowParser, pullRequest1 ) );
+			assertThat( parsing.await( 10, TimeUnit.SECONDS ) ).isTrue();
+			final Future<Object> second = executor.submit( () -> get( "/pulls/1", pullRequest1 ) );
+			parsed.countDown();
+
+			assertThat( second.get( 10, TimeUnit.SECONDS ) ).isSameAs( first.get( 10, TimeUnit.SECONDS ) );
+			assertThat( cut.getRequestCount() ).isEqualTo( 1 );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Object get( final String urlPath, final PullRequest pullRequest ) {
+		return cut.getForObject( template, urlPath, urlPath, new HttpHeaders(),
+				( body, headers ) -> IOUtils.toByteArray( body ), pullRequest );
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.headerDoesNotExist;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ResponseCacheTest {
+
+	RestTemplate template;
+	MockRestServiceServer server;
+	AtomicInteger parserCalls;
+	ResponseParser<Object> parser;
+
+	ResponseCache cut;
+
+	@BeforeEach
+	void setUp() {
+		template = new RestTemplate();
+		server = MockRestServiceServer.bindTo( template ).build();
+		parserCalls = new AtomicInteger();
+		parser = ( body, headers ) -> {
+			parserCalls.incrementAndGet();
+			return new Object();
+		};
+		cut = new ResponseCache( 10, 1024 );
+	}
+
+	@Test
+	void not_modified_response_should_return_cached_result_without_parsing() {
+		final HttpHeaders etag = new HttpHeaders();
+		etag.setETag( "\"abc\"" );
+		server.expect( once(), requestTo( "/pulls" ) ).andExpect( headerDoesNotExist( HttpHeaders.IF_NONE_MATCH ) )
+				.andRespond( withSuccess( "[]", MediaType.APPLICATION_JSON ).headers( etag ) );
+		server.expect( once(), requestTo( "/pulls" ) ).andExpect( header( HttpHeaders.IF_NONE_MATCH, "\"abc\"" ) )
+				.andRespond( withStatus( HttpStatus.NOT_MODIFIED ) );
+
+		final Object first = cut.getForObject( template, "/pulls", "key", new HttpHeaders(), parser );
+		final Object second = cut.getForObject( template, "/pulls", "key", new HttpHeaders(), parser );
+
+		server.verify();
+		assertThat( second ).isSameAs( first );
+		assertThat( parserCalls ).hasValue( 1 );
+		assertThat( cut.hitCount() ).isEqualTo( 1 );
+		assertThat( cut.missCount() ).isEqualTo( 1 );
+		assertThat( cut.hitRate() ).isEqualTo( 0.5 );
+	}
+
+	@Test
+	void last_modified_should_be_send_as_if_modified_since() {
+		final HttpHeaders lastModified = new HttpHeaders();
+		lastModified.set( HttpHeaders.LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT" );
+		server.expect( once(), requestTo( "/pulls" ) )
+				.andRespond( withSuccess( "[]", MediaType.APPLICATION_JSON ).headers( lastModified ) );
+		server.expect( once(), requestTo( "/pulls" ) )
+				.andExpect( header( HttpHeaders.IF_MODIFIED_SINCE, "Wed, 21 Oct 2015 07:28:00 GMT" ) )
+				.andRespond( withSuccess( "[1]", MediaType.APPLICATION_JSON ).headers( lastModified ) );
+
+		cut.getForObject( template, "/pulls", "key", new HttpHeaders(), parser );
+		cut.getForObject( template, "/pulls", "key", new HttpHeaders(), parser );
+
+		server.verify();
+		assertThat( parserCalls ).hasValue( 2 );
+		assertThat( cut.hitCount() ).isZero();
+	}
+
+	@Test
+	void response_without_validator_should_not_be_cached() {
+		server.expect( once(), requestTo( "/pulls" ) ).andRespond( withSuccess( "[]", MediaType.APPLICATION_JSON ) );
+
+		cut.getForObject( template, "/pulls", "key", new HttpHeaders(), parser );
+
+		assertThat( cut.size() ).isZero();
+	}
+
+	@Test
+	void least_recently_used_entry_should_be_evicted_if_max_entries_is_reached() {
+		cut = new ResponseCache( 2, 1024 );
+		cut.put( "a", entry( 1 ) );
+		cut.put( "b", entry( 1 ) );
+		cut.get( "a" );
+		cut.put( "c", entry( 1 ) );
+
+		assertThat( cut.get( "a" ) ).isNotNull();
+		assertThat( cut.get( "b" ) ).isNull();
+		assertThat( cut.get( "c" ) ).isNotNull();
+		assertThat( cut.size() ).isEqualTo( 2 );
+	}
+
+	@Test
+	void least_recently_used_entries_should_be_evicted_if_max_bytes_is_reached() {
+		cut = new ResponseCache( 10, 100 );
+		cut.put( "a", entry( 40 ) );
+		cut.put( "b", entry( 40 ) );
+		cut.put( "c", entry( 40 ) );
+
+		assertThat( cut.get( "a" ) ).isNull();
+		assertThat( cut.bytes() ).isEqualTo( 80 );
+
+		cut.put( "d", entry( 101 ) );
+		assertThat( cut.get( "d" ) ).isNull();
+		assertThat( cut.bytes() ).isEqualTo( 80 );
+	}
+
+	@Test
+	void replaced_entry_should_not_be_counted_twice() {
+		cut.put( "a", entry( 40 ) );
+		cut.put( "a", entry( 30 ) );
+
+		assertThat( cut.size() ).isEqualTo( 1 );
+		assertThat( cut.bytes() ).isEqualTo( 30 );
+	}
+
+	@Test
+	void disabled_cache_should_never_store_anything() {
+		cut = ResponseCache.disabled();
+		cut.put( "a", entry( 1 ) );
+
+		assertThat( cut.get( "a" ) ).isNull();
+	}
+
+	@Test
+	void metrics_should_be_bound_to_registry() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		cut.bindTo( registry );
+		cut.put( "a", entry( 40 ) );
+
+		assertThat( registry.get( "rebazer.connector.response.cache.entries" ).gauge().value() ).isEqualTo( 1.0 );
+		assertThat( registry.get( "rebazer.connector.response.cache.bytes" ).gauge().value() ).isEqualTo( 40.0 );
+		assertThat( registry.get( "rebazer.connector.response.cache.requests" ).tag( "result", "hit" )
+				.functionCounter().count() ).isZero();
+	}
+
+	private static ResponseCache.Entry entry( final long bytes ) {
+		return new ResponseCache.Entry( "\"etag\"", null, new Object(), bytes );
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.domain.PullRequest;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TimedRepositoryConnectorTest {
+
+	RepositoryConnector delegate;
+	SimpleMeterRegistry meterRegistry;
+
+	TimedRepositoryConnector cut;
+
+	@BeforeEach
+	void setUp() {
+		delegate = mock( RepositoryConnector.class );
+		meterRegistry = new SimpleMeterRegistry();
+		cut = new TimedRepositoryConnector( delegate, Tags.of( "host", "github.com", "team", "retest", "repo", "demo" ),
+				meterRegistry );
+	}
+
+	@Test
+	void calls_should_be_timed_by_method() {
+		final PullRequest pullRequest = mock( PullRequest.class );
+		when( delegate.isApproved( pullRequest ) ).thenReturn( true );
+
+		assertThat( cut.isApproved( pullRequest ) ).isTrue();
+		cut.merge( pullRequest );
+
+		verify( delegate ).merge( pullRequest );
+		assertThat( meterRegistry.get( "rebazer.connector.call.duration" ).tags( "method", "isApproved", "team",
+				"retest", "exception", "none" ).timer().count() ).isEqualTo( 1 );
+		assertThat( meterRegistry.get( "rebazer.connector.call.duration" ).tag( "method", "merge" ).timer().count() )
+				.isEqualTo( 1 );
+	}
+
+	@Test
+	void failed_calls_should_be_tagged_with_exception() {
+		final PullRequest pullRequest = mock( PullRequest.class );
+		when( delegate.greenBuildExists( pullRequest ) ).thenThrow( new IllegalStateException() );
+
+		assertThatThrownBy( () -> cut.greenBuildExists( pullRequest ) ).isInstanceOf( IllegalStateException.class );
+
+		assertThat( meterRegistry.get( "rebazer.connector.call.duration" )
+				.tags( "method", "greenBuildExists", "exception", "IllegalStateException" ).timer().count() )
+						.isEqualTo( 1 );
+	}
+
+	@Test
+	void listing_should_be_timed_once_when_exhausted() {
+		final List<PullRequest> pullRequests =
+				Arrays.asList( mock( PullRequest.class ), mock( PullRequest.class ) );
+		when( delegate.getAllPullRequests() ).thenReturn( pullRequests );
+
+		final Iterable<PullRequest> listing = cut.getAllPullRequests();
+		assertThat( meterRegistry.find( "rebazer.connector.call.duration" ).timer() ).isNull();
+		final List<PullRequest> listed = new ArrayList<>();
+		listing.forEach( listed::add );
+
+		assertThat( listed ).isEqualTo( pullRequests );
+		assertThat( meterRegistry.get( "rebazer.connector.call.duration" ).tag( "method", "getAllPullRequests" )
+				.timer().count() ).isEqualTo( 1 );
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.retest.rebazer.connector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+	AtomicLong nanos;
+
+	TokenBucket cut;
+
+	@BeforeEach
+	void setUp() {
+		nanos = new AtomicLong();
+		cut = new TokenBucket( 2, 2, nanos::get );
+	}
+
+	@Test
+	void burst_up_to_capacity_should_not_wait() {
+		assertThat( cut.reserve() ).isZero();
+		assertThat( cut.reserve() ).isZero();
+		assertThat( cut.reserve() ).isEqualTo( TimeUnit.MILLISECONDS.toNanos( 500 ) );
+	}
+
+	@Test
+	void concurrent_reservations_should_queue_up() {
+		cut.reserve();
+		cut.reserve();
+
+		assertThat( cut.reserve() ).isEqualTo( TimeUnit.MILLISECONDS.toNanos( 500 ) );
+		assertThat( cut.reserve() ).isEqualTo( TimeUnit.MILLISECONDS.toNanos( 1000 ) );
+	}
+
+	@Test
+	void tokens_should_be_paced_at_changed_rate() {
+		cut.reserve();
+		cut.reserve();
+
+		cut.setRate( 0.5, 1 );
+
+		assertThat( cut.reserve() ).isEqualTo( TimeUnit.SECONDS.toNanos( 2 ) );
+		cut.cancel();
+		nanos.addAndGet( TimeUnit.SECONDS.toNanos( 10 ) );
+		assertThat( cut.reserve() ).isZero();
+		assertThat( cut.reserve() ).isEqualTo( TimeUnit.SECONDS.toNanos( 2 ) );
+	}
+
+	@Test
+	void tokens_should_refill_over_time_up_to_capacity() {
+		cut.reserve();
+		cut.reserve();
+
+		nanos.addAndGet( TimeUnit.SECONDS.toNanos( 10 ) );
+
+		assertThat( cut.reserve() ).isZero();
+		assertThat( cut.reserve() ).isZero();
+		assertThat( cut.reserve() ).isPositive();
+	}
+
+}
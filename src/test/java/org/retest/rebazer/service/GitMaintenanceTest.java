@@ -0,0 +1,108 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class GitMaintenanceTest {
+
+	@TempDir
+	Path temp;
+
+	Git localRepo;
+	RepositoryConfig repoConfig;
+	RepositoryLocks repositoryLocks;
+	RepositoryWorkerPool repositoryWorkerPool;
+	SimpleMeterRegistry meterRegistry;
+
+	GitMaintenance cut;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		localRepo = Git.init().setDirectory( temp.toFile() ).call();
+		for ( int i = 0; i < 8; i++ ) {
+			localRepo.commit().setMessage( "commit " + i ).setAllowEmpty( true ).call();
+		}
+		repoConfig = mock( RepositoryConfig.class );
+		when( repoConfig.getQualifiers() ).thenReturn( new String[] { "github.com", "retest", "demo" } );
+
+		final RebazerConfig rebazerConfig = new RebazerConfig();
+		rebazerConfig.setGcLooseObjectsThreshold( 5 );
+		repositoryLocks = new RepositoryLocks();
+		repositoryWorkerPool = mock( RepositoryWorkerPool.class );
+		meterRegistry = new SimpleMeterRegistry();
+		cut = new GitMaintenance( rebazerConfig, repositoryLocks, repositoryWorkerPool, meterRegistry );
+		cut.register( repoConfig, localRepo );
+	}
+
+	@AfterEach
+	void tearDown() {
+		localRepo.close();
+		cut.shutdown();
+	}
+
+	@Test
+	void object_store_should_be_exported_as_gauges() {
+		assertThat( looseObjects() ).isGreaterThan( 5 );
+		assertThat( meterRegistry.get( "rebazer.git.pack.files" ).gauge().value() ).isZero();
+		assertThat( meterRegistry.get( "rebazer.git.object.bytes" ).tag( "storage", "loose" ).gauge().value() )
+				.isPositive();
+	}
+
+	@Test
+	void repository_with_many_loose_objects_should_be_packed() {
+		assertThat( cut.maintain( repoConfig, localRepo ) ).isTrue();
+
+		assertThat( looseObjects() ).isZero();
+		assertThat( meterRegistry.get( "rebazer.git.pack.files" ).gauge().value() ).isEqualTo( 1 );
+		assertThat( cut.maintain( repoConfig, localRepo ) ).isFalse();
+	}
+
+	@Test
+	void busy_repository_should_be_skipped() {
+		when( repositoryWorkerPool.isBusy( repoConfig ) ).thenReturn( true );
+
+		assertThat( cut.maintain( repoConfig, localRepo ) ).isFalse();
+		assertThat( looseObjects() ).isGreaterThan( 5 );
+	}
+
+	@Test
+	void locked_repository_should_be_skipped() throws Exception {
+		final CountDownLatch locked = new CountDownLatch( 1 );
+		final CountDownLatch done = new CountDownLatch( 1 );
+		final Thread rebase = new Thread( () -> repositoryLocks.runLocked( repoConfig, () -> {
+			locked.countDown();
+			try {
+				done.await();
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		} ) );
+		rebase.start();
+		locked.await();
+
+		assertThat( cut.maintain( repoConfig, localRepo ) ).isFalse();
+		assertThat( looseObjects() ).isGreaterThan( 5 );
+
+		done.countDown();
+		rebase.join();
+	}
+
+	private double looseObjects() {
+		return meterRegistry.get( "rebazer.git.loose.objects" ).gauge().value();
+	}
+
+}
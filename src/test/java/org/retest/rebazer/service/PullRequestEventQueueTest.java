@@ -0,0 +1,53 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.domain.PullRequestTargets;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+class PullRequestEventQueueTest {
+
+	RepositoryConfig repoConfig;
+
+	PullRequestEventQueue cut;
+
+	@BeforeEach
+	void setUp() {
+		repoConfig = mock( RepositoryConfig.class );
+		cut = new PullRequestEventQueue();
+	}
+
+	@Test
+	void burst_of_events_should_be_coalesced() {
+		cut.enqueue( repoConfig, PullRequestTargets.builder().pullRequestId( 1 ).build() );
+		cut.enqueue( repoConfig, PullRequestTargets.builder().pullRequestId( 1 ).build() );
+		cut.enqueue( repoConfig, PullRequestTargets.builder().pullRequestId( 2 ).branch( "main" ).build() );
+
+		assertThat( cut.getPendingRepos() ).containsExactly( repoConfig );
+		assertThat( cut.take( repoConfig ) ).isEqualTo(
+				PullRequestTargets.builder().pullRequestId( 1 ).pullRequestId( 2 ).branch( "main" ).build() );
+		assertThat( cut.take( repoConfig ) ).isNull();
+		assertThat( cut.getPendingRepos() ).isEmpty();
+	}
+
+	@Test
+	void events_of_different_repos_should_be_kept_apart() {
+		final RepositoryConfig otherRepoConfig = mock( RepositoryConfig.class );
+		cut.enqueue( repoConfig, PullRequestTargets.builder().pullRequestId( 1 ).build() );
+		cut.enqueue( otherRepoConfig, PullRequestTargets.builder().pullRequestId( 2 ).build() );
+
+		assertThat( cut.take( repoConfig ) ).isEqualTo( PullRequestTargets.builder().pullRequestId( 1 ).build() );
+		assertThat( cut.take( otherRepoConfig ) ).isEqualTo( PullRequestTargets.builder().pullRequestId( 2 ).build() );
+	}
+
+	@Test
+	void empty_events_should_be_ignored() {
+		cut.enqueue( repoConfig, PullRequestTargets.builder().build() );
+
+		assertThat( cut.getPendingRepos() ).isEmpty();
+	}
+
+}
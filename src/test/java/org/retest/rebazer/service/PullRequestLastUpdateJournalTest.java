@@ -0,0 +1,70 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PullRequestLastUpdateJournalTest {
+
+	@TempDir
+	Path workspace;
+
+	@Test
+	void changes_should_be_replayed() throws Exception {
+		try ( final PullRequestLastUpdateJournal cut = new PullRequestLastUpdateJournal( workspace ) ) {
+			cut.handled( "github.com/retest/a", 1, new Date( 1000 ) );
+			cut.handled( "github.com/retest/a", 2, new Date( 2000 ) );
+			cut.handled( "github.com/retest/a", 1, new Date( 3000 ) );
+			cut.resetPullRequest( "github.com/retest/a", 2 );
+			cut.handled( "github.com/retest/b", 1, new Date( 4000 ) );
+			cut.resetRepo( "github.com/retest/b" );
+		}
+
+		final Map<String, Map<Integer, Date>> state = new PullRequestLastUpdateJournal( workspace ).load();
+
+		assertThat( state ).containsOnlyKeys( "github.com/retest/a" );
+		assertThat( state.get( "github.com/retest/a" ) ).containsOnlyKeys( 1 ).containsEntry( 1, new Date( 3000 ) );
+	}
+
+	@Test
+	void incomplete_last_line_should_be_ignored() throws Exception {
+		try ( final PullRequestLastUpdateJournal cut = new PullRequestLastUpdateJournal( workspace ) ) {
+			cut.handled( "github.com/retest/a", 1, new Date( 1000 ) );
+		}
+		Files.write( workspace.resolve( PullRequestLastUpdateJournal.FILE_NAME ),
+				"H\tgithub.com/retest/a\t2\t20".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+		Files.write( workspace.resolve( PullRequestLastUpdateJournal.FILE_NAME ),
+				"H\tgithub.com/retest/a\t3".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+
+		final Map<String, Map<Integer, Date>> state = new PullRequestLastUpdateJournal( workspace ).load();
+
+		assertThat( state.get( "github.com/retest/a" ) ).containsOnlyKeys( 1 );
+	}
+
+	@Test
+	void compact_should_keep_one_line_per_pull_request() throws Exception {
+		final PullRequestLastUpdateJournal cut = new PullRequestLastUpdateJournal( workspace );
+		for ( int i = 0; i < 1000; i++ ) {
+			cut.handled( "github.com/retest/a", i % 10, new Date( i ) );
+		}
+		final Map<String, Map<Integer, Date>> state = cut.load();
+		assertThat( cut.needsCompaction( 10 ) ).isTrue();
+
+		cut.compact( state );
+		cut.handled( "github.com/retest/a", 10, new Date( 1000 ) );
+		cut.close();
+
+		assertThat( Files.readAllLines( workspace.resolve( PullRequestLastUpdateJournal.FILE_NAME ) ) ).hasSize( 11 );
+		assertThat( new PullRequestLastUpdateJournal( workspace ).load().get( "github.com/retest/a" ) ).hasSize( 11 )
+				.containsEntry( 9, new Date( 999 ) );
+	}
+
+}
@@ -4,14 +4,23 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.net.URL;
+import java.nio.file.Path;
 import java.time.OffsetDateTime;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.retest.rebazer.config.RebazerConfig;
 import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
 import org.retest.rebazer.domain.RepositoryConfig;
 
 class PullRequestLastUpdateStoreTest {
@@ -51,6 +60,66 @@ class PullRequestLastUpdateStoreTest {
 		assertThat( cut.isHandled( repoConfig, pr ) ).isFalse();
 	}
 
+	@Test
+	void resetDestination_should_keep_pull_requests_into_other_destinations() {
+		when( pr.getDestination() ).thenReturn( "develop" );
+		cut.setHandled( repoConfig, pr );
+		cut.resetDestination( repoConfig, "main" );
+		assertThat( cut.isHandled( repoConfig, pr ) ).isTrue();
+		assertThat( cut.isRebaseCheckPending( repoConfig, pr ) ).isFalse();
+	}
+
+	@Test
+	void resetDestination_should_reset_pull_requests_into_the_destination() {
+		when( pr.getDestination() ).thenReturn( "main" );
+		cut.setHandled( repoConfig, pr );
+		cut.resetDestination( repoConfig, "main" );
+		assertThat( cut.isHandled( repoConfig, pr ) ).isFalse();
+		assertThat( cut.isRebaseCheckPending( repoConfig, pr ) ).isFalse();
+	}
+
+	@Test
+	void resetDestination_should_only_request_rebase_check_if_waiting_for_approval() {
+		when( pr.getDestination() ).thenReturn( "main" );
+		cut.setHandled( repoConfig, pr, PullRequestState.WAITING_FOR_APPROVAL );
+		cut.resetDestination( repoConfig, "main" );
+		assertThat( cut.isHandled( repoConfig, pr ) ).isFalse();
+		assertThat( cut.isRebaseCheckPending( repoConfig, pr ) ).isTrue();
+
+		cut.setHandled( repoConfig, pr, PullRequestState.WAITING_FOR_APPROVAL );
+		assertThat( cut.isHandled( repoConfig, pr ) ).isTrue();
+		assertThat( cut.isRebaseCheckPending( repoConfig, pr ) ).isFalse();
+	}
+
+	@Test
+	void getLastKnownState_should_outlive_resets() {
+		when( pr.getDestination() ).thenReturn( "main" );
+		assertThat( cut.getLastKnownState( repoConfig, pr ) ).isEqualTo( PullRequestState.UNKNOWN );
+
+		cut.setHandled( repoConfig, pr, PullRequestState.WAITING_FOR_BUILD );
+		cut.resetDestination( repoConfig, "main" );
+		assertThat( cut.getLastKnownState( repoConfig, pr ) ).isEqualTo( PullRequestState.WAITING_FOR_BUILD );
+
+		cut.setHandled( repoConfig, pr, PullRequestState.WAITING_FOR_APPROVAL );
+		cut.resetDestination( repoConfig, "main" );
+		assertThat( cut.getLastKnownState( repoConfig, pr ) ).isEqualTo( PullRequestState.REBASE_CANDIDATE );
+
+		cut.setLastKnownState( repoConfig, pr, PullRequestState.MERGE_READY );
+		assertThat( cut.getLastKnownState( repoConfig, pr ) ).isEqualTo( PullRequestState.MERGE_READY );
+		assertThat( cut.isHandled( repoConfig, pr ) ).isFalse();
+	}
+
+	@Test
+	void isRebaseCheckPending_should_return_false_if_pr_did_change() {
+		when( pr.getDestination() ).thenReturn( "main" );
+		cut.setHandled( repoConfig, pr, PullRequestState.WAITING_FOR_APPROVAL );
+		cut.resetDestination( repoConfig, "main" );
+
+		final Date newDate = Date.from( OffsetDateTime.parse( "2017-11-30T10:22:55+00:00" ).toInstant() );
+		when( pr.getLastUpdate() ).thenReturn( newDate );
+		assertThat( cut.isRebaseCheckPending( repoConfig, pr ) ).isFalse();
+	}
+
 	@Test
 	void isHandled_should_return_false_if_pr_did_change() {
 		cut.setHandled( repoConfig, pr );
@@ -72,6 +141,100 @@ class PullRequestLastUpdateStoreTest {
 
 	}
 
+	@Test
+	void setHandled_should_keep_all_entries_when_called_concurrently_for_different_repos() throws Exception {
+		final RepositoryConfig otherRepoConfig = mock( RepositoryConfig.class );
+		final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		for ( int i = 0; i < 500; i++ ) {
+			final PullRequest pullRequest = PullRequest.builder().id( i ).lastUpdate( pr.getLastUpdate() ).build();
+			executor.execute( () -> cut.setHandled( repoConfig, pullRequest ) );
+			executor.execute( () -> cut.setHandled( otherRepoConfig, pullRequest ) );
+		}
+		executor.shutdown();
+		assertThat( executor.awaitTermination( 10, TimeUnit.SECONDS ) ).isTrue();
+
+		for ( int i = 0; i < 500; i++ ) {
+			final PullRequest pullRequest = PullRequest.builder().id( i ).lastUpdate( pr.getLastUpdate() ).build();
+			assertThat( cut.isHandled( repoConfig, pullRequest ) ).isTrue();
+			assertThat( cut.isHandled( otherRepoConfig, pullRequest ) ).isTrue();
+		}
+	}
+
+	@Test
+	void persisted_state_should_survive_restart( @TempDir final Path workspace ) throws Exception {
+		final RebazerConfig config = new RebazerConfig();
+		config.setPersistChangeDetection( true );
+		config.setWorkspace( workspace.toString() );
+		final RepositoryConfig persistedRepoConfig = RepositoryConfig.builder()
+				.gitHost( new URL( "https://github.com" ) ).team( "retest" ).repo( "rebazer" ).build();
+		final PullRequest otherPr = PullRequest.builder().id( 2 ).lastUpdate( pr.getLastUpdate() ).build();
+		cut = new PullRequestLastUpdateStore( config );
+		cut.setHandled( persistedRepoConfig, pr );
+		cut.setHandled( persistedRepoConfig, otherPr );
+		cut.resetPullRequest( persistedRepoConfig, otherPr );
+		cut.close();
+
+		cut = new PullRequestLastUpdateStore( config );
+
+		assertThat( cut.isHandled( persistedRepoConfig, pr ) ).isTrue();
+		assertThat( cut.isHandled( persistedRepoConfig, otherPr ) ).isFalse();
+		cut.close();
+	}
+
+	@Test
+	void retainOpen_should_forget_closed_pull_requests_of_the_repo_only() {
+		final RepositoryConfig otherRepoConfig = mock( RepositoryConfig.class );
+		final PullRequest openPr = PullRequest.builder().id( 2 ).lastUpdate( pr.getLastUpdate() ).build();
+		cut.setHandled( repoConfig, pr, PullRequestState.MERGE_READY );
+		cut.setHandled( repoConfig, openPr, PullRequestState.WAITING_FOR_BUILD );
+		cut.setHandled( otherRepoConfig, pr, PullRequestState.MERGE_READY );
+
+		cut.retainOpen( repoConfig, Collections.singletonList( openPr ) );
+
+		assertThat( cut.getLastKnownState( repoConfig, pr ) ).isEqualTo( PullRequestState.UNKNOWN );
+		assertThat( cut.isHandled( repoConfig, pr ) ).isFalse();
+		assertThat( cut.getLastKnownState( repoConfig, openPr ) ).isEqualTo( PullRequestState.WAITING_FOR_BUILD );
+		assertThat( cut.isHandled( repoConfig, openPr ) ).isTrue();
+		assertThat( cut.getLastKnownState( otherRepoConfig, pr ) ).isEqualTo( PullRequestState.MERGE_READY );
+	}
+
+	@Test
+	void retainOpen_should_forget_closed_pull_requests_in_the_journal( @TempDir final Path workspace )
+			throws Exception {
+		final RebazerConfig config = new RebazerConfig();
+		config.setPersistChangeDetection( true );
+		config.setWorkspace( workspace.toString() );
+		final RepositoryConfig persistedRepoConfig = RepositoryConfig.builder()
+				.gitHost( new URL( "https://github.com" ) ).team( "retest" ).repo( "rebazer" ).build();
+		final PullRequest closedPr = PullRequest.builder().id( 2 ).lastUpdate( pr.getLastUpdate() ).build();
+		cut = new PullRequestLastUpdateStore( config );
+		cut.setHandled( persistedRepoConfig, pr, PullRequestState.WAITING_FOR_BUILD );
+		cut.setHandled( persistedRepoConfig, closedPr, PullRequestState.MERGE_READY );
+
+		cut.retainOpen( persistedRepoConfig, Collections.singletonList( pr ) );
+
+		assertThat( cut.getLastKnownState( persistedRepoConfig, closedPr ) ).isEqualTo( PullRequestState.UNKNOWN );
+		assertThat( cut.getLastKnownState( persistedRepoConfig, pr ) ).isEqualTo( PullRequestState.WAITING_FOR_BUILD );
+		cut.close();
+
+		cut = new PullRequestLastUpdateStore( config );
+
+		assertThat( cut.isHandled( persistedRepoConfig, pr ) ).isTrue();
+		assertThat( cut.isHandled( persistedRepoConfig, closedPr ) ).isFalse();
+		cut.close();
+	}
+
+	@Test
+	void in_memory_state_should_be_the_default( @TempDir final Path workspace ) {
+		final RebazerConfig config = new RebazerConfig();
+		config.setWorkspace( workspace.toString() );
+
+		cut = new PullRequestLastUpdateStore( config );
+		cut.setHandled( repoConfig, pr );
+
+		assertThat( workspace ).isEmptyDirectory();
+	}
+
 	@Test
 	@SuppressWarnings( "static-method" )
 	void computeIfAbsent_should_add_value_if_key_not_exist() {
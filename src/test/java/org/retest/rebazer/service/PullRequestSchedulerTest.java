@@ -0,0 +1,94 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.PullRequestState;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+class PullRequestSchedulerTest {
+
+	RepositoryConfig repoConfig;
+	RepositoryConfig otherRepoConfig;
+	PullRequestLastUpdateStore store;
+
+	PullRequestScheduler cut;
+
+	@BeforeEach
+	void setUp() {
+		repoConfig = mock( RepositoryConfig.class );
+		otherRepoConfig = mock( RepositoryConfig.class );
+		store = new PullRequestLastUpdateStore();
+		cut = new PullRequestScheduler( store, PullRequestPriority.CLOSEST_TO_MERGE );
+	}
+
+	@Test
+	void order_should_handle_pull_requests_closest_to_merge_first() {
+		final PullRequest unknown = pullRequest( 1, "2021-03-04T00:00:00Z" );
+		final PullRequest waitingForBuild = pullRequest( 2, "2021-03-03T00:00:00Z" );
+		final PullRequest rebaseCandidate = pullRequest( 3, "2021-03-02T00:00:00Z" );
+		final PullRequest mergeReady = pullRequest( 4, "2021-03-01T00:00:00Z" );
+		store.setHandled( repoConfig, waitingForBuild, PullRequestState.WAITING_FOR_BUILD );
+		store.setHandled( repoConfig, rebaseCandidate, PullRequestState.REBASE_CANDIDATE );
+		store.setLastKnownState( repoConfig, mergeReady, PullRequestState.MERGE_READY );
+
+		assertThat( cut.order( repoConfig, Arrays.asList( unknown, waitingForBuild, rebaseCandidate, mergeReady ) ) )
+				.containsExactly( mergeReady, rebaseCandidate, waitingForBuild, unknown );
+	}
+
+	@Test
+	void order_should_handle_stale_pull_requests_last() {
+		final PullRequest stale = pullRequest( 1, "2019-06-01T00:00:00Z" );
+		final PullRequest recent = pullRequest( 2, "2021-03-01T00:00:00Z" );
+
+		assertThat( cut.order( repoConfig, Arrays.asList( stale, recent ) ) ).containsExactly( recent, stale );
+	}
+
+	@Test
+	void order_should_use_the_given_priority() {
+		final PullRequest first = pullRequest( 1, "2021-03-01T00:00:00Z" );
+		final PullRequest second = pullRequest( 2, "2021-03-01T00:00:00Z" );
+		cut = new PullRequestScheduler( store, ( pullRequest, lastKnownState ) -> -pullRequest.getId() );
+
+		assertThat( cut.order( repoConfig, Arrays.asList( first, second ) ) ).containsExactly( second, first );
+	}
+
+	@Test
+	void orderRepositories_should_handle_repository_with_merge_ready_pull_request_first() {
+		final PullRequest waitingForBuild = pullRequest( 1, "2021-03-01T00:00:00Z" );
+		final PullRequest mergeReady = pullRequest( 1, "2021-03-01T00:00:00Z" );
+		store.setHandled( repoConfig, waitingForBuild, PullRequestState.WAITING_FOR_BUILD );
+		store.setLastKnownState( otherRepoConfig, mergeReady, PullRequestState.MERGE_READY );
+		cut.order( repoConfig, Arrays.asList( waitingForBuild ) );
+		cut.order( otherRepoConfig, Arrays.asList( mergeReady ) );
+
+		assertThat( cut.orderRepositories( Arrays.asList( repoConfig, otherRepoConfig ) ) )
+				.containsExactly( otherRepoConfig, repoConfig );
+	}
+
+	@Test
+	void orderRepositories_should_keep_order_of_unknown_repositories() {
+		final RepositoryConfig unknownRepoConfig = mock( RepositoryConfig.class );
+		cut.order( otherRepoConfig, Arrays.asList( pullRequest( 1, "2021-03-01T00:00:00Z" ) ) );
+
+		assertThat( cut.orderRepositories( Arrays.asList( unknownRepoConfig, repoConfig, otherRepoConfig ) ) )
+				.containsExactly( otherRepoConfig, unknownRepoConfig, repoConfig );
+	}
+
+	private static PullRequest pullRequest( final int id, final String lastUpdate ) {
+		return PullRequest.builder() //
+				.id( id ) //
+				.source( "feature/" + id ) //
+				.destination( "main" ) //
+				.reviewers( new HashMap<>() ) //
+				.lastUpdate( PullRequestLastUpdateStore.parseStringToDate( lastUpdate ) ) //
+				.build();
+	}
+
+}
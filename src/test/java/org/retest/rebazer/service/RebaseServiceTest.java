@@ -0,0 +1,433 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.retest.rebazer.RepositoryHostingTypes;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.PullRequest;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RebaseServiceTest {
+
+	@TempDir
+	Path temp;
+
+	Git origin;
+	RepositoryConfig repoConfig;
+	RebazerConfig rebazerConfig;
+	SimpleMeterRegistry meterRegistry;
+	RebazerConfig cleanerConfig;
+	RepositoryLocks repositoryLocks;
+
+	RebaseService cut;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		final File originFolder = temp.resolve( "origin/retest/demo.git" ).toFile();
+		origin = Git.init().setDirectory( originFolder ).call();
+		// a detached auto gc after receiving the pushes would race with deleting the temp folder
+		origin.getRepository().getConfig().setInt( ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_AUTO, 0 );
+		origin.getRepository().getConfig().setBoolean( ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_AUTODETACH, false );
+		origin.getRepository().getConfig().save();
+		commit( "initial" );
+		origin.branchCreate().setName( "feature/outdated" ).call();
+		commit( "main moved on" );
+		origin.branchCreate().setName( "feature/uptodate" ).call();
+
+		repoConfig = RepositoryConfig.builder() //
+				.type( RepositoryHostingTypes.GITHUB ) //
+				.gitHost( temp.resolve( "origin" ).toUri().toURL() ) //
+				.team( "retest" ) //
+				.repo( "demo" ) //
+				.user( "user" ) //
+				.pass( "pass" ) //
+				.mainBranch( "master" ) //
+				.worktrees( 2 ) //
+				.build();
+		rebazerConfig = mock( RebazerConfig.class );
+		when( rebazerConfig.getWorkspace() ).thenReturn( temp.resolve( "workspace" ).toString() );
+		when( rebazerConfig.getRepos() ).thenReturn( Collections.singletonList( repoConfig ) );
+		when( rebazerConfig.isLocalRebaseCheck() ).thenReturn( true );
+
+		meterRegistry = new SimpleMeterRegistry();
+		cleanerConfig = new RebazerConfig();
+		cut = newRebaseService();
+	}
+
+	RebaseService newRebaseService() {
+		repositoryLocks = new RepositoryLocks();
+		final GitMaintenance maintenance = new GitMaintenance( new RebazerConfig(), repositoryLocks,
+				new RepositoryWorkerPool( new RebazerConfig() ), meterRegistry );
+		final RebaseService rebaseService = new RebaseService( rebazerConfig,
+				new GitRepoCleaner( cleanerConfig, meterRegistry ), repositoryLocks, maintenance, meterRegistry );
+		rebazerConfig.getRepos().forEach( rebaseService::awaitSetup );
+		return rebaseService;
+	}
+
+	@AfterEach
+	void tearDown() {
+		origin.close();
+	}
+
+	@Test
+	void rebaseNeeded_should_check_if_destination_tip_is_ancestor_of_source() {
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( true );
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/uptodate" ) ) ).contains( false );
+	}
+
+	@Test
+	void rebaseNeeded_should_see_changes_only_after_fetch() throws Exception {
+		final PullRequest uptodate = pullRequest( "feature/uptodate" );
+		cut.fetch( repoConfig, Collections.singletonList( uptodate ) );
+		commit( "main moved again" );
+
+		assertThat( cut.rebaseNeeded( repoConfig, uptodate ) ).contains( false );
+		cut.invalidate( repoConfig, "master" );
+		assertThat( cut.rebaseNeeded( repoConfig, uptodate ) ).contains( true );
+	}
+
+	@Test
+	void branches_should_be_fetched_once_per_cycle() throws Exception {
+		commit( "main moved again" );
+		final List<PullRequest> pullRequests =
+				Arrays.asList( pullRequest( "feature/outdated" ), pullRequest( "feature/uptodate" ) );
+
+		cut.fetch( repoConfig, pullRequests );
+		cut.rebaseNeeded( repoConfig, pullRequests.get( 0 ) );
+		cut.rebaseNeeded( repoConfig, pullRequests.get( 1 ) );
+
+		assertThat( meterRegistry.get( "rebazer.git.fetch.duration" ).tags( RepositoryTags.of( repoConfig ) ).timer()
+				.count() ).isEqualTo( 1 );
+		assertThat( meterRegistry.get( "rebazer.git.fetch.bytes" ).summary().totalAmount() ).isPositive();
+	}
+
+	@Test
+	void unknown_branch_should_fall_back_to_the_api() {
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/unknown" ) ) ).isEmpty();
+	}
+
+	@Test
+	void in_memory_rebase_should_replay_commits_onto_destination() throws Exception {
+		when( rebazerConfig.isInMemoryRebase() ).thenReturn( true );
+		cut = newRebaseService();
+		commitFile( "feature/outdated", "feature.txt", "feature" );
+		commitFile( "master", "master.txt", "master" );
+
+		assertThat( cut.rebase( repoConfig, pullRequest( "feature/outdated" ) ) ).isTrue();
+
+		final Repository repository = origin.getRepository();
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			final RevCommit rebased = walk.parseCommit( repository.resolve( "feature/outdated" ) );
+			assertThat( rebased.getFullMessage() ).isEqualTo( "feature.txt" );
+			assertThat( rebased.getParent( 0 ) ).isEqualTo( repository.resolve( "master" ) );
+			assertThat( TreeWalk.forPath( repository, "master.txt", rebased.getTree() ) ).isNotNull();
+			assertThat( TreeWalk.forPath( repository, "feature.txt", rebased.getTree() ) ).isNotNull();
+		}
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( false );
+	}
+
+	@Test
+	void in_memory_rebase_should_report_conflicts_without_pushing() throws Exception {
+		when( rebazerConfig.isInMemoryRebase() ).thenReturn( true );
+		cut = newRebaseService();
+		commitFile( "feature/outdated", "file.txt", "feature" );
+		commitFile( "master", "file.txt", "master" );
+		final ObjectId before = origin.getRepository().resolve( "feature/outdated" );
+
+		assertThat( cut.rebase( repoConfig, pullRequest( "feature/outdated" ) ) ).isFalse();
+
+		assertThat( origin.getRepository().resolve( "feature/outdated" ) ).isEqualTo( before );
+	}
+
+	@Test
+	void rebaseOnto_should_stack_and_unstack_pull_requests() throws Exception {
+		commitFile( "feature/outdated", "first.txt", "first" );
+		commitFile( "feature/uptodate", "second.txt", "second" );
+		final PullRequest first = pullRequest( "feature/outdated" );
+		final PullRequest second = pullRequest( "feature/uptodate" );
+
+		assertThat( cut.rebaseOnto( repoConfig, first, "master", "master" ) ).isTrue();
+		assertThat( cut.rebaseOnto( repoConfig, second, "master", "feature/outdated" ) ).isTrue();
+
+		final Repository repository = origin.getRepository();
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			final RevCommit stacked = walk.parseCommit( repository.resolve( "feature/uptodate" ) );
+			assertThat( stacked.getParent( 0 ) ).isEqualTo( repository.resolve( "feature/outdated" ) );
+		}
+		// the first pull request is ejected from the train
+		assertThat( cut.rebaseOnto( repoConfig, second, "feature/outdated", "master" ) ).isTrue();
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			final RevCommit unstacked = walk.parseCommit( repository.resolve( "feature/uptodate" ) );
+			assertThat( unstacked.getParent( 0 ) ).isEqualTo( repository.resolve( "master" ) );
+			assertThat( TreeWalk.forPath( repository, "first.txt", unstacked.getTree() ) ).isNull();
+			assertThat( TreeWalk.forPath( repository, "second.txt", unstacked.getTree() ) ).isNotNull();
+		}
+	}
+
+	@Test
+	void rebaseOnto_should_drop_commits_up_to_former_head() throws Exception {
+		commitFile( "feature/outdated", "first.txt", "first" );
+		commitFile( "feature/uptodate", "second.txt", "second" );
+		final PullRequest second = pullRequest( "feature/uptodate" );
+		cut.rebaseOnto( repoConfig, pullRequest( "feature/outdated" ), "master", "master" );
+		cut.rebaseOnto( repoConfig, second, "master", "feature/outdated" );
+		final Repository repository = origin.getRepository();
+		final String formerHead = cut.getHead( repoConfig, "feature/outdated" ).get();
+		assertThat( formerHead ).isEqualTo( repository.resolve( "feature/outdated" ).getName() );
+
+		// the first pull request is force pushed
+		origin.branchCreate().setName( "feature/outdated" ).setStartPoint( "master" ).setForce( true ).call();
+		commitFile( "feature/outdated", "amended.txt", "amended" );
+		assertThat( cut.rebaseOnto( repoConfig, second, formerHead, "feature/outdated" ) ).isTrue();
+
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			final RevCommit restacked = walk.parseCommit( repository.resolve( "feature/uptodate" ) );
+			assertThat( restacked.getParent( 0 ) ).isEqualTo( repository.resolve( "feature/outdated" ) );
+			assertThat( TreeWalk.forPath( repository, "first.txt", restacked.getTree() ) ).isNull();
+			assertThat( TreeWalk.forPath( repository, "second.txt", restacked.getTree() ) ).isNotNull();
+		}
+	}
+
+	@Test
+	void bare_workspace_should_convert_checkout_and_rebase_without_working_tree() throws Exception {
+		final File repoFolder = FileUtils.getFile( temp.resolve( "workspace" ).toFile(), repoConfig.getQualifiers() );
+		assertThat( new File( repoFolder, ".git" ) ).isDirectory();
+
+		when( rebazerConfig.isBareWorkspace() ).thenReturn( true );
+		cut = newRebaseService();
+		commitFile( "feature/outdated", "feature.txt", "feature" );
+
+		try ( final Git converted = Git.open( repoFolder ) ) {
+			assertThat( converted.getRepository().isBare() ).isTrue();
+		}
+		assertThat( cut.rebase( repoConfig, pullRequest( "feature/outdated" ) ) ).isTrue();
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( false );
+		assertThat( meterRegistry.get( "rebazer.rebase.duration" ).tag( "engine", "in-memory" ).timer().count() )
+				.isEqualTo( 1 );
+	}
+
+	@Test
+	void bare_workspace_should_clone_bare() throws Exception {
+		when( rebazerConfig.isBareWorkspace() ).thenReturn( true );
+		when( rebazerConfig.getWorkspace() ).thenReturn( temp.resolve( "bare" ).toString() );
+		cut = newRebaseService();
+
+		final File repoFolder = FileUtils.getFile( temp.resolve( "bare" ).toFile(), repoConfig.getQualifiers() );
+		try ( final Git bare = Git.open( repoFolder ) ) {
+			assertThat( bare.getRepository().isBare() ).isTrue();
+			assertThat( bare.getRepository().resolve( "refs/remotes/origin/feature/uptodate" ) ).isNotNull();
+		}
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( true );
+		assertThat( meterRegistry.get( "rebazer.workspace.bytes" ).gauge().value() ).isPositive();
+	}
+
+	@Test
+	void single_branch_clone_should_fetch_pull_request_branches_lazily() throws Exception {
+		when( rebazerConfig.isLocalRebaseCheck() ).thenReturn( false );
+		when( rebazerConfig.isSingleBranchClone() ).thenReturn( true );
+		when( rebazerConfig.getWorkspace() ).thenReturn( temp.resolve( "single" ).toString() );
+		meterRegistry = new SimpleMeterRegistry();
+		cut = newRebaseService();
+
+		final File repoFolder = FileUtils.getFile( temp.resolve( "single" ).toFile(), repoConfig.getQualifiers() );
+		try ( final Git clone = Git.open( repoFolder ) ) {
+			assertThat( clone.getRepository().resolve( "refs/remotes/origin/master" ) ).isNotNull();
+			assertThat( clone.getRepository().resolve( "refs/remotes/origin/feature/outdated" ) ).isNull();
+		}
+		commitFile( "master", "master.txt", "master" );
+		assertThat( cut.rebase( repoConfig, pullRequest( "feature/outdated" ) ) ).isTrue();
+		assertThat( meterRegistry.get( "rebazer.git.clone.duration" ).timer().count() ).isEqualTo( 1 );
+	}
+
+	@Test
+	void missing_repos_should_be_cloned_in_parallel() throws Exception {
+		try ( final Git other = Git.init().setDirectory( temp.resolve( "origin/retest/other.git" ).toFile() ).call() ) {
+			other.commit().setMessage( "initial" ).setAllowEmpty( true ).call();
+		}
+		final RepositoryConfig otherConfig = RepositoryConfig.builder() //
+				.type( RepositoryHostingTypes.GITHUB ) //
+				.gitHost( temp.resolve( "origin" ).toUri().toURL() ) //
+				.team( "retest" ) //
+				.repo( "other" ) //
+				.user( "user" ) //
+				.pass( "pass" ) //
+				.mainBranch( "master" ) //
+				.build();
+		when( rebazerConfig.getRepos() ).thenReturn( Arrays.asList( repoConfig, otherConfig ) );
+		when( rebazerConfig.getCloneThreads() ).thenReturn( 2 );
+		when( rebazerConfig.getWorkspace() ).thenReturn( temp.resolve( "parallel" ).toString() );
+		meterRegistry = new SimpleMeterRegistry();
+		cut = newRebaseService();
+
+		for ( final RepositoryConfig config : Arrays.asList( repoConfig, otherConfig ) ) {
+			assertThat( meterRegistry.get( "rebazer.git.clone.duration" ).tag( "repo", config.getRepo() ).timer()
+					.count() ).isEqualTo( 1 );
+		}
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( true );
+	}
+
+	@Test
+	void unreachable_repo_should_not_affect_other_repos() throws Exception {
+		final RepositoryConfig unreachable = RepositoryConfig.builder() //
+				.type( RepositoryHostingTypes.GITHUB ) //
+				.gitHost( temp.resolve( "unreachable" ).toUri().toURL() ) //
+				.team( "retest" ) //
+				.repo( "gone" ) //
+				.user( "user" ) //
+				.pass( "pass" ) //
+				.mainBranch( "master" ) //
+				.worktrees( 2 ) //
+				.build();
+		when( rebazerConfig.getRepos() ).thenReturn( Arrays.asList( unreachable, repoConfig ) );
+		when( rebazerConfig.getWorkspace() ).thenReturn( temp.resolve( "lazy" ).toString() );
+		cut = newRebaseService();
+
+		assertThat( cut.getSetupState( unreachable ) ).isEqualTo( RebaseService.SetupState.FAILED );
+		assertThat( cut.getSetupState( repoConfig ) ).isEqualTo( RebaseService.SetupState.READY );
+		assertThat( cut.rebaseNeeded( unreachable, pullRequest( "feature/outdated" ) ) ).isEmpty();
+		assertThat( cut.rebase( unreachable, pullRequest( "feature/outdated" ) ) ).isFalse();
+		assertThat( cut.rebaseAsync( unreachable, pullRequest( "feature/outdated" ) ).join() ).isFalse();
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( true );
+	}
+
+	@Test
+	void failed_setup_should_be_retried_by_fetch() throws Exception {
+		final RepositoryConfig late = RepositoryConfig.builder() //
+				.type( RepositoryHostingTypes.GITHUB ) //
+				.gitHost( temp.resolve( "late" ).toUri().toURL() ) //
+				.team( "retest" ) //
+				.repo( "demo" ) //
+				.user( "user" ) //
+				.pass( "pass" ) //
+				.mainBranch( "master" ) //
+				.build();
+		when( rebazerConfig.getRepos() ).thenReturn( Collections.singletonList( late ) );
+		when( rebazerConfig.getWorkspace() ).thenReturn( temp.resolve( "retry" ).toString() );
+		cut = newRebaseService();
+		assertThat( cut.getSetupState( late ) ).isEqualTo( RebaseService.SetupState.FAILED );
+		try ( final Git created = Git.init().setDirectory( temp.resolve( "late/retest/demo.git" ).toFile() ).call() ) {
+			created.commit().setMessage( "initial" ).setAllowEmpty( true ).call();
+		}
+
+		cut.fetch( late, Collections.emptyList() );
+
+		assertThat( cut.getSetupState( late ) ).isNotEqualTo( RebaseService.SetupState.FAILED );
+		assertThat( cut.awaitSetup( late ) ).isTrue();
+	}
+
+	@Test
+	void rebaseAsync_should_rebase_concurrently_in_worktrees() throws Exception {
+		commitFile( "feature/outdated", "outdated.txt", "outdated" );
+		commitFile( "feature/uptodate", "uptodate.txt", "uptodate" );
+		commitFile( "master", "master.txt", "master" );
+
+		final CompletableFuture<Boolean> outdated = cut.rebaseAsync( repoConfig, pullRequest( "feature/outdated" ) );
+		final CompletableFuture<Boolean> uptodate = cut.rebaseAsync( repoConfig, pullRequest( "feature/uptodate" ) );
+		CompletableFuture.allOf( outdated, uptodate ).join();
+
+		assertThat( outdated ).isCompletedWithValue( true );
+		assertThat( uptodate ).isCompletedWithValue( true );
+		final Repository repository = origin.getRepository();
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			for ( final String branch : Arrays.asList( "feature/outdated", "feature/uptodate" ) ) {
+				final RevCommit rebased = walk.parseCommit( repository.resolve( branch ) );
+				assertThat( rebased.getParent( 0 ) ).isEqualTo( repository.resolve( "master" ) );
+			}
+		}
+		assertThat( cut.rebaseNeeded( repoConfig, pullRequest( "feature/outdated" ) ) ).contains( false );
+		final File repoFolder = FileUtils.getFile( temp.resolve( "workspace" ).toFile(), repoConfig.getQualifiers() );
+		assertThat( new File( repoFolder.getParentFile(), "demo.worktrees" ).list() ).hasSize( 2 );
+	}
+
+	@Test
+	void concurrent_in_memory_rebases_should_leave_gc_to_the_last_one() throws Exception {
+		when( rebazerConfig.isInMemoryRebase() ).thenReturn( true );
+		cleanerConfig.setBackgroundGitMaintenance( false );
+		cleanerConfig.setGarbageCollectionCountdown( 1 );
+		cut = newRebaseService();
+		commitFile( "feature/outdated", "outdated.txt", "outdated" );
+		commitFile( "feature/uptodate", "uptodate.txt", "uptodate" );
+		commitFile( "master", "master.txt", "master" );
+		final long gcsBefore = gcCount();
+
+		// both rebases are in flight before either of them finishes
+		final ReentrantLock lock = repositoryLocks.lockFor( repoConfig );
+		final CompletableFuture<Boolean> outdated;
+		final CompletableFuture<Boolean> uptodate;
+		lock.lock();
+		try {
+			outdated = cut.rebaseAsync( repoConfig, pullRequest( "feature/outdated" ) );
+			uptodate = cut.rebaseAsync( repoConfig, pullRequest( "feature/uptodate" ) );
+			while ( lock.getQueueLength() < 2 ) {
+				Thread.sleep( 10 );
+			}
+		} finally {
+			lock.unlock();
+		}
+		CompletableFuture.allOf( outdated, uptodate ).join();
+
+		assertThat( outdated ).isCompletedWithValue( true );
+		assertThat( uptodate ).isCompletedWithValue( true );
+		assertThat( gcCount() - gcsBefore ).isEqualTo( 1 );
+		final Repository repository = origin.getRepository();
+		try ( final RevWalk walk = new RevWalk( repository ) ) {
+			for ( final String branch : Arrays.asList( "feature/outdated", "feature/uptodate" ) ) {
+				final RevCommit rebased = walk.parseCommit( repository.resolve( branch ) );
+				assertThat( rebased.getParent( 0 ) ).isEqualTo( repository.resolve( "master" ) );
+			}
+		}
+	}
+
+	private long gcCount() {
+		return meterRegistry.find( GitRepoCleaner.METRIC_GC_DURATION ).timers().stream() //
+				.mapToLong( Timer::count ) //
+				.sum();
+	}
+
+	private void commitFile( final String branch, final String file, final String content ) throws Exception {
+		origin.checkout().setName( branch ).call();
+		Files.write( origin.getRepository().getWorkTree().toPath().resolve( file ),
+				content.getBytes( StandardCharsets.UTF_8 ) );
+		origin.add().addFilepattern( file ).call();
+		origin.commit().setMessage( file ).call();
+		origin.checkout().setName( "master" ).call();
+	}
+
+	private void commit( final String message ) throws Exception {
+		origin.commit().setMessage( message ).setAllowEmpty( true ).call();
+	}
+
+	private static PullRequest pullRequest( final String source ) {
+		return PullRequest.builder().id( 1 ).source( source ).destination( "master" ).build();
+	}
+
+}
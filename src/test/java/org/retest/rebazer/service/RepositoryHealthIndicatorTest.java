@@ -0,0 +1,69 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+import org.retest.rebazer.service.RebaseService.SetupState;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+class RepositoryHealthIndicatorTest {
+
+	RepositoryConfig first;
+	RepositoryConfig second;
+	RebaseService rebaseService;
+
+	RepositoryHealthIndicator cut;
+
+	@BeforeEach
+	void setUp() {
+		first = mock( RepositoryConfig.class );
+		when( first.getQualifiers() ).thenReturn( new String[] { "github.com", "retest", "first" } );
+		second = mock( RepositoryConfig.class );
+		when( second.getQualifiers() ).thenReturn( new String[] { "github.com", "retest", "second" } );
+		final RebazerConfig rebazerConfig = mock( RebazerConfig.class );
+		when( rebazerConfig.getRepos() ).thenReturn( Arrays.asList( first, second ) );
+		rebaseService = mock( RebaseService.class );
+
+		cut = new RepositoryHealthIndicator( rebazerConfig, rebaseService );
+	}
+
+	@Test
+	void all_repos_set_up_should_be_up() {
+		when( rebaseService.getSetupState( first ) ).thenReturn( SetupState.READY );
+		when( rebaseService.getSetupState( second ) ).thenReturn( SetupState.READY );
+
+		final Health health = cut.health();
+
+		assertThat( health.getStatus() ).isEqualTo( Status.UP );
+		assertThat( health.getDetails() ).containsEntry( "github.com/retest/first", SetupState.READY );
+	}
+
+	@Test
+	void pending_repo_should_be_unknown() {
+		when( rebaseService.getSetupState( first ) ).thenReturn( SetupState.READY );
+		when( rebaseService.getSetupState( second ) ).thenReturn( SetupState.PENDING );
+
+		assertThat( cut.health().getStatus() ).isEqualTo( Status.UNKNOWN );
+	}
+
+	@Test
+	void failed_repo_should_only_be_reported_in_details() {
+		when( rebaseService.getSetupState( first ) ).thenReturn( SetupState.FAILED );
+		when( rebaseService.getSetupState( second ) ).thenReturn( SetupState.READY );
+
+		final Health health = cut.health();
+
+		assertThat( health.getStatus() ).isEqualTo( Status.UP );
+		assertThat( health.getDetails() ).containsEntry( "github.com/retest/first", SetupState.FAILED );
+		assertThat( health.getDetails() ).containsEntry( "github.com/retest/second", SetupState.READY );
+	}
+
+}
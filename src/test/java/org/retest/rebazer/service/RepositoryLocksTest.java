@@ -0,0 +1,112 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+class RepositoryLocksTest {
+
+	RepositoryConfig repoConfig1;
+	RepositoryConfig repoConfig2;
+	ExecutorService executor;
+
+	RepositoryLocks cut;
+
+	@BeforeEach
+	void setUp() {
+		repoConfig1 = mock( RepositoryConfig.class );
+		repoConfig2 = mock( RepositoryConfig.class );
+		executor = Executors.newFixedThreadPool( 4 );
+		cut = new RepositoryLocks();
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void different_repos_should_not_contend() throws Exception {
+		final CountDownLatch repo1Locked = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		executor.submit( () -> cut.runLocked( repoConfig1, () -> {
+			repo1Locked.countDown();
+			await( release );
+		} ) );
+		assertThat( repo1Locked.await( 5, TimeUnit.SECONDS ) ).isTrue();
+
+		final Future<Boolean> repo2 = executor.submit( () -> cut.callLocked( repoConfig2, () -> true ) );
+
+		assertThat( repo2.get( 5, TimeUnit.SECONDS ) ).isTrue();
+		assertThat( cut.isLocked( repoConfig1 ) ).isTrue();
+		assertThat( cut.isLocked( repoConfig2 ) ).isFalse();
+		release.countDown();
+	}
+
+	@Test
+	void same_repo_should_be_serialized() throws Exception {
+		final CountDownLatch repo1Locked = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		executor.submit( () -> cut.runLocked( repoConfig1, () -> {
+			repo1Locked.countDown();
+			await( release );
+		} ) );
+		assertThat( repo1Locked.await( 5, TimeUnit.SECONDS ) ).isTrue();
+
+		final Future<Boolean> second = executor.submit( () -> cut.callLocked( repoConfig1, () -> true ) );
+		Thread.sleep( 100 );
+		assertThat( second.isDone() ).isFalse();
+
+		release.countDown();
+		assertThat( second.get( 5, TimeUnit.SECONDS ) ).isTrue();
+	}
+
+	@Test
+	void no_two_actions_should_run_at_once_within_a_repo() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final Future<?>[] futures = new Future<?>[20];
+		for ( int i = 0; i < futures.length; i++ ) {
+			futures[i] = executor.submit( () -> cut.runLocked( repoConfig1, () -> {
+				maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+				Thread.yield();
+				running.decrementAndGet();
+			} ) );
+		}
+		for ( final Future<?> future : futures ) {
+			future.get( 5, TimeUnit.SECONDS );
+		}
+
+		assertThat( maxRunning ).hasValue( 1 );
+	}
+
+	@Test
+	void lock_should_be_released_on_exception() {
+		assertThatThrownBy( () -> cut.runLocked( repoConfig1, () -> {
+			throw new IllegalStateException();
+		} ) ).isInstanceOf( IllegalStateException.class );
+
+		assertThat( cut.isLocked( repoConfig1 ) ).isFalse();
+	}
+
+	private static void await( final CountDownLatch latch ) {
+		try {
+			latch.await( 5, TimeUnit.SECONDS );
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.retest.rebazer.config.RebazerConfig;
+import org.retest.rebazer.domain.RepositoryConfig;
+
+class RepositoryWorkerPoolTest {
+
+	RepositoryConfig repoConfig1 = mock( RepositoryConfig.class );
+	RepositoryConfig repoConfig2 = mock( RepositoryConfig.class );
+
+	RepositoryWorkerPool cut;
+
+	@AfterEach
+	void tearDown() {
+		cut.shutdown();
+	}
+
+	@Test
+	void sequential_mode_should_run_task_inline() {
+		cut = new RepositoryWorkerPool( new RebazerConfig() );
+		final AtomicInteger counter = new AtomicInteger();
+
+		assertThat( cut.execute( repoConfig1, counter::incrementAndGet ) ).isTrue();
+		assertThat( cut.execute( repoConfig1, counter::incrementAndGet ) ).isTrue();
+
+		assertThat( counter ).hasValue( 2 );
+		assertThat( cut.isBusy( repoConfig1 ) ).isFalse();
+	}
+
+	@Test
+	void concurrent_mode_should_skip_repo_while_previous_cycle_is_running() throws Exception {
+		cut = new RepositoryWorkerPool( concurrentConfig( 2, 10 ) );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final CountDownLatch secondRepoDone = new CountDownLatch( 1 );
+
+		assertThat( cut.execute( repoConfig1, () -> await( release ) ) ).isTrue();
+		assertThat( cut.execute( repoConfig1, () -> {} ) ).isFalse();
+		assertThat( cut.execute( repoConfig2, secondRepoDone::countDown ) ).isTrue();
+
+		assertThat( secondRepoDone.await( 5, TimeUnit.SECONDS ) ).isTrue();
+		assertThat( cut.isBusy( repoConfig1 ) ).isTrue();
+
+		release.countDown();
+		waitUntilIdle( repoConfig1 );
+		assertThat( cut.execute( repoConfig1, () -> {} ) ).isTrue();
+	}
+
+	@Test
+	void concurrent_mode_should_skip_repo_if_queue_is_full() {
+		cut = new RepositoryWorkerPool( concurrentConfig( 1, 1 ) );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final RepositoryConfig repoConfig3 = mock( RepositoryConfig.class );
+
+		assertThat( cut.execute( repoConfig1, () -> await( release ) ) ).isTrue();
+		assertThat( cut.execute( repoConfig2, () -> {} ) ).isTrue();
+		assertThat( cut.execute( repoConfig3, () -> {} ) ).isFalse();
+		assertThat( cut.isBusy( repoConfig3 ) ).isFalse();
+
+		release.countDown();
+	}
+
+	private static RebazerConfig concurrentConfig( final int poolSize, final int queueLength ) {
+		final RebazerConfig config = new RebazerConfig();
+		config.setConcurrentRepoProcessing( true );
+		config.setRepoWorkerPoolSize( poolSize );
+		config.setRepoWorkerQueueLength( queueLength );
+		return config;
+	}
+
+	private void waitUntilIdle( final RepositoryConfig repoConfig ) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while ( cut.isBusy( repoConfig ) && System.currentTimeMillis() < deadline ) {
+			Thread.sleep( 10 );
+		}
+	}
+
+	private static void await( final CountDownLatch latch ) {
+		try {
+			latch.await( 5, TimeUnit.SECONDS );
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package org.retest.rebazer.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WorktreePoolTest {
+
+	@TempDir
+	Path temp;
+
+	Git primary;
+	RevCommit commit;
+	Instant now;
+
+	WorktreePool cut;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		primary = Git.init().setDirectory( temp.resolve( "primary" ).toFile() ).call();
+		commit = primary.commit().setMessage( "initial" ).setAllowEmpty( true ).call();
+		primary.getRepository().updateRef( "refs/remotes/origin/main" ).link( "refs/heads/master" );
+		now = Instant.ofEpochSecond( 1_000 );
+		final Clock clock = new Clock() {
+
+			@Override
+			public Instant instant() {
+				return now;
+			}
+
+			@Override
+			public ZoneOffset getZone() {
+				return ZoneOffset.UTC;
+			}
+
+			@Override
+			public Clock withZone( final ZoneId zone ) {
+				return this;
+			}
+		};
+		cut = new WorktreePool( primary.getRepository(), temp.resolve( "trees" ).toFile(), "https://example.org/r.git",
+				clock );
+	}
+
+	@AfterEach
+	void tearDown() {
+		primary.close();
+	}
+
+	@Test
+	void worktree_should_share_objects_of_primary() throws Exception {
+		final Git worktree = cut.borrow();
+
+		cut.update( worktree, Collections.singletonList( "main" ) );
+
+		assertThat( worktree.getRepository().resolve( "refs/remotes/origin/main" ) ).isEqualTo( commit );
+		assertThat( worktree.getRepository().getDirectory().toPath().resolve( "objects" ).toFile()
+				.listFiles( ( dir, name ) -> name.length() == 2 ) ).isEmpty();
+	}
+
+	@Test
+	void idle_worktrees_should_be_reused_and_reclaimed() throws Exception {
+		final Git first = cut.borrow();
+		final Git second = cut.borrow();
+		final File secondDirectory = second.getRepository().getWorkTree();
+		assertThat( secondDirectory ).isNotEqualTo( first.getRepository().getWorkTree() );
+
+		cut.release( first );
+		now = now.plusSeconds( 60 );
+		cut.release( second );
+		assertThat( cut.borrow() ).isSameAs( second );
+		cut.release( second );
+
+		now = now.plusSeconds( 30 );
+		assertThat( cut.reclaim( Duration.ofSeconds( 45 ) ) ).isEqualTo( 1 );
+		assertThat( cut.getIdleCount() ).isEqualTo( 1 );
+		assertThat( first.getRepository().getWorkTree() ).doesNotExist();
+		assertThat( secondDirectory ).exists();
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.retest.rebazer.webhook;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.retest.rebazer.domain.PullRequestTargets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class WebhookEventTest {
+
+	static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static Stream<Arguments> githubEvents() {
+		return Stream.of( //
+				Arguments.of( "pull_request",
+						"{\"pull_request\":{\"number\":7,\"merged\":false,\"base\":{\"ref\":\"main\"}}}",
+						PullRequestTargets.builder().pullRequestId( 7 ).build() ),
+				Arguments.of( "pull_request",
+						"{\"pull_request\":{\"number\":7,\"merged\":true,\"base\":{\"ref\":\"main\"}}}",
+						PullRequestTargets.builder().pullRequestId( 7 ).branch( "main" ).build() ),
+				Arguments.of( "pull_request_review", "{\"pull_request\":{\"number\":3}}",
+						PullRequestTargets.builder().pullRequestId( 3 ).build() ),
+				Arguments.of( "check_run", "{\"check_run\":{\"pull_requests\":[{\"number\":1},{\"number\":2}]}}",
+						PullRequestTargets.builder().pullRequestId( 1 ).pullRequestId( 2 ).build() ),
+				Arguments.of( "status", "{\"branches\":[{\"name\":\"feature/foo\"}]}",
+						PullRequestTargets.builder().branch( "feature/foo" ).build() ),
+				Arguments.of( "push", "{\"ref\":\"refs/heads/main\"}",
+						PullRequestTargets.builder().branch( "main" ).build() ),
+				Arguments.of( "push", "{\"ref\":\"refs/tags/v1\"}", PullRequestTargets.builder().build() ),
+				Arguments.of( "ping", "{}", PullRequestTargets.builder().build() ) );
+	}
+
+	private static Stream<Arguments> bitbucketEvents() {
+		return Stream.of( //
+				Arguments.of( "pullrequest:updated", "{\"pullrequest\":{\"id\":7}}",
+						PullRequestTargets.builder().pullRequestId( 7 ).build() ),
+				Arguments.of( "pullrequest:approved", "{\"pullrequest\":{\"id\":7}}",
+						PullRequestTargets.builder().pullRequestId( 7 ).build() ),
+				Arguments.of( "pullrequest:fulfilled",
+						"{\"pullrequest\":{\"id\":7,\"destination\":{\"branch\":{\"name\":\"develop\"}}}}",
+						PullRequestTargets.builder().pullRequestId( 7 ).branch( "develop" ).build() ),
+				Arguments.of( "repo:commit_status_updated", "{\"commit_status\":{\"refname\":\"feature/foo\"}}",
+						PullRequestTargets.builder().branch( "feature/foo" ).build() ),
+				Arguments.of( "repo:commit_status_created", "{\"commit_status\":{\"refname\":null}}",
+						PullRequestTargets.builder().build() ),
+				Arguments.of( "repo:push",
+						"{\"push\":{\"changes\":[{\"new\":{\"type\":\"branch\",\"name\":\"main\"}},{\"new\":null}]}}",
+						PullRequestTargets.builder().branch( "main" ).build() ) );
+	}
+
+	@ParameterizedTest
+	@MethodSource( "githubEvents" )
+	void fromGithub_should_extract_affected_pull_requests( final String eventType, final String json,
+			final PullRequestTargets expected ) throws Exception {
+		final String payload = json.replaceFirst( "\\{", "{\"repository\":{\"full_name\":\"team/repo\"}," )
+				.replace( ",}", "}" );
+
+		final WebhookEvent event = WebhookEvent.fromGithub( eventType, objectMapper.readTree( payload ) );
+
+		assertThat( event.getRepositoryFullName() ).isEqualTo( "team/repo" );
+		assertThat( event.getTargets() ).isEqualTo( expected );
+	}
+
+	@ParameterizedTest
+	@MethodSource( "bitbucketEvents" )
+	void fromBitbucket_should_extract_affected_pull_requests( final String eventKey, final String json,
+			final PullRequestTargets expected ) throws Exception {
+		final String payload = json.replaceFirst( "\\{", "{\"repository\":{\"full_name\":\"team/repo\"}," )
+				.replace( ",}", "}" );
+
+		final WebhookEvent event = WebhookEvent.fromBitbucket( eventKey, objectMapper.readTree( payload ) );
+
+		assertThat( event.getRepositoryFullName() ).isEqualTo( "team/repo" );
+		assertThat( event.getTargets() ).isEqualTo( expected );
+	}
+
+}
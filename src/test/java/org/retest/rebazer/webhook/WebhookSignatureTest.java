@@ -0,0 +1,44 @@
+package org.retest.rebazer.webhook;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class WebhookSignatureTest {
+
+	static final byte[] PAYLOAD = "Hello, World!".getBytes( StandardCharsets.UTF_8 );
+
+	@Test
+	void sign_should_match_github_reference_signature() {
+		// example from https://docs.github.com/en/webhooks/using-webhooks/validating-webhook-deliveries
+		assertThat( WebhookSignature.sign( "It's a Secret to Everybody", PAYLOAD ) )
+				.isEqualTo( "sha256=757107ea0eb2509fc211221cce984b8a37570b6d7586c22c46f4379c8b043e17" );
+	}
+
+	@Test
+	void isValid_should_accept_correct_signature() {
+		final String signature = WebhookSignature.sign( "secret", PAYLOAD );
+
+		assertThat( WebhookSignature.isValid( "secret", PAYLOAD, signature ) ).isTrue();
+	}
+
+	@Test
+	void isValid_should_reject_wrong_or_missing_signature() {
+		final String signature = WebhookSignature.sign( "other secret", PAYLOAD );
+
+		assertThat( WebhookSignature.isValid( "secret", PAYLOAD, signature ) ).isFalse();
+		assertThat( WebhookSignature.isValid( "secret", PAYLOAD, null ) ).isFalse();
+		assertThat( WebhookSignature.isValid( "secret", PAYLOAD, "sha1=abc" ) ).isFalse();
+	}
+
+	@Test
+	void isValid_should_reject_everything_without_configured_secret() {
+		final String signature = WebhookSignature.sign( "secret", PAYLOAD );
+
+		assertThat( WebhookSignature.isValid( null, PAYLOAD, signature ) ).isFalse();
+		assertThat( WebhookSignature.isValid( "", PAYLOAD, signature ) ).isFalse();
+	}
+
+}